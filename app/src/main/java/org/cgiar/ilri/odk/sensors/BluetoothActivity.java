@@ -22,20 +22,34 @@ import android.app.ProgressDialog;
 import android.bluetooth.BluetoothDevice;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.view.Window;
+import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import org.cgiar.ilri.odk.sensors.handlers.BluetoothHandler;
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategies;
+import org.cgiar.ilri.odk.sensors.handlers.DeviceSelector;
+import org.cgiar.ilri.odk.sensors.handlers.ScanSession;
+import org.cgiar.ilri.odk.sensors.handlers.ScanTrace;
+import org.cgiar.ilri.odk.sensors.storage.DefaultDevices;
+import org.cgiar.ilri.odk.sensors.storage.RecentReads;
+import org.cgiar.ilri.odk.sensors.storage.ScanMetrics;
 import org.cgiar.ilri.odk.sensors.storage.SharedPreferenceManager;
+import org.cgiar.ilri.odk.sensors.storage.TagIndex;
+import org.cgiar.ilri.odk.sensors.storage.TagLookupStore;
 import org.cgiar.ilri.odk.sensors.types.RFID;
 import org.cgiar.ilri.odk.sensors.types.Type;
+import org.cgiar.ilri.odk.sensors.types.TypeRegistry;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 /**
@@ -44,7 +58,10 @@ import java.util.List;
 public class BluetoothActivity
         extends Activity
         implements BluetoothHandler.DeviceFoundListener,
-                    BluetoothHandler.BluetoothSessionListener{
+                    BluetoothHandler.BluetoothSessionListener,
+                    BluetoothHandler.TagStreamListener,
+                    ScanSession.Listener,
+                    UiDispatcher.Listener{
 
     private static String TAG = "ODK Sensors Main Activity";
     private static String KEY_SENSOR = "sensor";
@@ -54,22 +71,63 @@ public class BluetoothActivity
      */
     private static String KEY_DATA_TYPE = "data_type";
     /*
+    Optional. How values are confirmed, overriding the strategy picked using the device's model
+        - accept_first
+        - pair
+        - vote
+     */
+    private static String KEY_CONFIRMATION = "confirmation";
+    /*
+    Optional. If true, the details of the tag read are looked up in the imported tag list and returned
+     as extras named after the tag list's columns (refer to TagLookupStore)
+     */
+    private static String KEY_LOOKUP = "lookup";
+    /*
+    Returned together with the value if the same tag was returned within the duplicate window set in
+     the settings and duplicates are flagged. Holds the seconds since the tag was last returned
+     */
+    private static String KEY_DUPLICATE = "duplicate";
+    /*
+    Optional. If true, tags are scanned one after the other over the same connection until the
+     operator presses Done. The unique tags are returned together in "value", separated by spaces
+     */
+    private static String KEY_BATCH = "batch";
+    private static final String BATCH_SEPARATOR = " ";//what ODK uses to separate the choices of select_multiple questions, so selected-at and count-selected work on the value
+    private static final int MAX_BATCH_RECONNECTS = 3;//consecutive reconnections without a new tag before the batch is returned
+    /*
     Supported data types include
         - rfid
+        - weight
+        - temperature
      */
 
     //private LinearLayout dialogMainLayout;
     private TextView dialogTextTV;
+    private Button doneB;
 
     private BluetoothHandler bluetoothHandler;
     private Type type;
+    private DeviceSelector deviceSelector;//Picks the devices to connect to without searching first, and the ones to fall back to
+    private ScanTrace scanTrace;//The timings of the current scan. Refer to ScanMetrics
+    private volatile ScanSession scanSession;//The state of the current scan. Driven by Bluetooth Handler's callbacks, observed in onScanStateChanged
 
     private List<String> deviceNames;
     private List<BluetoothDevice> bluetoothDevices;
     private String sensorToUse;
     private String returnDataType;
+    private String confirmation;
+    private boolean lookup;
+    private boolean batch;
+    private LinkedHashSet<String> batchValues;//the unique tags scanned in the batch, in the order they were scanned
+    private int batchReconnects;
+    private boolean batchDone;
 
     private ProgressDialog progressDialog;
+    private UiDispatcher uiDispatcher;//Carries status updates and tags read from Bluetooth Handler's threads to the UI thread
+    //the status strings, fetched once instead of for every update
+    private String scanUsingString;
+    private String tryingToConnectString;
+    private String scanAgainString;
 
     /**
      * This method is what is called first when the activity starts
@@ -86,6 +144,18 @@ public class BluetoothActivity
         setContentView(R.layout.activity_bluetooth);
 
         dialogTextTV = (TextView)this.findViewById(R.id.dialog_text_tv);
+        doneB = (Button)this.findViewById(R.id.done_b);
+        doneB.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                finishBatch();
+            }
+        });
+        batchValues = new LinkedHashSet<String>();
+        uiDispatcher = new UiDispatcher(this);
+        scanUsingString = getString(R.string.scan_using) + " ";
+        tryingToConnectString = getString(R.string.trying_to_connect_to_) + " ";
+        scanAgainString = getString(R.string.scan_again) + " \n ";
 
         Bundle bundle = this.getIntent().getExtras();
         if(bundle != null){
@@ -95,12 +165,23 @@ public class BluetoothActivity
             returnDataType = bundle.getString(KEY_DATA_TYPE);
             if(returnDataType != null) {
                 returnDataType = returnDataType.toLowerCase();
-                if (returnDataType.equals(RFID.KEY)) {
-                    type = new RFID();
-                }
+                type = TypeRegistry.get(returnDataType);
+            }
+
+            confirmation = bundle.getString(KEY_CONFIRMATION);
+            if(confirmation != null && ConfirmationStrategies.create(confirmation) == null){
+                Log.w(TAG, "Confirmation strategy " + confirmation + " is not supported. Using the device's default");
+                confirmation = null;
             }
 
 
+            lookup = Boolean.parseBoolean(bundle.getString(KEY_LOOKUP));
+            batch = Boolean.parseBoolean(bundle.getString(KEY_BATCH));
+            if(batch){
+                doneB.setVisibility(View.VISIBLE);
+                scanTrace = null;//batches are not timed, they would skew the single scan timings
+            }
+
             Log.i("BluetoothActivity", "Gotten data from parent activity");
         }
         else{
@@ -109,14 +190,6 @@ public class BluetoothActivity
         Log.i(TAG, "onCreated finished");
     }
 
-    private String processOutput(String output) {
-        if (type != null) {
-            return type.process(output);
-        }
-
-        return output;
-    }
-
     /**
      * This method is called second after onCreate
      * Initiate all hardware resources her and not onCreate.
@@ -130,15 +203,15 @@ public class BluetoothActivity
         super.onResume();
 
         if(bluetoothHandler == null) {
-            bluetoothHandler = new BluetoothHandler(this, type, this);
+            bluetoothHandler = BluetoothHandler.getWarmHandler(this, type);//kept for the whole process, so it's ready from the second scan on
+            bluetoothHandler.setDeviceFoundListener(this);
+            bluetoothHandler.setConfirmation(confirmation);
         }
         else {
             Log.i(TAG, "Bluetooth Handler is not null, not reinitializing it");
         }
 
-        if(isChildActivity()){
-            initBluetoothSearch();
-        }
+        initBluetoothSearch();//the only place the search is started when the activity comes up
 
         Log.i(TAG, "onResume finished");
     }
@@ -152,7 +225,9 @@ public class BluetoothActivity
     protected void onPause() {
         super.onPause();
 
+        if(scanSession != null) scanSession.cancel(ScanSession.REASON_STOPPED);
         stopBluetoothHandler();
+        uiDispatcher.cancel();
 
         if(progressDialog != null) progressDialog.dismiss();
         progressDialog = null;
@@ -174,8 +249,7 @@ public class BluetoothActivity
         getMenuInflater().inflate(R.menu.main, menu);
         //workingMenuItem = menu.findItem(R.id.action_working);
 
-        initBluetoothSearch();
-        return true;
+        return true;//the search is already started in onResume
     }
 
     /**
@@ -221,16 +295,19 @@ public class BluetoothActivity
     @Override
     public void onSearchStart() {
         Log.i(TAG, "Search for bluetooth devices started");
+        scanSession.onSearchStarted();
 
         this.runOnUiThread(new Runnable() {//done in case method is called from a thread that is not the UI thread
             @Override
             public void run() {
+                if(scanTrace != null) scanTrace.mark(ScanTrace.DISCOVERY_STARTED);
+
                 //show the spinning thingy on the action bar
                 setProgressBarIndeterminateVisibility(Boolean.TRUE);
 
                 if (isChildActivity()) {
                     //show dialog for scanning
-                    updateProgressDialog(getResources().getString(R.string.make_sure_devices_bluetooth_on));
+                    uiDispatcher.postStatus(getString(R.string.make_sure_devices_bluetooth_on));
                 }
             }
         });
@@ -247,8 +324,8 @@ public class BluetoothActivity
 
         if(isChildActivity()){
             if(bluetoothHandler.isDevicePaired(device)){
-                BluetoothSocketThread bluetoothSocketThread = new BluetoothSocketThread();
-                bluetoothSocketThread.execute(device);
+                if(scanTrace != null) scanTrace.mark(ScanTrace.DEVICE_FOUND);
+                getDataFromDevice(device);
             }
         }
         /*else{
@@ -282,31 +359,46 @@ public class BluetoothActivity
      */
     @Override
     public void onSearchStop() {
+        scanSession.onSearchStopped();//the scan is given up on if no connection starts before the session's deadline. Refer to onScanStateChanged
+
         this.runOnUiThread(new Runnable() {//done in case the method is called in a thread that is not the UI thread
             @Override
             public void run() {
                 //hide the spinning thingy in the action bar
                 setProgressBarIndeterminateVisibility(Boolean.FALSE);
+            }
+        });
+    }
 
-                if (isChildActivity()) {
-                    if (!bluetoothHandler.isSocketActive()) {//if not connected to a device, take back to parent activity
-                        //wait for socket to fully initialize
-                        try {
-                            Thread.sleep(2000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
+    /**
+     * This method is called whenever the scan moves to a new state. The scan is driven by Bluetooth
+     *  Handler's callbacks and its deadlines run in the background, so this method can be called from
+     *  any thread
+     *
+     * @param session   The scan
+     * @param oldState  The state the scan was in e.g ScanSession.SEARCHING
+     * @param newState  The state the scan is now in
+     */
+    @Override
+    public void onScanStateChanged(final ScanSession session, int oldState, int newState) {
+        if(newState == ScanSession.CANCELLED && session.getReason() == ScanSession.REASON_NO_DEVICE){
+            this.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if(session != scanSession || isFinishing() || !isChildActivity()) return;
 
-                        if (!bluetoothHandler.isSocketActive()) {//if there is still no active connection, give up
-                            Toast.makeText(BluetoothActivity.this, getResources().getString(R.string.no_device_found), Toast.LENGTH_LONG).show();
-                            Intent intent = new Intent();
-                            setResult(RESULT_CANCELED, intent);
-                            finish();
-                        }
+                    //no device was connected to, take back to parent activity
+                    if(!batchValues.isEmpty()){//don't lose the tags already scanned
+                        finishBatch();
+                        return;
                     }
+                    Toast.makeText(BluetoothActivity.this, getResources().getString(R.string.no_device_found), Toast.LENGTH_LONG).show();
+                    Intent intent = new Intent();
+                    setResult(RESULT_CANCELED, intent);
+                    finish();
                 }
-            }
-        });
+            });
+        }
     }
 
     /**
@@ -326,11 +418,7 @@ public class BluetoothActivity
         if(requestCode == BluetoothHandler.REQUEST_ENABLE_BT){
             if(resultCode == RESULT_OK){//bluetooth was successfully enabled
                 Log.d(TAG, "Bluetooth was successfully enabled");
-
-                //Make sure you reinitialize the bluetooth handler because it's null
-                bluetoothHandler = new BluetoothHandler(this, type, this);
-
-                startBluetoothSearch();
+                //nothing to do here, onResume is called right after this method and starts the search
             }
             else{//means that user did not enable bluetooth
                 Log.d(TAG, "Bluetooth was not enabled");
@@ -348,30 +436,26 @@ public class BluetoothActivity
     private void initBluetoothSearch(){
         Log.i(TAG, "initBluetoothSearch called");
 
+        if(scanTrace == null && !batch) scanTrace = new ScanTrace();//the scan starts now, unless it already had
+        if(scanSession == null || scanSession.isFinished()) scanSession = new ScanSession(this);
+        bluetoothHandler.setScanTrace(scanTrace);
+
         if(bluetoothHandler.isBluetootSupported()){
             if(bluetoothHandler.isBluetootEnabled()){
                 Log.d(TAG, "Bluetooth is on");
-                //check if a default device was set
-                String defaultDeviceAddress = SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DEFAULT_BT_RFID_DEVICE_ADDRESS, BluetoothHandler.DEFAULT_BT_MAC_ADDRESS);
-                if(defaultDeviceAddress.equals(BluetoothHandler.DEFAULT_BT_MAC_ADDRESS)){
-                    Log.i(TAG, "Default RFID device not set. Scanning for all available devices");
+                deviceSelector = new DeviceSelector(bluetoothHandler);
+                if(!deviceSelector.hasDefaultDevices() && returnDataType != null && !DefaultDevices.getAddresses(this, returnDataType).isEmpty()){
+                    Log.i(TAG, "None of the default " + returnDataType + " devices is paired. Searching for devices");
                     startBluetoothSearch();
                 }
-                else{
-                    Log.i(TAG, "User set default RFID device to "+defaultDeviceAddress);
-                    BluetoothDevice bluetoothDevice = bluetoothHandler.getBluetoothDevice(defaultDeviceAddress);
-                    if(bluetoothDevice != null){
-                        BluetoothSocketThread bluetoothSocketThread = new BluetoothSocketThread();
-                        bluetoothSocketThread.execute(bluetoothDevice);
-                    }
-                    else{
-                        startBluetoothSearch();
-                    }
+                else if(!connectToNextDevices()){
+                    Log.i(TAG, "No paired device to connect to. Scanning for all available devices");
+                    startBluetoothSearch();
                 }
             }
             else{
                 Log.d(TAG, "Bluetooth is off");
-                bluetoothHandler.requestEnableBluetooth();
+                bluetoothHandler.requestEnableBluetooth(this);
             }
         }
         else{
@@ -379,6 +463,34 @@ public class BluetoothActivity
         }
     }
 
+    /**
+     * This method connects to the next devices picked by the device selector i.e the default devices
+     *  for the data type one after the other, then the last known good device, then all the other
+     *  paired devices at once
+     *
+     * @return False if none of the remaining devices could be connected to
+     */
+    private boolean connectToNextDevices(){
+        List<BluetoothDevice> candidates = deviceSelector.next();
+        while(!candidates.isEmpty()){
+            boolean initiated;
+            if(candidates.size() == 1){
+                Log.i(TAG, "Connecting directly to " + candidates.get(0).getAddress());
+                initiated = getDataFromDevice(candidates.get(0));
+            }
+            else {
+                Log.i(TAG, "Connecting to all " + candidates.size() + " remaining paired devices at once");
+                if(batch) initiated = bluetoothHandler.streamDataFromDevices(candidates, this, this);
+                else initiated = bluetoothHandler.getDataFromDevices(candidates, this);
+                if(initiated) scanSession.onConnecting();
+            }
+            if(initiated) return true;
+
+            candidates = deviceSelector.next();
+        }
+        return false;
+    }
+
     /**
      * This method tells BluetoothHandler to start the actual search
      */
@@ -390,12 +502,10 @@ public class BluetoothActivity
     /**
      * This method kills everything in Bluetooth Handler that needs to be killed before bluetooth
      *  handler is set to null. This includes releasing the bluetooth module and unregistering any
-     *  receiver
+     *  receiver. The handler itself is kept warm for the next time the activity comes up
      */
     private void stopBluetoothHandler(){
-        bluetoothHandler.stopScan();
-        bluetoothHandler.closeSocket(null, null);//close any hanging socket
-        bluetoothHandler.unregisterReceiver();
+        bluetoothHandler.release();//close any hanging socket, the handler's threads are kept
 
         bluetoothHandler = null;
     }
@@ -432,12 +542,8 @@ public class BluetoothActivity
      */
     @Override
     public void onConnected(final BluetoothDevice device) {
-        this.runOnUiThread(new Runnable() {//Used in case the method is called from a thread that is not the UI thread
-            @Override
-            public void run() {
-                updateProgressDialog(getResources().getString(R.string.scan_using) + " " + device.getName());
-            }
-        });
+        scanSession.onConnected();
+        uiDispatcher.postStatus(scanUsingString + device.getName());//shown on the UI thread
     }
 
     /**
@@ -447,12 +553,7 @@ public class BluetoothActivity
      */
     @Override
     public void onSocketOpened(final BluetoothDevice device) {
-        this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                updateProgressDialog(getResources().getString(R.string.trying_to_connect_to_) + " " + device.getName());
-            }
-        });
+        uiDispatcher.postStatus(tryingToConnectString + device.getName());
     }
 
     /**
@@ -466,12 +567,49 @@ public class BluetoothActivity
      */
     @Override
     public void onFirstMessageGotten(final BluetoothDevice device, final String message) {
-        this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                updateProgressDialog(getResources().getString(R.string.scan_again)+ " \n " + processOutput(message));
-            }
-        });
+        scanSession.onReading();
+        uiDispatcher.postStatus(scanAgainString + message);
+    }
+
+    /**
+     * This method adds the details of the tag to the result sent back to ODK, one extra per column in
+     *  the tag list. ODK puts every extra into the field with the same name in the group that called
+     *  the app, so the columns should be named after the form's fields
+     *
+     * @param intent    The result
+     * @param tag       The tag read
+     */
+    private void putTagDetails(Intent intent, String tag){
+        TagIndex.Record record = TagLookupStore.getInstance(this).lookup(tag);//takes microseconds, fine on the UI thread
+        if(record == null){
+            Log.w(TAG, "Tag " + tag + " is not in the tag list");
+            return;
+        }
+
+        for(int index = 0; index < record.size(); index++){
+            intent.putExtra(record.getColumn(index), record.getValue(index));
+        }
+    }
+
+    /**
+     * @return The window set in the settings within which the same tag being returned again is a duplicate, in milliseconds
+     */
+    private long getDuplicateWindow(){
+        String window = SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_WINDOW, String.valueOf(RecentReads.DEFAULT_WINDOW));
+        try {
+            return Long.parseLong(window) * 1000;
+        }
+        catch (NumberFormatException e){
+            Log.w(TAG, "Ignoring malformed duplicate window " + window);
+            return RecentReads.DEFAULT_WINDOW * 1000;
+        }
+    }
+
+    /**
+     * @return What is to be done with duplicates. Either RecentReads.ACTION_FLAG or RecentReads.ACTION_REJECT
+     */
+    private String getDuplicateAction(){
+        return SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_ACTION, RecentReads.ACTION_FLAG);
     }
 
     /**
@@ -497,6 +635,7 @@ public class BluetoothActivity
         this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                uiDispatcher.cancel();//a status still pending would bring the dialog back
                 if(progressDialog != null) progressDialog.dismiss();
                 progressDialog = null;//do a bit of house cleaning
 
@@ -505,8 +644,11 @@ public class BluetoothActivity
 
                     //Test whether the activity was called from the launcher or by ODK Collect as a sub activity
                     if(!isChildActivity()){//activity called from the launcher
-                        Toast.makeText(BluetoothActivity.this, "Message from "+device.getName()+" is " + message + ". App not called by other app", Toast.LENGTH_LONG).show();
+                        TagIndex.Record record = TagLookupStore.getInstance(BluetoothActivity.this).lookup(message);
+                        String details = record != null ? record.toString() : message;
+                        Toast.makeText(BluetoothActivity.this, "Message from "+device.getName()+" is " + details + ". App not called by other app", Toast.LENGTH_LONG).show();
                         Log.i(TAG, "Activity not called by another activity. Result just displayed");
+                        scanSession.onDone();
                     }
                     else{//activity called by odk
                         Log.i(TAG, "Activity called by "+BluetoothActivity.this.getCallingActivity().getClassName() + " sending message there");
@@ -518,9 +660,28 @@ public class BluetoothActivity
                          */
 
                         if(type != null){
-                            String value = processOutput(message);
-                            intent.putExtra("value", value);
+                            long now = System.currentTimeMillis();
+                            RecentReads recentReads = RecentReads.getInstance(BluetoothActivity.this);
+                            long age = recentReads.getAge(message, now);
+                            boolean duplicate = RFID.KEY.equals(type.getName()) && recentReads.isDuplicate(message, getDuplicateWindow(), now);
+                            if(duplicate && RecentReads.ACTION_REJECT.equals(getDuplicateAction())){
+                                Log.w(TAG, "Rejecting " + message + " since it was already returned " + age + "ms ago");
+                                Toast.makeText(BluetoothActivity.this, getString(R.string.duplicate_rejected_, message, age / 1000), Toast.LENGTH_LONG).show();
+                                scanTrace = null;//the next scan is timed on its own
+                                readAgain(device);//wait for another tag on the connection already open
+                                return;
+                            }
+
+                            intent.putExtra("value", message);//already processed by Bluetooth Handler
+                            if(duplicate){
+                                Log.w(TAG, "Flagging " + message + " as a duplicate. It was already returned " + age + "ms ago");
+                                intent.putExtra(KEY_DUPLICATE, String.valueOf(age / 1000));
+                                Toast.makeText(BluetoothActivity.this, getString(R.string.duplicate_flagged_, message, age / 1000), Toast.LENGTH_LONG).show();
+                            }
+                            recentReads.record(message, now);//saved in the background
+                            if(lookup) putTagDetails(intent, message);
                             setResult(RESULT_OK, intent);
+                            if(scanTrace != null) scanTrace.mark(ScanTrace.RESULT_DELIVERED);
                         }
                         else{
                             setResult(RESULT_CANCELED, intent);
@@ -529,7 +690,13 @@ public class BluetoothActivity
                             Toast.makeText(BluetoothActivity.this, BluetoothActivity.this.getResources().getString(R.string.something_wrong_odk), Toast.LENGTH_LONG).show();
                         }
 
+                        scanSession.onDone();
                         finish();
+
+                        if(scanTrace != null && scanTrace.isReached(ScanTrace.RESULT_DELIVERED)){
+                            ScanMetrics.getInstance(BluetoothActivity.this).record(scanTrace);
+                            scanTrace = null;
+                        }
                     }
                 }
                 else {
@@ -540,6 +707,42 @@ public class BluetoothActivity
         });
     }
 
+    /**
+     * This method is called when the device sent values but none of them could be confirmed in time,
+     *  e.g because the reader only sent its cached tag. Nothing is returned to ODK, the operator is
+     *  asked to scan again on the same device
+     *
+     * @param device The device that sent the values
+     */
+    @Override
+    public void onValueUnconfirmed(final BluetoothDevice device) {
+        this.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Log.w(TAG, "No value from " + device.getName() + " could be confirmed. Reading again");
+                Toast.makeText(BluetoothActivity.this, getString(R.string.value_unconfirmed_, device.getName()), Toast.LENGTH_LONG).show();
+                scanTrace = null;//the next scan is timed on its own
+                readAgain(device);
+            }
+        });
+    }
+
+    /**
+     * This method reads another value from the device the last value was read from.
+     * The device's session is still open in BluetoothSessionPool so nothing is searched for or
+     *  connected to again
+     *
+     * @param device The device to read from
+     */
+    private void readAgain(BluetoothDevice device){
+        if(bluetoothHandler == null) return;
+
+        if(scanTrace == null && !batch) scanTrace = new ScanTrace();
+        bluetoothHandler.setScanTrace(scanTrace);
+        deviceSelector = new DeviceSelector(bluetoothHandler, device);//falls back like any other direct connection if the session broke in the meantime
+        connectToNextDevices();
+    }
+
     /**
      * Called when the bluetooth socket to the device is successfully closed by Bluetooth Handler
      *
@@ -558,15 +761,37 @@ public class BluetoothActivity
 
     /**
      * This method is called whenever the Bluetooth handler is unable to create or continue with the socket
+     * If nothing was scanned in time, the same device is read from again since it works.
+     * Otherwise the next devices picked by the device selector are tried, if any is left
      *
      * @param device    The device on the other end of the socket
+     * @param reason    Why the socket was canceled e.g BluetoothHandler.CANCEL_IDLE
      */
     @Override
-    public void onSocketCanceled(final BluetoothDevice device) {
+    public void onSocketCanceled(final BluetoothDevice device, final int reason) {
         this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                if(reason == BluetoothHandler.CANCEL_IDLE && bluetoothHandler != null && !isFinishing()){
+                    Log.i(TAG, "Nothing scanned on " + device.getName() + " in time. Still waiting for a tag on it");
+                    scanTrace = null;//the wait would skew the scan timings
+                    readAgain(device);
+                    return;
+                }
+
+                if(deviceSelector != null && deviceSelector.isCurrent(device) && bluetoothHandler != null){
+                    Log.w(TAG, "Was unable to read from " + device.getName() + ". Trying the next devices");
+                    if(connectToNextDevices()) return;
+                }
+
+                if(!batchValues.isEmpty()){//don't lose the tags already scanned
+                    Log.w(TAG, "Was unable to reconnect to " + device.getName() + " returning the tags already scanned");
+                    finishBatch();
+                    return;
+                }
+
                 Log.w(TAG, "Was unable to start socket with " + device.getName() + " returning nothing to the parent activity");
+                scanSession.cancel(ScanSession.REASON_CONNECT_FAILED);
                 Toast.makeText(BluetoothActivity.this,getString(R.string.unable_to_connect_to_) + " " + device.getName(), Toast.LENGTH_LONG).show();
 
                 Intent intent = new Intent();
@@ -578,29 +803,136 @@ public class BluetoothActivity
     }
 
     /**
-     * This class creates an asynchronous thread for fetching data from bluetooth since getting values from
-     *  InputStreams block a thread.
-     *  Refer to:
-     *      - http://developer.android.com/reference/android/os/AsyncTask.html
-     *      - http://developer.android.com/guide/topics/connectivity/bluetooth.html
+     * This method is called for every tag confirmed while scanning a batch
+     *
+     * @param device    The device that sent the tag
+     * @param value     The tag
      */
-    private class BluetoothSocketThread extends AsyncTask<BluetoothDevice, Integer, Boolean>{
+    @Override
+    public void onValueRead(final BluetoothDevice device, final String value) {
+        scanSession.onReading();
+        uiDispatcher.postValue(value);//tags read in the same frame are handled together in onValuesPosted
+    }
 
-        @Override
-        protected Boolean doInBackground(BluetoothDevice... bluetoothDevices) {
-            Boolean result = bluetoothHandler.getDataFromDevice(bluetoothDevices[0], BluetoothActivity.this);
-            return result;
+    /**
+     * This method is called on the UI thread with the tags read while scanning a batch since the last
+     *  update. Only the status after the last tag is shown
+     *
+     * @param values The tags read, in the order they were read
+     */
+    @Override
+    public void onValuesPosted(List<String> values) {
+        if(batchDone) return;
+
+        long now = System.currentTimeMillis();
+        RecentReads recentReads = RecentReads.getInstance(this);
+        boolean rejectDuplicates = type != null && RFID.KEY.equals(type.getName()) && RecentReads.ACTION_REJECT.equals(getDuplicateAction());
+        long duplicateWindow = getDuplicateWindow();
+        String status = null;
+        for(int index = 0; index < values.size(); index++){
+            String currValue = values.get(index);
+            if(batchValues.contains(currValue)){
+                if(index == values.size() - 1) status = getString(R.string.batch_already_scanned_, currValue, batchValues.size());
+            }
+            else if(rejectDuplicates && recentReads.isDuplicate(currValue, duplicateWindow, now)){
+                if(index == values.size() - 1) status = getString(R.string.batch_duplicate_rejected_, currValue, recentReads.getAge(currValue, now) / 1000, batchValues.size());
+            }
+            else {
+                batchValues.add(currValue);
+                batchReconnects = 0;
+                if(index == values.size() - 1) status = getString(R.string.batch_status_, batchValues.size(), currValue);
+            }
         }
+        if(status != null) uiDispatcher.postStatus(status);//shown right after the values are handled, unless it did not change
+    }
+
+    /**
+     * This method is called on the UI thread with the latest status posted
+     *
+     * @param status The status
+     */
+    @Override
+    public void onStatusPosted(String status) {
+        if(isFinishing()) return;
+        updateProgressDialog(status);
+    }
+
+    /**
+     * This method is called when the device stops streaming, either because the batch is done or
+     *  because the connection was lost. The device is reconnected to in the latter case
+     *
+     * @param device The device that was streaming
+     */
+    @Override
+    public void onStreamStopped(final BluetoothDevice device) {
+        this.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if(batchDone || bluetoothHandler == null || isFinishing()) return;
 
-        @Override
-        protected void onPostExecute(Boolean result) {
-            super.onPostExecute(result);
-            if(result == null || result == false){
-                Log.w(TAG, "Unable to initiate connection with bluetooth device");
+                if(batchReconnects < MAX_BATCH_RECONNECTS){
+                    batchReconnects++;
+                    Log.w(TAG, "Lost the connection to " + device.getName() + " while scanning a batch. Reconnecting");
+                    uiDispatcher.postStatus(getString(R.string.batch_reconnecting_, device.getName(), batchValues.size()));
+                    initBluetoothSearch();
+                }
+                else {
+                    Log.w(TAG, "Giving up on reconnecting to " + device.getName());
+                    finishBatch();
+                }
             }
-            else{
-                Log.i(TAG, "Async task with bluetooth device successfully initiated");
+        });
+    }
+
+    /**
+     * This method stops scanning the batch and returns the tags scanned to ODK
+     */
+    private void finishBatch(){
+        if(batchDone) return;
+        uiDispatcher.flush();//the tags read in the current frame are part of the batch
+        batchDone = true;
+        scanSession.onDone();
+
+        if(bluetoothHandler != null) bluetoothHandler.stopStreaming();//the session goes back to the pool
+
+        Intent intent = new Intent();
+        if(batchValues.isEmpty()){
+            setResult(RESULT_CANCELED, intent);
+        }
+        else {
+            intent.putExtra("value", TextUtils.join(BATCH_SEPARATOR, batchValues));
+            setResult(RESULT_OK, intent);
+
+            long now = System.currentTimeMillis();
+            RecentReads recentReads = RecentReads.getInstance(this);
+            for(String currValue : batchValues){
+                recentReads.record(currValue, now);//saved in the background
             }
+            Log.i(TAG, "Returning a batch of " + batchValues.size() + " tags");
+        }
+        finish();
+    }
+
+    /**
+     * This method tells Bluetooth Handler to start getting data from the provided device.
+     * Bluetooth Handler does the connection and reading in its own threads so this method does not
+     *  block the UI thread
+     *
+     * @param device The device to get data from
+     *
+     * @return True if the connection was initiated
+     */
+    private boolean getDataFromDevice(BluetoothDevice device){
+        boolean result;
+        if(batch) result = bluetoothHandler.streamDataFromDevice(device, BluetoothActivity.this, BluetoothActivity.this);
+        else result = bluetoothHandler.getDataFromDevice(device, BluetoothActivity.this);
+        if(result == false){
+            Log.w(TAG, "Unable to initiate connection with bluetooth device");
+        }
+        else{
+            Log.i(TAG, "Connection with bluetooth device successfully initiated");
+            scanSession.onConnecting();
         }
+        return result;
     }
 }
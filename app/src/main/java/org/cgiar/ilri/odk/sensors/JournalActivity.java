@@ -0,0 +1,230 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.DateFormat;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import org.cgiar.ilri.odk.sensors.storage.ScanJournal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This Activity lists the values recorded in the scan journal, most recent first, and exports them as CSV.
+ * The journal is only read on background threads
+ */
+public class JournalActivity extends Activity {
+
+    private static final String TAG = "JournalActivity";
+    private static final int MAX_LISTED = 500;//entries shown in the list
+    private static final int MAX_EXPORTED = 100000;//entries written to the exported file
+    private static final String EXPORT_FILE = "scan_journal.csv";
+
+    private EditText filterET;
+    private TextView journalSummaryTV;
+    private ListView journalLV;
+    private ArrayAdapter<String> journalAdapter;
+    private QueryTask queryTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_journal);
+
+        filterET = (EditText)findViewById(R.id.filter_et);
+        journalSummaryTV = (TextView)findViewById(R.id.journal_summary_tv);
+        journalLV = (ListView)findViewById(R.id.journal_lv);
+        journalAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1, new ArrayList<String>());
+        journalLV.setAdapter(journalAdapter);
+
+        filterET.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                loadEntries();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        loadEntries();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if(queryTask != null) queryTask.cancel(false);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.journal, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if(item.getItemId() == R.id.action_export){
+            new ExportTask(getFilter()).execute();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * @return The text typed in the filter or null if nothing was typed
+     */
+    private String getFilter(){
+        String filter = filterET.getText().toString().trim();
+        if(filter.length() == 0) return null;
+        return filter;
+    }
+
+    /**
+     * This method reloads the listed entries in the background, cancelling any load still running
+     */
+    private void loadEntries(){
+        if(queryTask != null) queryTask.cancel(false);
+        queryTask = new QueryTask(getFilter());
+        queryTask.execute();
+    }
+
+    /**
+     * This class reads the entries to be listed from the journal
+     */
+    private class QueryTask extends AsyncTask<Void, Void, List<String>> {
+        private final String filter;
+
+        public QueryTask(String filter){
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<String> doInBackground(Void... params) {
+            List<ScanJournal.Entry> entries = ScanJournal.getInstance(JournalActivity.this).query(filter, MAX_LISTED);
+            List<String> lines = new ArrayList<String>(entries.size());
+            for(ScanJournal.Entry currEntry : entries){
+                if(isCancelled()) break;
+                lines.add(getString(R.string.journal_line_, currEntry.getValue(),
+                        DateFormat.format("yyyy-MM-dd kk:mm:ss", currEntry.getTime()), currEntry.getAddress()));
+            }
+            return lines;
+        }
+
+        @Override
+        protected void onPostExecute(List<String> lines) {
+            if(isCancelled()) return;
+
+            journalAdapter.clear();
+            journalAdapter.addAll(lines);
+            String summary;
+            if(lines.size() == 0) summary = getString(R.string.journal_empty);
+            else summary = getString(R.string.journal_summary_, lines.size());
+
+            long dropped = ScanJournal.getInstance(JournalActivity.this).getDroppedCount();
+            if(dropped > 0) summary = summary + "\n" + getString(R.string.journal_dropped_, dropped);
+            journalSummaryTV.setText(summary);
+        }
+    }
+
+    /**
+     * This class writes the entries to a CSV file in the app's external storage and shares it
+     */
+    private class ExportTask extends AsyncTask<Void, Void, File> {
+        private final String filter;
+
+        public ExportTask(String filter){
+            this.filter = filter;
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            File directory = getExternalFilesDir(null);
+            if(directory == null){
+                Log.e(TAG, "External storage is not available. Cannot export the journal");
+                return null;
+            }
+
+            File file = new File(directory, EXPORT_FILE);
+            Writer writer = null;
+            try {
+                writer = new FileWriter(file);
+                ScanJournal.exportAsCsv(ScanJournal.getInstance(JournalActivity.this).query(filter, MAX_EXPORTED), writer);
+                return file;
+            }
+            catch (IOException e){
+                Log.e(TAG, "Unable to export the journal to " + file.getAbsolutePath());
+                return null;
+            }
+            finally {
+                if(writer != null){
+                    try {
+                        writer.close();
+                    }
+                    catch (IOException e){
+                        Log.w(TAG, "Unable to close " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            if(file == null){
+                Toast.makeText(JournalActivity.this, R.string.unable_to_export_journal, Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/csv");
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.app_name) + " " + getString(R.string.pref_scan_journal_text));
+            intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+            startActivity(Intent.createChooser(intent, getString(R.string.export_scan_journal_using)));
+        }
+    }
+}
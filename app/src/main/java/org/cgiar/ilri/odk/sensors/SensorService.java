@@ -0,0 +1,518 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.handlers.BluetoothHandler;
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategies;
+import org.cgiar.ilri.odk.sensors.handlers.DeviceSelector;
+import org.cgiar.ilri.odk.sensors.storage.TagIndex;
+import org.cgiar.ilri.odk.sensors.storage.TagLookupStore;
+import org.cgiar.ilri.odk.sensors.types.Type;
+import org.cgiar.ilri.odk.sensors.types.TypeRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This Service gets data from sensors for other apps without any activity being shown, so that apps
+ *  can read tags without switching to ODK Sensors and the connection to the reader is not lost when the
+ *  screen is rotated or the user switches apps.
+ *
+ * Apps bind to the service (they need the READ_SENSOR_DATA permission) and talk to it using a Messenger:
+ *      - MSG_READ reads a single value. The message's data holds the same variables as the
+ *        GET_SENSOR_DATA intent i.e data_type and optionally confirmation and lookup. The value is sent
+ *        back to the message's replyTo as MSG_VALUE, or MSG_ERROR if no value could be read
+ *      - MSG_START_STREAM sends every value read to replyTo as MSG_VALUE until MSG_STOP_STREAM is sent
+ * The arg1 of the request is copied into the replies so that clients can match them to their requests.
+ * Reads for the same data type that come in while a read is running get the same value.
+ *
+ * Every value read by the service is also broadcast as ACTION_VALUE_READ to apps holding the
+ *  READ_SENSOR_DATA permission, together with the details imported for the tag (if any).
+ * The service runs in the foreground while it is reading.
+ */
+public class SensorService extends Service {
+
+    private static final String TAG = "ODK Sensors SensorService";
+    private static final int NOTIFICATION_ID = 1;
+
+    public static final String ACTION_VALUE_READ = "org.cgiar.ilri.odk.sensors.action.VALUE_READ";
+    public static final String PERMISSION_READ_SENSOR_DATA = "org.cgiar.ilri.odk.sensors.permission.READ_SENSOR_DATA";
+
+    public static final int MSG_READ = 1;
+    public static final int MSG_VALUE = 2;
+    public static final int MSG_ERROR = 3;
+    public static final int MSG_START_STREAM = 4;
+    public static final int MSG_STOP_STREAM = 5;
+
+    public static final String KEY_DATA_TYPE = "data_type";
+    public static final String KEY_CONFIRMATION = "confirmation";
+    public static final String KEY_LOOKUP = "lookup";
+    public static final String KEY_VALUE = "value";
+    public static final String KEY_DEVICE = "device";
+    public static final String KEY_ERROR = "error";
+
+    public static final String ERROR_UNSUPPORTED_DATA_TYPE = "unsupported_data_type";
+    public static final String ERROR_BLUETOOTH_OFF = "bluetooth_off";
+    public static final String ERROR_NO_DEVICE = "no_device";
+    public static final String ERROR_NO_VALUE = "no_value";
+    public static final String ERROR_UNCONFIRMED = "unconfirmed";
+    public static final String ERROR_STOPPED = "stopped";
+
+    private final Map<String, Reader> readers = new HashMap<String, Reader>();//keyed by data type
+    private Messenger messenger;
+    private boolean foreground;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        messenger = new Messenger(new IncomingHandler());
+        Log.i(TAG, "Sensor service created");
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return messenger.getBinder();
+    }
+
+    @Override
+    public void onDestroy() {
+        for(Reader currReader : readers.values()){
+            currReader.shutdown();
+        }
+        readers.clear();
+        updateForeground();
+
+        super.onDestroy();
+        Log.i(TAG, "Sensor service destroyed");
+    }
+
+    /**
+     * This class handles the messages sent by the bound apps. Runs on the main thread
+     */
+    private class IncomingHandler extends Handler {
+        @Override
+        public void handleMessage(Message message) {
+            switch (message.what){
+                case MSG_READ:
+                case MSG_START_STREAM:
+                    Request request = new Request(message);
+                    if(request.replyTo == null){
+                        Log.w(TAG, "Ignoring request without a replyTo");
+                        return;
+                    }
+
+                    String dataType = request.getString(KEY_DATA_TYPE);
+                    Type type = dataType != null ? TypeRegistry.get(dataType.toLowerCase()) : null;
+                    if(type == null){
+                        request.replyError(ERROR_UNSUPPORTED_DATA_TYPE);
+                        return;
+                    }
+
+                    Reader reader = readers.get(type.getName());
+                    if(reader == null){
+                        reader = new Reader(type);
+                        readers.put(type.getName(), reader);
+                    }
+                    if(message.what == MSG_READ) reader.read(request);
+                    else reader.startStream(request);
+                    updateForeground();
+                    break;
+                case MSG_STOP_STREAM:
+                    for(Reader currReader : readers.values()){
+                        currReader.stopStream(message.replyTo);
+                    }
+                    updateForeground();
+                    break;
+                default:
+                    super.handleMessage(message);
+            }
+        }
+    }
+
+    /**
+     * This method runs the service in the foreground while any read is running, so that it is not
+     *  killed in the middle of a read when the bound apps are in the background
+     */
+    private void updateForeground(){
+        boolean busy = false;
+        for(Reader currReader : readers.values()){
+            busy = busy || currReader.isBusy();
+        }
+
+        if(busy && !foreground){
+            PendingIntent settings = PendingIntent.getActivity(this, 0, new Intent(this, SettingsActivity.class), 0);
+            Notification notification = new NotificationCompat.Builder(this)
+                    .setSmallIcon(R.drawable.ic_launcher)
+                    .setContentTitle(getString(R.string.app_name))
+                    .setContentText(getString(R.string.reading_from_sensor))
+                    .setContentIntent(settings)
+                    .setOngoing(true)
+                    .build();
+            startForeground(NOTIFICATION_ID, notification);
+            foreground = true;
+        }
+        else if(!busy && foreground){
+            stopForeground(true);
+            foreground = false;
+        }
+    }
+
+    /**
+     * This method broadcasts a value read to the apps holding the READ_SENSOR_DATA permission
+     *
+     * @param record    The details imported for the value, or null if there are none
+     */
+    private void broadcastValue(Type type, BluetoothDevice device, String value, TagIndex.Record record){
+        Intent intent = new Intent(ACTION_VALUE_READ);
+        if(record != null){
+            for(int index = 0; index < record.size(); index++){
+                intent.putExtra(record.getColumn(index), record.getValue(index));
+            }
+        }
+        intent.putExtra(KEY_DATA_TYPE, type.getName());//after the details so that they can't be overwritten by a column
+        intent.putExtra(KEY_VALUE, value);
+        intent.putExtra(KEY_DEVICE, device.getAddress());
+        sendBroadcast(intent, PERMISSION_READ_SENSOR_DATA);
+    }
+
+    /**
+     * This class holds a request from a bound app
+     */
+    private static class Request {
+        private final Messenger replyTo;
+        private final int id;
+        private final Bundle data;
+
+        private Request(Message message){
+            this.replyTo = message.replyTo;
+            this.id = message.arg1;
+            this.data = message.getData();
+        }
+
+        private String getString(String key){
+            return data != null ? data.getString(key) : null;
+        }
+
+        private void replyValue(Bundle value){
+            reply(MSG_VALUE, value);
+        }
+
+        private void replyError(String error){
+            Bundle data = new Bundle();
+            data.putString(KEY_ERROR, error);
+            reply(MSG_ERROR, data);
+        }
+
+        private void reply(int what, Bundle data){
+            Message message = Message.obtain(null, what, id, 0);
+            message.setData(data);
+            try {
+                replyTo.send(message);
+            }
+            catch (RemoteException e){
+                Log.w(TAG, "Unable to reply to a client. It probably died");
+            }
+        }
+    }
+
+    /**
+     * This class reads one data type for all the bound apps. It keeps its BluetoothHandler for as long as
+     *  the service runs so that consecutive reads use the same (pooled) connection.
+     * Its public methods are called on the main thread, BluetoothHandler's callbacks on the handler's threads
+     */
+    private class Reader implements BluetoothHandler.BluetoothSessionListener, BluetoothHandler.TagStreamListener {
+        private final Type type;
+        private final BluetoothHandler bluetoothHandler;
+        private final Handler mainHandler;
+        private final List<Request> pendingReads;
+        private final List<Request> streams;
+        private DeviceSelector deviceSelector;//Picks the devices to connect to, and the ones to fall back to
+        private boolean reading;//a single value is being read
+        private boolean streaming;
+
+        private Reader(Type type){
+            this.type = type;
+            this.bluetoothHandler = new BluetoothHandler(SensorService.this, type, null);
+            this.mainHandler = new Handler();
+            this.pendingReads = new ArrayList<Request>();
+            this.streams = new ArrayList<Request>();
+        }
+
+        private boolean isBusy(){
+            return !pendingReads.isEmpty() || !streams.isEmpty();
+        }
+
+        private void read(Request request){
+            pendingReads.add(request);
+            if(!reading && !streaming){//otherwise the read already running, or the stream, delivers the value
+                reading = true;
+                bluetoothHandler.setConfirmation(getConfirmation(request));
+                connect(false);
+            }
+        }
+
+        private void startStream(Request request){
+            streams.add(request);
+            if(!reading && !streaming){//a read already running is left to finish, the stream is started after it
+                startStreaming();
+            }
+        }
+
+        private void startStreaming(){
+            streaming = true;
+            bluetoothHandler.setConfirmation(getConfirmation(streams.get(0)));
+            connect(true);
+        }
+
+        private void stopStream(Messenger client){
+            if(client == null) return;
+
+            for(int index = streams.size() - 1; index >= 0; index--){
+                if(streams.get(index).replyTo.getBinder() == client.getBinder()){
+                    streams.remove(index).replyError(ERROR_STOPPED);
+                }
+            }
+            if(streams.isEmpty() && streaming) bluetoothHandler.stopStreaming();//onStreamStopped follows
+        }
+
+        private String getConfirmation(Request request){
+            String confirmation = request.getString(KEY_CONFIRMATION);
+            if(confirmation != null && ConfirmationStrategies.create(confirmation) == null){
+                Log.w(TAG, "Confirmation strategy " + confirmation + " is not supported. Using the device's default");
+                return null;
+            }
+            return confirmation;
+        }
+
+        /**
+         * This method starts connecting to the devices picked by a new device selector i.e the default
+         *  devices for the data type one after the other, then the last known good device, then all the
+         *  other paired devices at once. Devices are not searched for since that takes too long to be
+         *  done without the user knowing
+         *
+         * @param stream True to stream data instead of reading a single value
+         */
+        private void connect(boolean stream){
+            if(!bluetoothHandler.isBluetootEnabled()){
+                fail(ERROR_BLUETOOTH_OFF);
+                return;
+            }
+
+            deviceSelector = new DeviceSelector(bluetoothHandler);
+            connectToNextDevices(stream);
+        }
+
+        /**
+         * This method connects to the next devices picked by the device selector, or fails all the
+         *  requests if none is left
+         *
+         * @param stream True to stream data instead of reading a single value
+         */
+        private void connectToNextDevices(boolean stream){
+            List<BluetoothDevice> candidates = deviceSelector.next();
+            while(!candidates.isEmpty()){
+                boolean initiated;
+                if(stream) initiated = bluetoothHandler.streamDataFromDevices(candidates, this, this);
+                else initiated = bluetoothHandler.getDataFromDevices(candidates, this);
+                if(initiated) return;
+
+                candidates = deviceSelector.next();
+            }
+            fail(ERROR_NO_DEVICE);
+        }
+
+        /**
+         * This method answers all the requests waiting on this reader with an error
+         */
+        private void fail(String error){
+            reading = false;
+            streaming = false;
+            for(Request currRequest : pendingReads){
+                currRequest.replyError(error);
+            }
+            pendingReads.clear();
+            for(Request currRequest : streams){
+                currRequest.replyError(error);
+            }
+            streams.clear();
+            updateForeground();
+        }
+
+        private Bundle toBundle(BluetoothDevice device, String value, TagIndex.Record record, boolean lookup){
+            Bundle data = new Bundle();
+            data.putString(KEY_DATA_TYPE, type.getName());
+            data.putString(KEY_VALUE, value);
+            data.putString(KEY_DEVICE, device.getAddress());
+            if(lookup && record != null){
+                for(int index = 0; index < record.size(); index++){
+                    data.putString(record.getColumn(index), record.getValue(index));
+                }
+            }
+            return data;
+        }
+
+        private void deliver(BluetoothDevice device, String value){
+            TagIndex.Record record = TagLookupStore.getInstance(SensorService.this).lookup(value);//looked up once for the broadcast and all the requests
+            broadcastValue(type, device, value, record);
+            for(Request currRequest : pendingReads){
+                currRequest.replyValue(toBundle(device, value, record, Boolean.parseBoolean(currRequest.getString(KEY_LOOKUP))));
+            }
+            pendingReads.clear();
+            for(Request currRequest : streams){
+                currRequest.replyValue(toBundle(device, value, record, Boolean.parseBoolean(currRequest.getString(KEY_LOOKUP))));
+            }
+            updateForeground();
+        }
+
+        /**
+         * This method starts the stream requested while a single value was being read, if any
+         */
+        private void startWaitingStream(){
+            if(!streams.isEmpty() && !reading && !streaming) startStreaming();
+            updateForeground();
+        }
+
+        private void shutdown(){
+            fail(ERROR_STOPPED);
+            bluetoothHandler.shutdown();
+        }
+
+        @Override
+        public void onActualMessageGotten(final BluetoothDevice device, final String message) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reading = false;
+                    if(message != null){
+                        deliver(device, message);
+                    }
+                    else {
+                        for(Request currRequest : pendingReads){
+                            currRequest.replyError(ERROR_NO_VALUE);
+                        }
+                        pendingReads.clear();
+                    }
+                    startWaitingStream();
+                }
+            });
+        }
+
+        @Override
+        public void onValueUnconfirmed(final BluetoothDevice device) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reading = false;
+                    for(Request currRequest : pendingReads){//the client decides whether to read again
+                        currRequest.replyError(ERROR_UNCONFIRMED);
+                    }
+                    pendingReads.clear();
+                    startWaitingStream();
+                }
+            });
+        }
+
+        @Override
+        public void onValueRead(final BluetoothDevice device, final String value) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(device, value);
+                }
+            });
+        }
+
+        @Override
+        public void onStreamStopped(final BluetoothDevice device) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    streaming = false;
+                    if(!streams.isEmpty()){
+                        Log.w(TAG, "Lost the connection to " + device.getName() + " while streaming");
+                        fail(ERROR_NO_VALUE);
+                    }
+                    else if(!pendingReads.isEmpty()){//reads that were waiting on the stream
+                        reading = true;
+                        bluetoothHandler.setConfirmation(getConfirmation(pendingReads.get(0)));
+                        connect(false);
+                    }
+                    updateForeground();
+                }
+            });
+        }
+
+        @Override
+        public void onSocketCanceled(final BluetoothDevice device, final int reason) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(reason == BluetoothHandler.CANCEL_IDLE){//the device works, nothing was scanned on it
+                        reading = false;
+                        for(Request currRequest : pendingReads){
+                            currRequest.replyError(ERROR_NO_VALUE);
+                        }
+                        pendingReads.clear();
+                        startWaitingStream();
+                    }
+                    else if(deviceSelector != null && deviceSelector.isCurrent(device)){
+                        Log.w(TAG, "Was unable to read from " + device.getName() + ". Trying the next devices");
+                        connectToNextDevices(streaming);
+                    }
+                    else {
+                        fail(ERROR_NO_DEVICE);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onConnected(BluetoothDevice device) {
+            Log.i(TAG, "Connected to " + device.getName());
+        }
+
+        @Override
+        public void onSocketOpened(BluetoothDevice device) {
+        }
+
+        @Override
+        public void onFirstMessageGotten(BluetoothDevice device, String message) {
+        }
+
+        @Override
+        public void onSocketClosed(BluetoothDevice device) {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import org.cgiar.ilri.odk.sensors.handlers.BluetoothAdapterState;
+
+/**
+ * This class is created before anything else in the app's process.
+ * It gets the bluetooth state ready in the background (refer to BluetoothAdapterState) while ODK
+ *  is still starting BluetoothActivity, and starts timing the cold start. The cold start is only
+ *  timed if the first activity started in the process is BluetoothActivity, i.e the process was
+ *  started by ODK, or if SensorService was bound to instead
+ */
+public class SensorsApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        long startTime = System.nanoTime();
+        super.onCreate();
+
+        final BluetoothAdapterState adapterState = BluetoothAdapterState.getInstance(this);
+        adapterState.startColdStartTiming(startTime);
+        adapterState.warmUp();
+
+        registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                if(!(activity instanceof BluetoothActivity)) adapterState.cancelColdStartTiming();//e.g the settings were opened from the launcher
+                unregisterActivityLifecycleCallbacks(this);//only the first activity matters
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {}
+
+            @Override
+            public void onActivityResumed(Activity activity) {}
+
+            @Override
+            public void onActivityPaused(Activity activity) {}
+
+            @Override
+            public void onActivityStopped(Activity activity) {}
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {}
+        });
+    }
+}
@@ -17,19 +17,40 @@
 
 package org.cgiar.ilri.odk.sensors;
 
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.bluetooth.BluetoothDevice;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceCategory;
+import android.text.TextUtils;
 import android.util.Log;
+import android.widget.Toast;
 
 import org.cgiar.ilri.odk.sensors.handlers.BluetoothHandler;
+import org.cgiar.ilri.odk.sensors.storage.DefaultDevices;
+import org.cgiar.ilri.odk.sensors.storage.DeviceProfileStore;
+import org.cgiar.ilri.odk.sensors.storage.LatencyHistogram;
+import org.cgiar.ilri.odk.sensors.storage.RecentReads;
+import org.cgiar.ilri.odk.sensors.storage.ScanMetrics;
 import org.cgiar.ilri.odk.sensors.storage.SharedPreferenceManager;
+import org.cgiar.ilri.odk.sensors.storage.TagLookupStore;
+import org.cgiar.ilri.odk.sensors.types.TypeRegistry;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -37,15 +58,24 @@ import java.util.Set;
  * This Activity presents the App's settings
  */
 public class SettingsActivity extends PreferenceActivity
-                              implements Preference.OnPreferenceChangeListener{
+                              implements Preference.OnPreferenceChangeListener,
+                                         Preference.OnPreferenceClickListener{
 
     private static final String TAG = "SettingsActivity";
+    private static final int REQUEST_TAG_LIST = 1;
 
     private PreferenceCategory bluetoothPC;
-    private ListPreference btRFIDDefaultDevLP;
+    private Map<String, Preference> defaultDevicesPs;//Keyed by data type
+    private Preference readerSettingsP;
+    private Preference scanTimingsP;
+    private Preference scanJournalP;
+    private Preference importTagsP;
+    private ListPreference duplicateWindowLP;
+    private ListPreference duplicateActionLP;
 
     private List<CharSequence> pairedBTDeviceNames;
     private List<CharSequence> pairedBTDeviceAddresses;
+    private boolean pairedBTDevicesKnown;//false while bluetooth is off, the adapter does not return the paired devices then
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,8 +84,30 @@ public class SettingsActivity extends PreferenceActivity
         addPreferencesFromResource(R.xml.activity_settings);
 
         bluetoothPC = (PreferenceCategory)findPreference("bluetooth_pc");
-        btRFIDDefaultDevLP = (ListPreference)findPreference("bt_rfid_default_dev_lp");
-        btRFIDDefaultDevLP.setOnPreferenceChangeListener(this);
+        defaultDevicesPs = new LinkedHashMap<String, Preference>();
+        List<String> dataTypes = new ArrayList<String>(TypeRegistry.getKeys());
+        Collections.sort(dataTypes);
+        for(String currDataType : dataTypes){
+            Preference defaultDevicesP = new Preference(this);
+            defaultDevicesP.setKey("default_devices_p_" + currDataType);
+            defaultDevicesP.setTitle(getString(R.string.pref_default_devices_text_, currDataType));
+            defaultDevicesP.setPersistent(false);//saved using DefaultDevices
+            defaultDevicesP.setOnPreferenceClickListener(this);
+            bluetoothPC.addPreference(defaultDevicesP);
+            defaultDevicesPs.put(currDataType, defaultDevicesP);
+        }
+        readerSettingsP = findPreference("reader_settings_p");
+        readerSettingsP.setOnPreferenceClickListener(this);
+        scanTimingsP = findPreference("scan_timings_p");
+        scanTimingsP.setOnPreferenceClickListener(this);
+        scanJournalP = findPreference("scan_journal_p");
+        scanJournalP.setOnPreferenceClickListener(this);
+        importTagsP = findPreference("import_tags_p");
+        importTagsP.setOnPreferenceClickListener(this);
+        duplicateWindowLP = (ListPreference)findPreference("duplicate_window_lp");
+        duplicateWindowLP.setOnPreferenceChangeListener(this);
+        duplicateActionLP = (ListPreference)findPreference("duplicate_action_lp");
+        duplicateActionLP.setOnPreferenceChangeListener(this);
     }
 
     @Override
@@ -64,75 +116,384 @@ public class SettingsActivity extends PreferenceActivity
 
         loadPairedBTDevices();
         loadSetPreferences();
+        loadScanTimingsSummary();
+        loadTagListSummary();
     }
 
     private void loadPairedBTDevices() {
         //load the paired bluetooth devices
         BluetoothHandler bluetoothHandler = new BluetoothHandler(this, null, null);
         Set<BluetoothDevice> pairedDevices = bluetoothHandler.getPairedDevices();
+        pairedBTDevicesKnown = bluetoothHandler.isBluetootEnabled();
+        bluetoothHandler.shutdown();
 
         pairedBTDeviceNames = new ArrayList<CharSequence>();
         pairedBTDeviceAddresses = new ArrayList<CharSequence>();
 
-        pairedBTDeviceNames.add(getString(R.string.none));
-        pairedBTDeviceAddresses.add(BluetoothHandler.DEFAULT_BT_MAC_ADDRESS);
-
         for(BluetoothDevice currDevice : pairedDevices){
             pairedBTDeviceNames.add(currDevice.getName());
             pairedBTDeviceAddresses.add(currDevice.getAddress());
         }
-
-        btRFIDDefaultDevLP.setEntries(pairedBTDeviceNames.toArray(new CharSequence[pairedBTDeviceNames.size()]));
-        btRFIDDefaultDevLP.setEntryValues(pairedBTDeviceAddresses.toArray(new CharSequence[pairedBTDeviceAddresses.size()]));
     }
 
     private void loadSetPreferences(){
-        String defaultBTRFIDDevice = SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DEFAULT_BT_RFID_DEVICE_ADDRESS, BluetoothHandler.DEFAULT_BT_MAC_ADDRESS);
-        String btRFIDDefaultDevName = null;
+        for(Map.Entry<String, Preference> currEntry : defaultDevicesPs.entrySet()){
+            List<String> defaultDevices = getPairedDefaultDevices(currEntry.getKey());
+            List<CharSequence> defaultDeviceNames = new ArrayList<CharSequence>();
+            for(String currAddress : defaultDevices){
+                int index = pairedBTDeviceAddresses.indexOf(currAddress);
+                defaultDeviceNames.add(index >= 0 ? pairedBTDeviceNames.get(index) : currAddress);
+            }
 
-        btRFIDDefaultDevLP.setValue(defaultBTRFIDDevice);
+            if(defaultDeviceNames.size() > 0){
+                currEntry.getValue().setSummary(TextUtils.join(getString(R.string.default_devices_separator), defaultDeviceNames));
+            }
+            else {
+                currEntry.getValue().setSummary(getString(R.string.pref_default_devices_summary));
+            }
+        }
 
-        if(!defaultBTRFIDDevice.equals(BluetoothHandler.DEFAULT_BT_MAC_ADDRESS)){
-            if(pairedBTDeviceAddresses != null && pairedBTDeviceNames != null){
-                for(int i = 0; i < pairedBTDeviceAddresses.size(); i++){
-                    if(pairedBTDeviceAddresses.get(i).equals(defaultBTRFIDDevice)){
-                        btRFIDDefaultDevName = pairedBTDeviceNames.get(i).toString();
-                    }
-                }
+        duplicateWindowLP.setValue(SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_WINDOW, String.valueOf(RecentReads.DEFAULT_WINDOW)));
+        duplicateWindowLP.setSummary(duplicateWindowLP.getEntry());
+        duplicateActionLP.setValue(SharedPreferenceManager.getSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_ACTION, RecentReads.ACTION_FLAG));
+        duplicateActionLP.setSummary(duplicateActionLP.getEntry());
+    }
 
-                if(btRFIDDefaultDevName == null){//means that the default rfid device is no longer paired with this device.
-                    //set the default device to no device
-                    defaultBTRFIDDevice = BluetoothHandler.DEFAULT_BT_MAC_ADDRESS;
-                    SharedPreferenceManager.setSharedPreference(this, SharedPreferenceManager.SP_DEFAULT_BT_RFID_DEVICE_ADDRESS, BluetoothHandler.DEFAULT_BT_MAC_ADDRESS);
+    @Override
+    public boolean onPreferenceChange(Preference preference, Object newValue) {
+        if(preference == duplicateWindowLP){
+            SharedPreferenceManager.setSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_WINDOW, newValue.toString());
+            duplicateWindowLP.setSummary(duplicateWindowLP.getEntries()[duplicateWindowLP.findIndexOfValue(newValue.toString())]);
+        }
+        else if(preference == duplicateActionLP){
+            SharedPreferenceManager.setSharedPreference(this, SharedPreferenceManager.SP_DUPLICATE_ACTION, newValue.toString());
+            duplicateActionLP.setSummary(duplicateActionLP.getEntries()[duplicateActionLP.findIndexOfValue(newValue.toString())]);
+        }
+        return true;
+    }
 
-                    Log.w(TAG, "The saved default bluetooth RFID device is no longer paired with this device. Setting the default bluetooth RFID device to nothing");
+    @Override
+    public boolean onPreferenceClick(Preference preference) {
+        if(preference == scanTimingsP){
+            showScanTimings();
+            return true;
+        }
+        else if(preference == scanJournalP){
+            startActivity(new Intent(this, JournalActivity.class));
+            return true;
+        }
+        else if(preference == readerSettingsP){
+            showReaders();
+            return true;
+        }
+        else if(preference == importTagsP){
+            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+            intent.setType("*/*");//CSV files are not given the same MIME type by all file managers
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            startActivityForResult(Intent.createChooser(intent, getString(R.string.select_tag_list)), REQUEST_TAG_LIST);
+            return true;
+        }
+        else {
+            for(Map.Entry<String, Preference> currEntry : defaultDevicesPs.entrySet()){
+                if(preference == currEntry.getValue()){
+                    showDefaultDevices(currEntry.getKey());
+                    return true;
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * This method returns the default devices for a data type that are still paired with this device.
+     * Devices that are no longer paired are removed from the default devices, unless bluetooth is off
+     *
+     * @param dataType The data type's key e.g rfid
+     *
+     * @return The MAC addresses of the default devices, in the order they are to be tried
+     */
+    private List<String> getPairedDefaultDevices(String dataType){
+        List<String> defaultDevices = DefaultDevices.getAddresses(this, dataType);
+        if(!pairedBTDevicesKnown) return defaultDevices;
+
+        List<String> pairedDefaultDevices = new ArrayList<String>();
+        for(String currAddress : defaultDevices){
+            if(pairedBTDeviceAddresses.contains(currAddress)) pairedDefaultDevices.add(currAddress);
+        }
+
+        if(pairedDefaultDevices.size() != defaultDevices.size()){
+            Log.w(TAG, (defaultDevices.size() - pairedDefaultDevices.size()) + " of the default " + dataType + " devices are no longer paired with this device. Removing them");
+            DefaultDevices.setAddresses(this, dataType, pairedDefaultDevices);
+        }
+        return pairedDefaultDevices;
+    }
+
+    /**
+     * This method shows a dialog in which the default devices for a data type are ticked, in the
+     *  order they are to be tried
+     *
+     * @param dataType The data type's key e.g rfid
+     */
+    private void showDefaultDevices(final String dataType){
+        if(pairedBTDeviceAddresses.isEmpty()){
+            Toast.makeText(this, getString(R.string.no_paired_devices), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        final List<String> defaultDevices = getPairedDefaultDevices(dataType);//ticking a device adds it to the end of the list
+        boolean[] ticked = new boolean[pairedBTDeviceAddresses.size()];
+        for(int index = 0; index < ticked.length; index++){
+            ticked[index] = defaultDevices.contains(pairedBTDeviceAddresses.get(index).toString());
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.default_devices_title_, dataType))
+                .setMultiChoiceItems(pairedBTDeviceNames.toArray(new CharSequence[pairedBTDeviceNames.size()]), ticked, new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which, boolean isChecked) {
+                        String address = pairedBTDeviceAddresses.get(which).toString();
+                        defaultDevices.remove(address);
+                        if(isChecked) defaultDevices.add(address);
+                    }
+                })
+                .setPositiveButton(R.string.save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        DefaultDevices.setAddresses(SettingsActivity.this, dataType, defaultDevices);
+                        loadSetPreferences();
+                    }
+                })
+                .setNegativeButton(R.string.close, null)
+                .show();
+    }
 
-        btRFIDDefaultDevLP.setValue(defaultBTRFIDDevice);
-        if(btRFIDDefaultDevName != null) {
-            btRFIDDefaultDevLP.setSummary(btRFIDDefaultDevName);
+    /**
+     * This method shows a dialog from which the paired reader whose settings are to be changed is picked
+     */
+    private void showReaders(){
+        if(pairedBTDeviceAddresses.isEmpty()){
+            Toast.makeText(this, getString(R.string.no_paired_devices), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.pref_reader_settings_text)
+                .setItems(pairedBTDeviceNames.toArray(new CharSequence[pairedBTDeviceNames.size()]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        showReaderSettings(pairedBTDeviceAddresses.get(which).toString(), pairedBTDeviceNames.get(which));
+                    }
+                })
+                .setNegativeButton(R.string.close, null)
+                .show();
+    }
+
+    /**
+     * This method shows the confirmation strategy and timeouts set for a reader in DeviceProfileStore.
+     * Picking one of them opens a dialog in which it can be changed
+     *
+     * @param address   The reader's MAC address
+     * @param name      The reader's name, used as the dialog's title
+     */
+    private void showReaderSettings(final String address, final CharSequence name){
+        final DeviceProfileStore deviceProfiles = DeviceProfileStore.getInstance(this);
+        DeviceProfileStore.Profile profile = deviceProfiles.getProfile(address);
+        final String confirmation = profile != null ? profile.getConfirmation() : null;
+        final long firstReadTimeout = profile != null ? profile.getFirstReadTimeout() : 0;
+        final long readTimeout = profile != null ? profile.getReadTimeout() : 0;
+
+        final String[] confirmationValues = getResources().getStringArray(R.array.reader_confirmation_values);
+        final String[] firstReadTimeoutValues = getResources().getStringArray(R.array.first_read_timeout_values);
+        final String[] readTimeoutValues = getResources().getStringArray(R.array.read_timeout_values);
+        final String[] confirmationEntries = getResources().getStringArray(R.array.reader_confirmation_entries);
+        final String[] firstReadTimeoutEntries = getResources().getStringArray(R.array.first_read_timeout_entries);
+        final String[] readTimeoutEntries = getResources().getStringArray(R.array.read_timeout_entries);
+        final int confirmationIndex = Math.max(0, Arrays.asList(confirmationValues).indexOf(confirmation));//the first choice picks the strategy using the model
+        final int firstReadTimeoutIndex = Math.max(0, Arrays.asList(firstReadTimeoutValues).indexOf(String.valueOf(firstReadTimeout)));
+        final int readTimeoutIndex = Math.max(0, Arrays.asList(readTimeoutValues).indexOf(String.valueOf(readTimeout)));
+
+        CharSequence[] settings = new CharSequence[]{
+                getString(R.string.reader_confirmation_, confirmationEntries[confirmationIndex]),
+                getString(R.string.reader_first_read_timeout_, firstReadTimeoutEntries[firstReadTimeoutIndex]),
+                getString(R.string.reader_read_timeout_, readTimeoutEntries[readTimeoutIndex])
+        };
+
+        new AlertDialog.Builder(this)
+                .setTitle(name)
+                .setItems(settings, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        if(which == 0){
+                            showReaderSetting(address, name, R.string.reader_confirmation_title, confirmationEntries, confirmationIndex, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialogInterface, int index) {
+                                    deviceProfiles.setConfirmation(address, index > 0 ? confirmationValues[index] : null);
+                                }
+                            });
+                        }
+                        else if(which == 1){
+                            showReaderSetting(address, name, R.string.reader_first_read_timeout_title, firstReadTimeoutEntries, firstReadTimeoutIndex, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialogInterface, int index) {
+                                    deviceProfiles.setTimeouts(address, Long.parseLong(firstReadTimeoutValues[index]), readTimeout);
+                                }
+                            });
+                        }
+                        else {
+                            showReaderSetting(address, name, R.string.reader_read_timeout_title, readTimeoutEntries, readTimeoutIndex, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialogInterface, int index) {
+                                    deviceProfiles.setTimeouts(address, firstReadTimeout, Long.parseLong(readTimeoutValues[index]));
+                                }
+                            });
+                        }
+                    }
+                })
+                .setNegativeButton(R.string.close, null)
+                .show();
+    }
+
+    /**
+     * This method shows a dialog in which one of a reader's settings is picked. The reader's
+     *  settings are shown again once it is picked
+     *
+     * @param address       The reader's MAC address
+     * @param name          The reader's name
+     * @param title         The dialog's title
+     * @param entries       The choices
+     * @param checkedIndex  The index of the current choice
+     * @param onPicked      Saves the picked choice. Called with the choice's index
+     */
+    private void showReaderSetting(final String address, final CharSequence name, int title, String[] entries, int checkedIndex, final DialogInterface.OnClickListener onPicked){
+        new AlertDialog.Builder(this)
+                .setTitle(title)
+                .setSingleChoiceItems(entries, checkedIndex, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        onPicked.onClick(dialogInterface, which);
+                        dialogInterface.dismiss();
+                        showReaderSettings(address, name);
+                    }
+                })
+                .setNegativeButton(R.string.close, null)
+                .show();
+    }
+
+    private void loadScanTimingsSummary(){
+        ScanMetrics scanMetrics = ScanMetrics.getInstance(this);
+        LatencyHistogram total = scanMetrics.getHistograms().get(ScanMetrics.TOTAL);
+        if(total.getCount() > 0){
+            scanTimingsP.setSummary(getString(R.string.scan_timings_summary_, total.getPercentile(0.5), total.getPercentile(0.95), total.getCount()));
         }
         else {
-            btRFIDDefaultDevLP.setSummary(getString(R.string.pref_bt_rfid_default_dev_summary));
+            scanTimingsP.setSummary(getString(R.string.pref_scan_timings_summary));
+        }
+    }
+
+    /**
+     * This method shows the percentiles of every phase of the scans timed so far in a dialog
+     *  from which they can be exported or reset
+     */
+    private void showScanTimings(){
+        final ScanMetrics scanMetrics = ScanMetrics.getInstance(this);
+        StringBuilder message = new StringBuilder();
+        for(Map.Entry<String, LatencyHistogram> currEntry : scanMetrics.getHistograms().entrySet()){
+            LatencyHistogram histogram = currEntry.getValue();
+            if(histogram.getCount() == 0) continue;
+
+            int line = ScanMetrics.CONNECT_ATTEMPTS.equals(currEntry.getKey()) ? R.string.connect_attempts_line_ : R.string.scan_timings_line_;
+            message.append(getString(line, currEntry.getKey(), histogram.getPercentile(0.5), histogram.getPercentile(0.95),
+                    histogram.getPercentile(0.99), histogram.getCount())).append('\n');
         }
+        if(message.length() == 0) message.append(getString(R.string.pref_scan_timings_summary));
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.pref_scan_timings_text)
+                .setMessage(message.toString())
+                .setPositiveButton(R.string.export, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        Intent intent = new Intent(Intent.ACTION_SEND);
+                        intent.setType("text/plain");
+                        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.app_name) + " " + getString(R.string.pref_scan_timings_text));
+                        intent.putExtra(Intent.EXTRA_TEXT, scanMetrics.exportAsCsv());
+                        startActivity(Intent.createChooser(intent, getString(R.string.export_scan_timings_using)));
+                    }
+                })
+                .setNeutralButton(R.string.reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        scanMetrics.reset();
+                        loadScanTimingsSummary();
+                    }
+                })
+                .setNegativeButton(R.string.close, null)
+                .show();
     }
 
     @Override
-    public boolean onPreferenceChange(Preference preference, Object newValue) {
-        if(preference == btRFIDDefaultDevLP){
-            String defaultDeviceAddress = newValue.toString();
-            String defaultDeviceName = "";
-            for(int i = 0; i < pairedBTDeviceAddresses.size(); i++){
-                if(pairedBTDeviceAddresses.get(i).equals(defaultDeviceAddress)){
-                    defaultDeviceName = pairedBTDeviceNames.get(i).toString();
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if(requestCode == REQUEST_TAG_LIST && resultCode == RESULT_OK && data != null && data.getData() != null){
+            new ImportTagsTask().execute(data.getData());
+        }
+    }
+
+    private void loadTagListSummary(){
+        TagLookupStore tagLookupStore = TagLookupStore.getInstance(this);
+        if(tagLookupStore.getTagCount() > 0){
+            importTagsP.setSummary(getString(R.string.import_tags_summary_, tagLookupStore.getTagCount(), TextUtils.join(", ", tagLookupStore.getColumns())));
+        }
+        else {
+            importTagsP.setSummary(getString(R.string.pref_import_tags_summary));
+        }
+    }
+
+    /**
+     * This class imports the selected tag list into TagLookupStore
+     */
+    private class ImportTagsTask extends AsyncTask<Uri, Void, Integer> {
+        private ProgressDialog progressDialog;
+
+        @Override
+        protected void onPreExecute() {
+            progressDialog = ProgressDialog.show(SettingsActivity.this, null, getString(R.string.importing_tags), true, false);
+        }
+
+        @Override
+        protected Integer doInBackground(Uri... uris) {
+            InputStream csv = null;
+            try {
+                csv = getContentResolver().openInputStream(uris[0]);
+                return TagLookupStore.getInstance(SettingsActivity.this).importCsv(csv);
+            }
+            catch (IOException e){
+                Log.e(TAG, "Unable to import the tag list from " + uris[0]);
+                return -1;
+            }
+            finally {
+                if(csv != null){
+                    try {
+                        csv.close();
+                    }
+                    catch (IOException e){
+                        Log.w(TAG, "Unable to close the tag list");
+                    }
                 }
             }
+        }
 
-            btRFIDDefaultDevLP.setSummary(defaultDeviceName);
-            SharedPreferenceManager.setSharedPreference(this, SharedPreferenceManager.SP_DEFAULT_BT_RFID_DEVICE_ADDRESS, defaultDeviceAddress);
+        @Override
+        protected void onPostExecute(Integer count) {
+            progressDialog.dismiss();
+            if(count >= 0){
+                Toast.makeText(SettingsActivity.this, getString(R.string.imported_tags_, count), Toast.LENGTH_LONG).show();
+            }
+            else {
+                Toast.makeText(SettingsActivity.this, R.string.unable_to_import_tags, Toast.LENGTH_LONG).show();
+            }
+            loadTagListSummary();
         }
-        return true;
     }
 }
@@ -0,0 +1,155 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class carries updates from Bluetooth Handler's threads to the UI thread without flooding the
+ *  main looper when a reader sends values faster than they can be shown.
+ * Updates are delivered at most once every FRAME_INTERVAL milliseconds:
+ *      - only the latest status is shown, the ones it replaced are never shown
+ *      - values (e.g the tags read in a batch) are all kept and delivered together
+ * Posting does not allocate anything apart from the list growing, so it can be done for every value read
+ */
+public class UiDispatcher {
+
+    public static final long FRAME_INTERVAL = 16;//milliseconds. About one frame at 60fps
+
+    private final Handler handler;
+    private final Listener listener;
+    private final Runnable flushRunnable;
+    private String pendingStatus;
+    private List<String> pendingValues;
+    private List<String> deliveredValues;//swapped with pendingValues on every flush so that the lists are reused
+    private String lastStatus;
+    private long lastFlush;
+    private boolean scheduled;
+
+    /**
+     * The constructor
+     *
+     * @param listener Told about the updates on the UI thread
+     */
+    public UiDispatcher(Listener listener){
+        this.handler = new Handler(Looper.getMainLooper());
+        this.listener = listener;
+        this.flushRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        this.pendingValues = new ArrayList<String>();
+        this.deliveredValues = new ArrayList<String>();
+        this.scheduled = false;
+        this.lastFlush = 0;
+    }
+
+    /**
+     * This method sets the status to be shown. Can be called from any thread
+     *
+     * @param status The status. Replaces any status that has not been shown yet
+     */
+    public synchronized void postStatus(String status){
+        pendingStatus = status;
+        schedule();
+    }
+
+    /**
+     * This method queues a value to be delivered with the next update. Can be called from any thread
+     *
+     * @param value The value e.g a tag read
+     */
+    public synchronized void postValue(String value){
+        pendingValues.add(value);
+        schedule();
+    }
+
+    private void schedule(){
+        if(scheduled) return;
+        scheduled = true;
+
+        long delay = lastFlush + FRAME_INTERVAL - SystemClock.uptimeMillis();
+        handler.postDelayed(flushRunnable, Math.max(0, delay));
+    }
+
+    /**
+     * This method delivers whatever is pending right away.
+     * Should only be called on the UI thread e.g before the values are returned
+     */
+    public void flush(){
+        List<String> values;
+        synchronized (this){
+            handler.removeCallbacks(flushRunnable);
+            scheduled = false;
+            lastFlush = SystemClock.uptimeMillis();
+
+            values = pendingValues;
+            pendingValues = deliveredValues;
+            deliveredValues = values;
+        }
+
+        if(!values.isEmpty()){
+            listener.onValuesPosted(values);
+            values.clear();
+        }
+
+        String status;
+        synchronized (this){//taken after the values so that a status posted while handling them is shown in this update
+            status = pendingStatus;
+            pendingStatus = null;
+            if(scheduled && pendingValues.isEmpty()){//nothing left for the update scheduled by that status
+                handler.removeCallbacks(flushRunnable);
+                scheduled = false;
+            }
+        }
+        if(status != null && !status.equals(lastStatus)){
+            lastStatus = status;
+            listener.onStatusPosted(status);
+        }
+    }
+
+    /**
+     * This method drops everything that is pending e.g because the activity is going away
+     */
+    public synchronized void cancel(){
+        handler.removeCallbacks(flushRunnable);
+        scheduled = false;
+        pendingStatus = null;
+        pendingValues.clear();
+    }
+
+    /**
+     * This interface describes a listener for the updates. The methods are called on the UI thread
+     */
+    public interface Listener {
+        /**
+         * @param values The values posted since the last update, in the order they were posted. Only valid during the call.
+         *               A status posted during the call is shown right after it
+         */
+        void onValuesPosted(List<String> values);
+
+        void onStatusPosted(String status);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+
+/**
+ * This class confirms the first valid value offered that the device was sure about.
+ * Only use it with readers that are known not to send a cached value first, since the cached value
+ *  would be confirmed
+ */
+public class AcceptFirstConfirmer extends ConfirmationStrategy {
+
+    public static final String KEY = "accept_first";
+
+    private final Reading confirmed;
+
+    public AcceptFirstConfirmer(){
+        confirmed = new Reading();
+    }
+
+    @Override
+    public int offer(Reading reading, long now) {
+        if(!isConfident(reading)) return UNSURE;
+
+        confirmed.copyFrom(reading);
+        return CONFIRMED;
+    }
+
+    @Override
+    public Reading getConfirmed() {
+        return confirmed;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public String getName() {
+        return KEY;
+    }
+}
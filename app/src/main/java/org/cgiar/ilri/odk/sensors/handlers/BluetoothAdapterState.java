@@ -0,0 +1,197 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.os.Process;
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.storage.DeviceProfileStore;
+import org.cgiar.ilri.odk.sensors.storage.ScanJournal;
+import org.cgiar.ilri.odk.sensors.storage.ScanMetrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the bluetooth state that outlives every BluetoothHandler i.e the bluetooth
+ *  adapter and the paired devices. It also hands the service records fetched from devices to DeviceProfileStore.
+ * It is process scoped and created when the app starts (refer to SensorsApplication) so that the
+ *  first scan finds everything it needs already loaded. Its receiver is registered with the
+ *  application context once for the life of the process, so handlers only need to register a
+ *  receiver when they actually search for devices
+ */
+public class BluetoothAdapterState {
+
+    private static final String TAG = "ODK Sensors BluetoothAdapterState";
+
+    private static BluetoothAdapterState instance;
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private volatile Map<String, BluetoothDevice> pairedDevices;//Keyed by MAC address. Null until loaded or after the paired devices change
+    private long coldStartTime = -1;//nanoTime at which the process was started to read from a device. -1 if not being timed
+
+    private BluetoothAdapterState(Context context){
+        this.context = context.getApplicationContext();
+        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();//needs a thread with a looper on older versions of Android so not done in warmUp
+
+        BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String action = intent.getAction();
+
+                if(BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action) || BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)){
+                    pairedDevices = null;//reloaded the next time they are needed
+                }
+                else if(BluetoothDevice.ACTION_UUID.equals(action)){//result of fetchUuidsWithSdp
+                    BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                    Parcelable[] parcelUuids = intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID);
+                    if(device != null && parcelUuids != null){
+                        UUID[] uuids = new UUID[parcelUuids.length];
+                        for(int index = 0; index < parcelUuids.length; index++){
+                            uuids[index] = ((ParcelUuid)parcelUuids[index]).getUuid();
+                        }
+                        DeviceProfileStore.getInstance(context).onServiceRecordsFetched(device.getAddress(), uuids);
+                    }
+                }
+            }
+        };
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(BluetoothDevice.ACTION_UUID);
+        intentFilter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        intentFilter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);//no devices are paired while bluetooth is off
+        this.context.registerReceiver(broadcastReceiver, intentFilter);
+    }
+
+    /**
+     * This method returns the only instance of the adapter state in this process.
+     * Should first be called on the UI thread
+     *
+     * @param context Any context in the app
+     *
+     * @return The adapter state
+     */
+    public static synchronized BluetoothAdapterState getInstance(Context context){
+        if(instance == null){
+            instance = new BluetoothAdapterState(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @return The bluetooth adapter or null if the device does not have supported bluetooth hardware
+     */
+    public BluetoothAdapter getAdapter() {
+        return bluetoothAdapter;
+    }
+
+    public boolean isEnabled(){
+        return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
+    }
+
+    /**
+     * This method returns the paired devices. They are only fetched from the bluetooth adapter
+     *  the first time and whenever a device is paired or unpaired
+     *
+     * @return The paired devices, keyed by MAC address
+     */
+    public Map<String, BluetoothDevice> getPairedDevices(){
+        Map<String, BluetoothDevice> currPairedDevices = pairedDevices;
+        if(currPairedDevices == null){
+            currPairedDevices = new HashMap<String, BluetoothDevice>();
+            Set<BluetoothDevice> bondedDevices = bluetoothAdapter != null ? bluetoothAdapter.getBondedDevices() : null;
+            if(bondedDevices != null){
+                for(BluetoothDevice currDevice : bondedDevices){
+                    currPairedDevices.put(currDevice.getAddress(), currDevice);
+                }
+            }
+            currPairedDevices = Collections.unmodifiableMap(currPairedDevices);
+            if(isEnabled()) pairedDevices = currPairedDevices;//the adapter returns no devices while off
+        }
+        return currPairedDevices;
+    }
+
+    /**
+     * This method starts timing a cold start i.e the time from the process starting to the first
+     *  device being connected to
+     *
+     * @param startTime The nanoTime at which the process started
+     */
+    public synchronized void startColdStartTiming(long startTime){
+        coldStartTime = startTime;
+    }
+
+    /**
+     * This method stops timing the cold start e.g because the process was started for the settings
+     *  and not to read from a device
+     */
+    public synchronized void cancelColdStartTiming(){
+        coldStartTime = -1;
+    }
+
+    /**
+     * This method is called whenever a device is connected to. Only the first connection in the
+     *  process is a cold start, the method returns -1 for all the others
+     *
+     * @return The milliseconds since the process started, or -1 if the cold start is not being timed
+     */
+    public synchronized long takeColdStartDuration(){
+        if(coldStartTime == -1) return -1;
+
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - coldStartTime);
+        coldStartTime = -1;
+        return duration;
+    }
+
+    /**
+     * This method loads, in the background, everything the first scan would otherwise load on the UI
+     *  thread i.e the paired devices, the device profiles and the stores read from the shared preferences and disk
+     */
+    public void warmUp(){
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = System.currentTimeMillis();
+                getPairedDevices();
+                DeviceProfileStore.getInstance(context);
+                ScanJournal.getInstance(context);
+                ScanMetrics.getInstance(context);
+                BluetoothSessionPool.getInstance();
+                ConnectionScheduler.getInstance();
+                SessionWatchdog.getInstance();
+                Log.i(TAG, "Warmed up in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        }, "BluetoothAdapterState warm up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -20,24 +20,35 @@ package org.cgiar.ilri.odk.sensors.handlers;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.util.Log;
 
+import org.cgiar.ilri.odk.sensors.storage.DefaultDevices;
+import org.cgiar.ilri.odk.sensors.storage.DeviceProfileStore;
+import org.cgiar.ilri.odk.sensors.storage.ScanJournal;
+import org.cgiar.ilri.odk.sensors.storage.ScanMetrics;
 import org.cgiar.ilri.odk.sensors.types.Type;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Jason Rogena (j.rogena@cgiar.org) on 3rd June 2014.
@@ -52,31 +63,74 @@ public class BluetoothHandler {
 
     public static final String DEFAULT_BT_MAC_ADDRESS = "0000";
 
+    /*
+    Why a socket was canceled. Refer to BluetoothSessionListener.onSocketCanceled
+     */
+    public static final int CANCEL_CONNECT_FAILED = 1;//the device could not be connected to
+    public static final int CANCEL_STALLED = 2;//the device stopped sending in the middle of a session
+    public static final int CANCEL_IDLE = 3;//nothing was scanned before the first read deadline. The device itself is fine
+
+    private static final long STREAM_POLL_INTERVAL = 10;//milliseconds
+    private static final int MAX_WORKER_THREADS = 4;
+    private static final long WORKER_KEEP_ALIVE = 30;//seconds
+
     private static final String TAG = "ODK Sensors BluetoothHandler";
 
-    private final Activity activity;
+    private static final Map<String, BluetoothHandler> warmHandlers = new HashMap<String, BluetoothHandler>();//Refer to getWarmHandler
+
+    private final Context context;//An activity or the application, unless the handler is used by SensorService
     private final BluetoothAdapter bluetoothAdapter;
     private final Type type;// The data type to be gotten using the handler
-    private final BroadcastReceiver broadcastReceiver;
-    private final List<BluetoothDevice> availableDevices;
-    private final DeviceFoundListener deviceFoundListener;
-    private BluetoothSocket bluetoothSocket;//There should only be one bluetooth socket open
-    private InputStream bluetoothInputStream;//bluetooth socket's input stream
-    private OutputStream bluetoothOutputStream;//bluetooth socket's output stream
+    private final BluetoothAdapterState adapterState;//The adapter and paired devices, shared by all the handlers in the process
+    private final BroadcastReceiver broadcastReceiver;//Only registered while searching for devices
+    private boolean receiverRegistered;
+    private final DiscoveryResults discoveryResults;//The devices found while searching, keyed by MAC address
+    private volatile DeviceFoundListener deviceFoundListener;
+    private final BluetoothSessionPool sessionPool;
+    private final ConnectionScheduler connectionScheduler;
+    private final SessionWatchdog sessionWatchdog;
+    private final DeviceProfileStore deviceProfiles;//What is known about every reader. Kept in memory so reading it is not I/O
+    private final ScanJournal scanJournal;
+    private final BluetoothTransport transport;
+    private final ThreadPoolExecutor executor;//Runs connections and reads so that none of them waits for the others
+    private final Map<String, DeviceConnection> connections;//The devices currently being connected to, keyed by MAC address
+    private boolean raceWon;//Whether one of the connections has already delivered a value
+    private volatile TagStreamListener tagStreamListener;//Set when data is being streamed from the device instead of read once
+    private volatile boolean streaming;
+    private volatile ScanTrace scanTrace;//Where the timings of the current scan are recorded, if anywhere
+    private volatile String confirmation;//The key of the confirmation strategy to use. Null to pick one using the device's model
 
 
     /**
      * The constructor. If you don't know about constructors, well.., take more programming lessons then
      * come back ;)
      *
-     * @param activity
+     * @param context The activity or service using the handler
      */
-    public BluetoothHandler(Activity activity, Type type, final DeviceFoundListener deviceFoundListener){
-        this.activity = activity;
-        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    public BluetoothHandler(Context context, Type type, DeviceFoundListener deviceFoundListener){
+        this.context = context;
+        this.adapterState = BluetoothAdapterState.getInstance(context);
+        this.bluetoothAdapter = adapterState.getAdapter();
         this.type = type;
+        this.sessionPool = BluetoothSessionPool.getInstance();
+        this.connectionScheduler = ConnectionScheduler.getInstance();
+        this.sessionWatchdog = SessionWatchdog.getInstance();
+        this.deviceProfiles = DeviceProfileStore.getInstance(context);
+        this.scanJournal = ScanJournal.getInstance(context);
+        this.transport = new BluetoothTransport(bluetoothAdapter, deviceProfiles);
+        this.executor = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS, WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
 
-        availableDevices = new ArrayList<BluetoothDevice>();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "BluetoothHandler worker " + count.incrementAndGet());
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);//don't keep idle threads around between scans
+
+        discoveryResults = new DiscoveryResults();
+        connections = new HashMap<String, DeviceConnection>();
 
         this.deviceFoundListener = deviceFoundListener;
 
@@ -84,15 +138,17 @@ public class BluetoothHandler {
             @Override
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getAction();
+                DeviceFoundListener deviceFoundListener = BluetoothHandler.this.deviceFoundListener;
 
                 if(BluetoothDevice.ACTION_FOUND.equals(action)){
                     BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    availableDevices.add(device);
-                    if(deviceFoundListener != null) deviceFoundListener.onDeviceFound(device);
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, DiscoveryResults.UNKNOWN_RSSI);
+                    boolean isNew = discoveryResults.onDeviceFound(device, rssi, System.currentTimeMillis());
+                    if(isNew && deviceFoundListener != null) deviceFoundListener.onDeviceFound(device);//devices are found more than once in a search
                 }
 
                 else if(BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)){
-                    availableDevices.clear();
+                    discoveryResults.onSearchStart(System.currentTimeMillis());
                     if(deviceFoundListener != null) deviceFoundListener.onSearchStart();
                 }
                 else if(BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)){
@@ -100,13 +156,39 @@ public class BluetoothHandler {
                 }
             }
         };
+        receiverRegistered = false;//registered in startScan, most scans connect to a known device without searching
+    }
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
-        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
-        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+    /**
+     * This method returns the handler for the data type that is kept for as long as the app's process
+     *  lives, so that its worker threads, discovery results and transport are already there for the
+     *  next scan instead of being created every time BluetoothActivity comes up.
+     * Release the handler when done with it instead of shutting it down
+     *
+     * @param context   Any context in the app
+     * @param type      The data type to be gotten using the handler
+     *
+     * @return The handler for the data type
+     */
+    public static BluetoothHandler getWarmHandler(Context context, Type type){
+        String key = type != null ? type.getName() : "";
+        synchronized (warmHandlers){
+            BluetoothHandler handler = warmHandlers.get(key);
+            if(handler == null){
+                handler = new BluetoothHandler(context.getApplicationContext(), type, null);
+                warmHandlers.put(key, handler);
+            }
+            return handler;
+        }
+    }
 
-        activity.registerReceiver(broadcastReceiver, intentFilter);
+    /**
+     * This method sets the listener for the devices found while searching
+     *
+     * @param deviceFoundListener The listener or null to stop listening
+     */
+    public void setDeviceFoundListener(DeviceFoundListener deviceFoundListener){
+        this.deviceFoundListener = deviceFoundListener;
     }
 
     /**
@@ -140,13 +222,30 @@ public class BluetoothHandler {
      *   - bluetooth is off
      *
      * This method should be used with the onActivityResult() callback
-     * for determining when bluetooth is enabled by the user
+     * for determining when bluetooth is enabled by the user.
+     * If the handler is not used by an activity, the request is shown without a result being returned
      *
      */
     public void requestEnableBluetooth(){
+        requestEnableBluetooth(context instanceof Activity ? (Activity) context : null);
+    }
+
+    /**
+     * This method requests user to enable bluetooth, like requestEnableBluetooth(), with the result
+     *  returned to the provided activity. Used with handlers that are not tied to an activity e.g the warm handlers
+     *
+     * @param activity The activity whose onActivityResult is called, or null if no result is needed
+     */
+    public void requestEnableBluetooth(Activity activity){
         if(isBluetootSupported() && !isBluetootEnabled()){
             Intent enableBTIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-            activity.startActivityForResult(enableBTIntent, REQUEST_ENABLE_BT);
+            if(activity != null){
+                activity.startActivityForResult(enableBTIntent, REQUEST_ENABLE_BT);
+            }
+            else {
+                enableBTIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                context.startActivity(enableBTIntent);
+            }
         }
     }
 
@@ -161,12 +260,9 @@ public class BluetoothHandler {
 
         if(isBluetootEnabled()){
             if(device != null){
-                Set<BluetoothDevice> pairedDevices = getPairedDevices();
-                for(BluetoothDevice currDevice : pairedDevices){
-                    if(currDevice.getAddress().equals(device.getAddress())){
-                        Log.d(TAG, "The device has already been paired");
-                        return true;
-                    }
+                if(getPairedDevicesByAddress().containsKey(device.getAddress())){
+                    Log.d(TAG, "The device has already been paired");
+                    return true;
                 }
             }
             else{
@@ -181,18 +277,15 @@ public class BluetoothHandler {
     }
 
     public Set<BluetoothDevice> getPairedDevices() {
-        return bluetoothAdapter.getBondedDevices();
+        return new HashSet<BluetoothDevice>(getPairedDevicesByAddress().values());
     }
 
     public BluetoothDevice getBluetoothDevice(String macAddress) {
-        Set<BluetoothDevice> pairedDevices = getPairedDevices();
+        return getPairedDevicesByAddress().get(macAddress);
+    }
 
-        for(BluetoothDevice currDevice : pairedDevices){
-            if(currDevice.getAddress().equals(macAddress)){
-                return currDevice;
-            }
-        }
-        return null;
+    private Map<String, BluetoothDevice> getPairedDevicesByAddress(){
+        return adapterState.getPairedDevices();//cached by the adapter state until a device is paired or unpaired
     }
 
     /**
@@ -202,12 +295,8 @@ public class BluetoothHandler {
      */
     public boolean startScan(){
         if(isBluetootEnabled()){
-            if(broadcastReceiver != null){
-                return bluetoothAdapter.startDiscovery();
-            }
-            else{
-                Log.w(TAG, "For some reason broadcast receiver is null. Returning false for startScan()");
-            }
+            registerReceiver();
+            return bluetoothAdapter.startDiscovery();
         }
         else {
             Log.w(TAG, "BluetoothHandler is not enabled or device does not have supported hardware. Returning false for startScan()");
@@ -216,14 +305,33 @@ public class BluetoothHandler {
         return false;
     }
 
+    /**
+     * This method registers the receiver for the devices found while searching, unless already registered
+     */
+    private synchronized void registerReceiver(){
+        if(receiverRegistered) return;
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
+        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+
+        context.registerReceiver(broadcastReceiver, intentFilter);
+        receiverRegistered = true;
+        Log.i(TAG, "broadcastReceiver registered");
+    }
+
     /**
      * This method gracefully unregisters any broadcast receiver created by this class.
      * Make sure you call this method whenever the parent activity goes to sleep (in onPause)
      *  if you want to save the devices battery
      */
-    public void unregisterReceiver(){
+    public synchronized void unregisterReceiver(){
+        if(!receiverRegistered) return;
+        receiverRegistered = false;
+
         try{//sand boxed because there is really no way to check if receiver is still registered
-            activity.unregisterReceiver(broadcastReceiver);
+            context.unregisterReceiver(broadcastReceiver);
             Log.i(TAG, "broadcastReceiver unregistered");
         }
         catch (Exception e){
@@ -243,31 +351,37 @@ public class BluetoothHandler {
     }
 
     /**
-     * This method returns a list of bluetooth devices found so far in the current/last scan.
+     * This method returns a list of bluetooth devices found so far in the current/last scan, the
+     *  nearest (strongest signal) first. Every device is only in the list once.
      * Note that this list is set to 0 whenever the scan is restarted and not when the current scan is complete
      *
      * @return The list of discoverable bluetooth devices found in the current/last scan
      */
     public List<BluetoothDevice> getAvailableDevices(){
-        return availableDevices;
+        List<DiscoveryResults.Result> ranked = discoveryResults.getRanked();
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>(ranked.size());
+        for(DiscoveryResults.Result currResult : ranked){
+            devices.add(currResult.getDevice());
+        }
+        return devices;
     }
 
     /**
-     * This method returns the first supported UUID for the bluetooth device
-     *
-     * @param device The device we are using the get a UUID
+     * This method returns the devices found in the current/last scan together with their signal
+     *  strength and when they were found, the nearest first
      *
-     * @return The first supported UUID gotten from the device
+     * @return The devices found
      */
-    private UUID getUUID(BluetoothDevice device){
-        return device.getUuids()[0].getUuid();//Reason why the minimum sdk is 15
+    public List<DiscoveryResults.Result> getDiscoveryResults(){
+        return discoveryResults.getRanked();
     }
 
     /**
      * This method initiates the process of getting data from the connected bluetooth device
-     * Please make sure you call this method from a thread that is asynchronous to the UI thread.
-     * Refer to:
-     *      - http://developer.android.com/reference/android/os/AsyncTask.html
+     * The method returns immediately. Connecting and reading are done in the handler's worker threads
+     *  so it is safe to call it from the UI thread.
+     * If the handler is already connecting to other devices, the device joins the race and whichever
+     *  device first delivers a value is used. Refer to getDataFromDevices
      *
      * @param device The device we are getting data from
      * @param sessionListener The listener that the UI thread will use when socket is started
@@ -275,12 +389,147 @@ public class BluetoothHandler {
      * @return true if we are indeed able to make the initial connection to the device
      */
     public boolean getDataFromDevice(BluetoothDevice device, BluetoothSessionListener sessionListener){
+        tagStreamListener = null;
+        return connectToDevice(device, sessionListener);
+    }
+
+    /**
+     * This method connects to all the provided devices at the same time and gets data from whichever
+     *  device first delivers a value. The connections to the other devices are then closed.
+     * The device that most recently delivered a value is connected to first.
+     * Any connection the handler had before this method was called is closed
+     *
+     * @param devices The candidate devices
+     * @param sessionListener The listener that the UI thread will use when socket is started
+     *
+     * @return true if a connection to at least one of the devices was initiated
+     */
+    public boolean getDataFromDevices(Collection<BluetoothDevice> devices, BluetoothSessionListener sessionListener){
+        tagStreamListener = null;
+        closeSocket(null, null);
+
+        boolean initiated = false;
+        for(BluetoothDevice currDevice : orderCandidates(devices)){
+            initiated = connectToDevice(currDevice, sessionListener) || initiated;
+        }
+        return initiated;
+    }
+
+    /**
+     * This method initiates the process of continuously reading data from the bluetooth device.
+     * Unlike getDataFromDevice, the socket is not closed after the first value. Every value the device
+     *  sends is processed and passed to the stream listener until stopStreaming is called or the socket breaks.
+     * Like getDataFromDevice, this method returns immediately.
+     *
+     * @param device The device we are getting data from
+     * @param sessionListener The listener that the UI thread will use when socket is started
+     * @param streamListener The listener to pass every value read from the device to
+     *
+     * @return true if we are indeed able to make the initial connection to the device
+     */
+    public boolean streamDataFromDevice(BluetoothDevice device, BluetoothSessionListener sessionListener, TagStreamListener streamListener){
+        tagStreamListener = streamListener;
+        streaming = true;
+        return connectToDevice(device, sessionListener);
+    }
+
+    /**
+     * This method connects to all the provided devices at the same time and streams data from whichever
+     *  device first delivers a value, like getDataFromDevices does for a single value.
+     * Any connection the handler had before this method was called is closed
+     *
+     * @param devices The candidate devices
+     * @param sessionListener The listener that the UI thread will use when socket is started
+     * @param streamListener The listener to pass every value read from the device to
+     *
+     * @return true if a connection to at least one of the devices was initiated
+     */
+    public boolean streamDataFromDevices(Collection<BluetoothDevice> devices, BluetoothSessionListener sessionListener, TagStreamListener streamListener){
+        closeSocket(null, null);
+        tagStreamListener = streamListener;
+        streaming = true;
+
+        boolean initiated = false;
+        for(BluetoothDevice currDevice : orderCandidates(devices)){
+            initiated = connectToDevice(currDevice, sessionListener) || initiated;
+        }
+        return initiated;
+    }
+
+    /**
+     * This method stops streaming data from the device. The socket is returned to the session pool
+     *  once the streaming thread notices the stop
+     */
+    public void stopStreaming(){
+        streaming = false;
+    }
+
+    /**
+     * This method sets how values read from devices are confirmed. Refer to ConfirmationStrategies
+     *
+     * @param confirmation The key of the confirmation strategy e.g vote, or null to pick the strategy
+     *                     using the model of the device being read from
+     */
+    public void setConfirmation(String confirmation){
+        this.confirmation = confirmation;
+    }
+
+    /**
+     * This method sets where the timings of the current scan are recorded.
+     * The handler marks when sockets are created, connected and when messages are gotten
+     *
+     * @param scanTrace The trace of the current scan or null to stop recording timings
+     */
+    public void setScanTrace(ScanTrace scanTrace){
+        this.scanTrace = scanTrace;
+    }
+
+    /**
+     * This method records that the current scan has reached a milestone.
+     * The first connection in the process is also recorded as the end of a cold start
+     *
+     * @param milestone The milestone e.g ScanTrace.CONNECTED
+     * @param attempts  The number of connection attempts made, or -1 if not relevant to the milestone
+     */
+    private void mark(int milestone, int attempts){
+        if(milestone == ScanTrace.CONNECTED){
+            long coldStartDuration = adapterState.takeColdStartDuration();
+            if(coldStartDuration >= 0) ScanMetrics.getInstance(context).recordColdStart(coldStartDuration);
+        }
+
+        ScanTrace trace = scanTrace;
+        if(trace != null){
+            trace.mark(milestone);
+            if(attempts >= 0) trace.setConnectAttempts(attempts);
+        }
+    }
+
+    private boolean connectToDevice(BluetoothDevice device, BluetoothSessionListener sessionListener){
         if(device !=null){
             stopScan();
 
-            AsClientConnectionThread clientConnectionThread = new AsClientConnectionThread(device, sessionListener);
-            clientConnectionThread.run();
-            return true;
+            DeviceConnection connection;
+            synchronized (this){
+                if(connections.isEmpty()){//this is a new race
+                    raceWon = false;
+                }
+                else if(connections.containsKey(device.getAddress())){
+                    Log.i(TAG, "Already connecting to " + device.getAddress());
+                    return true;
+                }
+
+                connection = new DeviceConnection(device, sessionListener);
+                connections.put(device.getAddress(), connection);
+                ensureWorkers(connections.size());
+            }
+
+            if(execute(new AsClientConnectionThread(connection))){
+                return true;
+            }
+
+            synchronized (this){
+                connections.remove(device.getAddress());
+            }
         }
         else{
             Log.w(TAG, "The bluetooth device provided to initiateConnectionAsClient is null. initiateConnectionAsClient returning false");
@@ -289,204 +538,651 @@ public class BluetoothHandler {
     }
 
     /**
-     * This class initialises a synchronous thread that does the connection to the bluetooth device and opens up the socket
+     * This method makes sure the handler has a worker thread for every device being connected to.
+     * Connection attempts block their thread until the device answers (or the page timeout of about
+     *  5 seconds is reached) so a device without a thread would have to wait for the others.
+     * Idle threads time out, so the pool is never shrunk
+     *
+     * @param count The number of devices being connected to
+     */
+    private void ensureWorkers(int count){
+        if(count > executor.getCorePoolSize()){
+            executor.setMaximumPoolSize(count);//raised first since the core size cannot be larger than it
+            executor.setCorePoolSize(count);
+        }
+    }
+
+    /**
+     * This method orders the provided devices in the order they should be connected to.
+     * Devices recently found while searching come first, the nearest (strongest signal) first, since
+     *  the reader in the operator's hand is most likely the nearest. The other devices follow,
+     *  starting with the one that most recently delivered a value
+     *
+     * @param devices The devices to order
+     *
+     * @return The ordered devices
+     */
+    private List<BluetoothDevice> orderCandidates(Collection<BluetoothDevice> devices){
+        Map<String, BluetoothDevice> devicesByAddress = new HashMap<String, BluetoothDevice>();
+        for(BluetoothDevice currDevice : devices){
+            devicesByAddress.put(currDevice.getAddress(), currDevice);
+        }
+
+        List<BluetoothDevice> orderedDevices = new ArrayList<BluetoothDevice>(devices.size());
+        for(String currAddress : deviceProfiles.orderByLastSuccess(devicesByAddress.keySet())){
+            orderedDevices.add(devicesByAddress.get(currAddress));
+        }
+
+        final long now = System.currentTimeMillis();
+        Collections.sort(orderedDevices, new Comparator<BluetoothDevice>() {//stable, so devices with the same signal strength stay ordered by last success
+            @Override
+            public int compare(BluetoothDevice lhs, BluetoothDevice rhs) {
+                return discoveryResults.getRssi(rhs.getAddress(), now) - discoveryResults.getRssi(lhs.getAddress(), now);
+            }
+        });
+        return orderedDevices;
+    }
+
+    /**
+     * This method returns the paired devices set in the settings as the default devices for the
+     *  handler's data type. Refer to DefaultDevices
+     *
+     * @return The default devices in the order they should be tried. Empty if none is set or none of them is paired
+     */
+    public List<BluetoothDevice> getDefaultDevices(){
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>();
+        if(type == null) return devices;
+
+        Map<String, BluetoothDevice> currPairedDevices = getPairedDevicesByAddress();
+        for(String currAddress : DefaultDevices.getAddresses(context, type.getName())){
+            BluetoothDevice currDevice = currPairedDevices.get(currAddress);
+            if(currDevice != null) devices.add(currDevice);
+        }
+        return devices;
+    }
+
+    /**
+     * This method determines which of the provided devices is the last known good reader for the
+     *  handler's data type.
+     * Connecting to this device directly is a lot faster than searching for devices first
+     *
+     * @param devices The candidate devices e.g the paired devices
+     *
+     * @return The last known good reader or null if none of the devices qualifies
+     */
+    public BluetoothDevice getLastKnownGoodDevice(Collection<BluetoothDevice> devices){
+        List<String> addresses = new ArrayList<String>(devices.size());
+        for(BluetoothDevice currDevice : devices){
+            addresses.add(currDevice.getAddress());
+        }
+
+        String lastKnownGoodAddress = deviceProfiles.getLastKnownGoodReader(addresses, type != null ? type.getName() : null);
+        for(BluetoothDevice currDevice : devices){
+            if(currDevice.getAddress().equals(lastKnownGoodAddress)){
+                return currDevice;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method runs the provided task on the handler's worker threads
+     *
+     * @param task The task to run
+     *
+     * @return false if the handler has already been shut down
+     */
+    private boolean execute(Runnable task){
+        try {
+            executor.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException e){
+            Log.w(TAG, "Bluetooth handler has already been shut down. Not running task");
+        }
+        return false;
+    }
+
+    /**
+     * This method stops everything that is running in the handler and releases its threads.
+     * The handler cannot be used after this method is called.
+     * Call this method when the parent activity goes to sleep (in onPause)
+     */
+    public void shutdown(){
+        stopStreaming();
+        closeSocket(null, null);
+        unregisterReceiver();
+        executor.shutdown();
+    }
+
+    /**
+     * This method stops whatever the handler is doing for its current user, without releasing the
+     *  handler's threads, so that a warm handler (refer to getWarmHandler) can be used again.
+     * Open sessions go back to the session pool
+     */
+    public void release(){
+        stopScan();
+        stopStreaming();
+        closeSocket(null, null);
+        unregisterReceiver();
+        deviceFoundListener = null;
+        scanTrace = null;
+    }
+
+    /**
+     * This method is called once a connection has delivered a value to check whether it is the first
+     *  connection in the race to do so. All the other connections are closed if it is
+     *
+     * @param connection The connection that delivered a value
+     *
+     * @return true if the connection won the race (or had already won it)
+     */
+    private boolean claimRace(DeviceConnection connection){
+        List<DeviceConnection> losers = new ArrayList<DeviceConnection>();
+        synchronized (this){
+            if(connection.closed || connections.get(connection.device.getAddress()) != connection){
+                return false;
+            }
+            if(raceWon){
+                return connection.winner;
+            }
+
+            raceWon = true;
+            connection.winner = true;
+            for(DeviceConnection currConnection : connections.values()){
+                if(currConnection != connection){
+                    losers.add(currConnection);
+                }
+            }
+            connections.keySet().retainAll(Collections.singleton(connection.device.getAddress()));
+        }
+
+        for(DeviceConnection currConnection : losers){
+            Log.i(TAG, currConnection.device.getAddress() + " lost the race to " + connection.device.getAddress());
+            currConnection.close(false);
+        }
+
+        deviceProfiles.recordSuccess(connection.device.getAddress(), connection.device.getName(), connection.uuid, type != null ? type.getName() : null);//written in the background
+        return true;
+    }
+
+    /**
+     * This method removes a connection that is done from the handler and closes it
+     *
+     * @param connection The connection that is done
+     *
+     * @return true if no connection is left in the current race and the race has not been won
      */
-    private class AsClientConnectionThread extends Thread {
+    private boolean finishConnection(DeviceConnection connection){
+        boolean lost;
+        synchronized (this){
+            if(connections.get(connection.device.getAddress()) == connection){
+                connections.remove(connection.device.getAddress());
+            }
+            lost = connections.isEmpty() && !raceWon;
+        }
+
+        connection.close(true);
+        return lost;
+    }
+
+    /**
+     * This class holds everything to do with the connection to one of the devices in a race
+     */
+    private class DeviceConnection {
         private final BluetoothDevice device;
         private final BluetoothSessionListener sessionListener;
-
-        private int connectionRetries;
+        private ConnectionScheduler.Ticket ticket;//The connection attempts currently scheduled, if any
+        private BluetoothTransport.Channel channel;//The socket currently being connected
+        private BluetoothSessionPool.Session session;//The connected session
+        private UUID uuid;//The service UUID used to connect. Null if the session came from the pool
+        private volatile boolean reading;//Whether a worker thread is currently blocked on the session
+        private volatile boolean closed;
+        private boolean winner;
+
+        private DeviceConnection(BluetoothDevice device, BluetoothSessionListener sessionListener){
+            this.device = device;
+            this.sessionListener = sessionListener;
+            this.closed = false;
+            this.winner = false;
+        }
 
         /**
-         * The constructor.
+         * This method closes the connection.
+         * A connected session that is not being read from is returned to BluetoothSessionPool instead
+         *  of being closed so that the next scan on the same device does not have to reconnect.
+         * A session that is still being read from is closed since that is the only way of unblocking the read
          *
-         * @param device The device to connect to
-         * @param sessionListener The session listener being used by the UI thread to receive updates (since I assume we are running asynchronously here)
+         * @param notify Whether to tell the session listener that the socket was closed
          */
-        public AsClientConnectionThread (BluetoothDevice device, BluetoothSessionListener sessionListener){
-            this.device = device;
-            this.sessionListener = sessionListener;
-            BluetoothSocket tmpSocket = null;
-
+        private void close(boolean notify){
+            BluetoothTransport.Channel tmpChannel;
+            BluetoothSessionPool.Session tmpSession;
+            synchronized (this){
+                if(closed) return;
+                closed = true;
+
+                if(ticket != null) {//stop any connection attempts that are yet to be made
+                    ticket.cancel();
+                    ticket = null;
+                }
+                tmpChannel = channel;
+                channel = null;
+                tmpSession = session;
+                session = null;
+            }
 
-            try {
-                tmpSocket = device.createRfcommSocketToServiceRecord(getUUID(device));
+            if(tmpSession != null) {
+                if(reading) {
+                    sessionPool.discard(tmpSession);
+                }
+                else {
+                    sessionPool.release(tmpSession);
+                }
             }
 
-            catch (IOException e) {
-                Log.e(TAG, "Was unable to initiate a socket with Bluetooth server in AsClientConnectionThread");
-                e.printStackTrace();
+            if(tmpChannel != null) {
+                try {
+                    tmpChannel.close();
+                }
+                catch (IOException e){
+                    Log.w(TAG, "Unable to close the socket with " + device.getAddress());
+                }
             }
 
-            closeSocket(null, null);//Close any previous lingering socket, if any
+            if(notify && sessionListener != null) {
+                sessionListener.onSocketClosed(device);
+            }
+        }
+    }
 
-            bluetoothSocket = tmpSocket;
-            sessionListener.onSocketOpened(device);
+    /**
+     * This class initialises the connection to the bluetooth device and opens up the socket.
+     * If the device still has an open socket in BluetoothSessionPool, that socket is used instead.
+     * The connection attempts are run on the handler's worker threads, ConnectionScheduler only
+     *  waits out the delays between them so the worker thread is not held while failed attempts
+     *  are being retried
+     */
+    private class AsClientConnectionThread implements Runnable {
+        private final DeviceConnection connection;
+        private final BluetoothDevice device;
+        private final BluetoothSessionListener sessionListener;
 
-            connectionRetries = 0;
+        /**
+         * The constructor.
+         *
+         * @param connection The connection to the device, holding the session listener being used by the UI thread to receive updates
+         */
+        public AsClientConnectionThread (DeviceConnection connection){
+            this.connection = connection;
+            this.device = connection.device;
+            this.sessionListener = connection.sessionListener;
         }
 
         /**
-         * This method holds the code to be run in the thread being initialized.
-         * Note that this thread is not asynchronous
+         * This method holds the code to be run in the worker thread.
+         * Note that this method returns as soon as the first connection attempt is scheduled
          * Refer to:
          *      - http://developer.android.com/guide/components/processes-and-threads.html#Threads
          */
         @Override
         public void run() {
-            super.run();
-
             stopScan();//Stop scan (in case the user started it again after getDataFromDevice was called)
 
-            connectionRetries = 0;
-            tryToConnect();
+            BluetoothSessionPool.Session pooledSession = sessionPool.acquire(device.getAddress());
+            if(pooledSession != null){//the socket to the device is still open from a previous scan
+                synchronized (connection){
+                    if(connection.closed){
+                        sessionPool.release(pooledSession);
+                        return;
+                    }
+                    connection.session = pooledSession;
+                }
 
-            if(bluetoothSocket != null){
+                mark(ScanTrace.CONNECTED, 0);
+                sessionListener.onSocketOpened(device);
                 sessionListener.onConnected(device);
-
-                getData(device, sessionListener);
+                getData(connection);
+                return;
             }
-            else{
-                Log.w(TAG, "Bluetooth Socket deinitialized from another thread. Cannot get data from it");
+
+            sessionListener.onSocketOpened(device);
+
+            ConnectionScheduler.Ticket ticket = connectionScheduler.schedule(device.getAddress(), new ConnectionScheduler.Connector() {
+                @Override
+                public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+                    tryToConnect(ticket);
+                }
+            }, new ConnectionScheduler.Callback() {
+                @Override
+                public void onConnected(int attempts) {
+                    onSocketConnected(attempts);
+                }
+
+                @Override
+                public void onGaveUp(int attempts) {
+                    Log.w(TAG, "Giving up on trying to initialize connection with " + device.getName());
+                    Log.i(TAG, "Connection metrics: " + connectionScheduler.getMetrics());
+                    if(!connection.closed) deviceProfiles.recordFailure(device.getAddress());
+
+                    if(finishConnection(connection) && sessionListener != null){//only give up when no other device in the race is left
+                        sessionListener.onSocketCanceled(device, CANCEL_CONNECT_FAILED);
+                    }
+                }
+            }, executor);
+
+            synchronized (connection){
+                if(connection.closed){
+                    ticket.cancel();
+                }
+                else {
+                    connection.ticket = ticket;
+                }
             }
         }
 
-        private void tryToConnect() {
-            try {
-                if(bluetoothSocket != null){//this might be called when the bluetooth socket was set to null from another thread
-                    bluetoothSocket.connect();//This right here blocks the thread until a connection is gotten or a timeout is reached
+        /**
+         * This method does a single connection attempt. A new socket is created for every attempt
+         * since a socket whose connect failed cannot be reused
+         *
+         * @param ticket The ticket for the connection attempts
+         *
+         * @throws IOException If the attempt fails
+         */
+        private void tryToConnect(ConnectionScheduler.Ticket ticket) throws IOException {
+            BluetoothTransport.Channel tmpChannel = transport.createChannel(device);
+            mark(ScanTrace.SOCKET_CREATED, -1);
+            synchronized (connection){
+                if(ticket.isCancelled() || connection.closed){//the connection was closed from another thread
+                    tmpChannel.close();
+                    return;
                 }
+                connection.channel = tmpChannel;
+                connection.uuid = tmpChannel.getUuid();
+            }
+
+            try {
+                tmpChannel.connect();//This right here blocks the thread until a connection is gotten or a timeout is reached
             }
             catch (IOException e) {
                 Log.w(TAG, "Was unable to connect to socket with Bluetooth server in AsClientConnectionThread");
-
+                if(ticket.getAttempts() == 1){//refresh the service records in case the UUID used is stale. Result comes through BluetoothAdapterState
+                    mark(ScanTrace.FIRST_ATTEMPT_FAILED, -1);
+                    device.fetchUuidsWithSdp();
+                }
+                synchronized (connection){
+                    if(connection.channel == tmpChannel) connection.channel = null;
+                }
                 try {
-                    Thread.sleep(500);
+                    tmpChannel.close();
                 }
-                catch (InterruptedException e1) {
-                    e1.printStackTrace();
+                catch (IOException e1){
+                    Log.w(TAG, "Unable to close the failed socket");
                 }
-                connectionRetries++;
+                throw e;
+            }
+        }
 
-                if(connectionRetries < 6){
-                    Log.i(TAG, "Trying for the " + connectionRetries + " time to initialize the bluetooth socket");
-                    tryToConnect();//recurrsive method
+        /**
+         * This method is called by the scheduler once the socket is connected
+         *
+         * @param attempts The number of attempts it took to connect
+         */
+        private void onSocketConnected(int attempts) {
+            boolean connected = false;
+            synchronized (connection){
+                if(connection.channel != null){
+                    connection.session = sessionPool.open(connection.channel);
+                    connection.channel = null;//the socket is now owned by the session
+                    connected = connection.session != null;
                 }
-                else{
-                    connectionRetries = 0;
-                    closeSocket(device, sessionListener);
-                    Log.w(TAG, "Giving up on trying to initialize connection with "+device.getName());
+                connection.ticket = null;
+            }
 
-                    if(sessionListener != null){
-                        sessionListener.onSocketCanceled(device);
-                    }
-                }
+            if(connected){
+                mark(ScanTrace.CONNECTED, attempts);
+                sessionListener.onConnected(device);
+
+                getData(connection);
+            }
+            else{
+                Log.w(TAG, "Bluetooth Socket deinitialized from another thread. Cannot get data from it");
             }
         }
     }
 
     /**
-     * This method initiated the process of getting the actual data from the bluetooth device
+     * This method creates the strategy used to confirm the values read from a device
+     *
+     * @param device The device
      *
-     * @param device The device to get data from
-     * @param sessionListener The session listener being used by the UI thread to receive updates
+     * @return The strategy set using setConfirmation or, if none was set, the strategy set in the device's profile or else the default strategy for the device's model
      */
-    private void getData(BluetoothDevice device, BluetoothSessionListener sessionListener){
-        TransferThread transferThread = new TransferThread(device, sessionListener);
-        transferThread.run();
+    private ConfirmationStrategy createConfirmationStrategy(BluetoothDevice device){
+        ConfirmationStrategy strategy = ConfirmationStrategies.create(confirmation);
+        if(strategy == null) strategy = ConfirmationStrategies.create(deviceProfiles.getConfirmation(device.getAddress()));
+        if(strategy == null){
+            String model = device.getName();
+            if(model == null) model = deviceProfiles.getModel(device.getAddress());//the stack does not always have the name cached
+            strategy = ConfirmationStrategies.forDevice(model);
+        }
+        return strategy;
     }
 
     /**
-     * This class initializes a thread for getting the data from the connected bluetooth device
+     * This method initiated the process of getting the actual data from the bluetooth device.
+     * The reading is done in one of the handler's worker threads
+     *
+     * @param connection The connection to get data from
      */
-    private class TransferThread extends Thread {
+    private void getData(DeviceConnection connection){
+        TagStreamListener streamListener = tagStreamListener;
+        boolean started;
+        if(streamListener != null){
+            started = execute(new StreamThread(connection, streamListener));
+        }
+        else {
+            started = execute(new TransferThread(connection));
+        }
+
+        if(!started){
+            finishConnection(connection);
+        }
+    }
+
+    /**
+     * This class initializes a thread that keeps on reading data from the connected bluetooth device
+     * until streaming is stopped
+     */
+    private class StreamThread implements Runnable {
+        private final DeviceConnection connection;
         private final BluetoothDevice device;
-        private final BluetoothSessionListener sessionListener;
+        private final TagStreamListener streamListener;
 
         /**
          * The constructor.
          *
-         * @param device The device to get data from
-         * @param sessionListener The session listener being used by the UI thread to receive updates
+         * @param connection The connection to get data from
+         * @param streamListener The listener every value read is passed to
          */
-        public TransferThread(BluetoothDevice device, BluetoothSessionListener sessionListener){
-            this.device = device;
-            this.sessionListener = sessionListener;
+        public StreamThread(DeviceConnection connection, TagStreamListener streamListener){
+            this.connection = connection;
+            this.device = connection.device;
+            this.streamListener = streamListener;
+        }
 
-            InputStream bluetoothInputStream = null;
-            OutputStream bluetoothOutputStream = null;
+        /**
+         * This method holds the code to be run in the worker thread.
+         * The reader is polled instead of blocking on readFrame so that stopStreaming does not have to
+         *  close the socket to get this thread out of the read.
+         * Every value is confirmed the same way a single value is, the strategy being reset after every
+         *  confirmed value. Timeouts do not apply since the operator decides when streaming stops
+         */
+        @Override
+        public void run() {
+            BluetoothSessionPool.Session currSession = connection.session;
+            if(currSession == null) return;
+
+            FrameReader frameReader = currSession.getFrameReader();
+            ValueReader valueReader = new ValueReader(type);
+            ConfirmationStrategy strategy = createConfirmationStrategy(device);
+            boolean broken = false;
+            connection.reading = true;
+            try {
+                while(streaming && !connection.closed){
+                    if(!frameReader.ready()){
+                        Thread.sleep(STREAM_POLL_INTERVAL);
+                        continue;
+                    }
 
-            try{
-                bluetoothInputStream = bluetoothSocket.getInputStream();
-                bluetoothOutputStream = bluetoothSocket.getOutputStream();
+                    if(frameReader.readFrame() < 0){//end of stream
+                        broken = true;
+                        break;
+                    }
+
+                    if(valueReader.decode(frameReader)){
+                        int result = strategy.offer(valueReader.getReading(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+                        if(result == ConfirmationStrategy.FIRST){
+                            connection.sessionListener.onFirstMessageGotten(device, valueReader.getReading().toString());
+                        }
+                        if(result != ConfirmationStrategy.CONFIRMED) continue;
+
+                        if(!claimRace(connection)) break;//another device is being streamed from
+
+                        String value = strategy.getConfirmed().toString();
+                        strategy.reset();
+                        scanJournal.append(new ScanJournal.Entry(value, type != null ? type.getName() : null, device.getAddress(), ValueReader.copyFrame(frameReader)));
+                        streamListener.onValueRead(device, value);
+                    }
+                }
             }
             catch (IOException e){
-                Log.e(TAG, "IOException thrown while tying to create an input and output stream to bluetooth device");
-                e.printStackTrace();
+                Log.e(TAG, "An error occurred while streaming data from " + device.getName());
+                broken = true;
+            }
+            catch (InterruptedException e){
+                Log.w(TAG, "Streaming thread interrupted");
             }
+            connection.reading = false;
 
-            BluetoothHandler.this.bluetoothInputStream = bluetoothInputStream;
-            BluetoothHandler.this.bluetoothOutputStream = bluetoothOutputStream;
+            if(broken){//don't put a broken session back in the pool
+                sessionPool.discard(currSession);
+            }
+
+            boolean winner = connection.winner;
+            boolean lost = finishConnection(connection);
+            if(winner || lost){
+                streamListener.onStreamStopped(device);
+            }
+        }
+    }
+
+    /**
+     * This class initializes a thread for getting the data from the connected bluetooth device
+     */
+    private class TransferThread implements Runnable {
+        private final DeviceConnection connection;
+        private final BluetoothDevice device;
+        private final BluetoothSessionListener sessionListener;
+        private final ValueReader valueReader;
+
+        /**
+         * The constructor.
+         *
+         * @param connection The connection to get data from, holding the session listener being used by the UI thread to receive updates
+         */
+        public TransferThread(DeviceConnection connection){
+            this.connection = connection;
+            this.device = connection.device;
+            this.sessionListener = connection.sessionListener;
+            this.valueReader = new ValueReader(type);
         }
 
         /**
-         * This method holds the code to be run in the thread being initialized.
-         * Note that this thread is not asynchronous.
+         * This method holds the code to be run in the worker thread.
+         * The session is watched by SessionWatchdog, which closes it if the device stops sending, so
+         *  the thread is never blocked for longer than the watchdog's deadlines.
          * Refer to:
          *      - http://developer.android.com/guide/components/processes-and-threads.html#Threads
          */
         @Override
         public void run() {
-            super.run();
+            final BluetoothSessionPool.Session currSession = connection.session;
+            String message = null;
+            boolean timedOut = false;
+            boolean idle = false;//Whether the session timed out before the reader sent anything
+            boolean unconfirmed = false;//Whether the reader sent values but none could be confirmed in time
+            if(currSession != null){
+                SessionWatchdog.Policy policy = deviceProfiles.getWatchdogPolicy(device.getAddress(), sessionWatchdog.getPolicy());
+                SessionWatchdog.Watch watch = sessionWatchdog.watch(device.getAddress(), policy, new Runnable() {
+                    @Override
+                    public void run() {
+                        sessionPool.discard(currSession);//unblocks the read
+                    }
+                });
+
+                connection.reading = true;
+                message = convertStreamToString(currSession.getFrameReader(), watch);//this method will block the thread until something is gotten
+                connection.reading = false;
+
+                timedOut = !watch.cancel() && message == null;//if the deadline was missed just as the value was confirmed, the value is still good
+                idle = timedOut && !watch.isStarted();//the operator didn't scan anything, the reader itself is fine
+                unconfirmed = !timedOut && message == null && valueReader.isTimedOut();//the session is still healthy
+
+                if(message == null && !unconfirmed){//the session broke while reading, don't put it back in the pool
+                    sessionPool.discard(currSession);
+                }
+            }
 
-            String message = convertStreamToString(bluetoothInputStream);//this method will block the thread until something is gotten
+            if(message == null && !connection.closed && !idle && !unconfirmed){//the device broke the session, it wasn't closed from this side
+                deviceProfiles.recordFailure(device.getAddress());
+            }
 
-            closeSocket(device, sessionListener);
+            if(message != null) mark(ScanTrace.CONFIRMED_MESSAGE, -1);
+            boolean won = message != null && claimRace(connection);
+            boolean lost = finishConnection(connection);
 
-            sessionListener.onActualMessageGotten(device, message);//this method is called last because code called after it might not be run
+            if(won){
+                scanJournal.append(new ScanJournal.Entry(message, type != null ? type.getName() : null, device.getAddress(), valueReader.getConfirmedFrame()));//only queued, written on the journal's thread
+            }
+
+            if(timedOut){
+                if(lost) sessionListener.onSocketCanceled(device, idle ? CANCEL_IDLE : CANCEL_STALLED);//so that the next scan can be started straight away
+            }
+            else if(unconfirmed){
+                if(lost) sessionListener.onValueUnconfirmed(device);//the session is back in the pool, ready for the next scan
+            }
+            else if(won || lost){//losers of the race stay quiet
+                sessionListener.onActualMessageGotten(device, won ? message : null);//this method is called last because code called after it might not be run
+            }
         }
 
         /**
-         * This method converts the provided inputStream into a string.
+         * This method converts the frames read from the session into a string.
          * Note that some lines of code in this method block the thread until something is returned from
          *  the other side.
          * Also note that it's not doing a conversion but rather extraction (for lack of a better word)
          *
-         * @param inputStream The input stream to be converted into a string
+         * @param frameReader The session's frame reader
+         * @param watch       The session's watch, told about every frame read
          *
          * @return The string
          */
-        private String convertStreamToString(InputStream inputStream){
+        private String convertStreamToString(FrameReader frameReader, final SessionWatchdog.Watch watch){
             try{
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                String line = null;
-
-                boolean confirmed = false;
-
-                //do until the first line gotten from the input stream matches the second
-                while(confirmed == false){
-                    /*
-                    The first line should be discarded afterward since some devices returned a cached value first before returning the
-                    actual scan value. Observed in:
-                            - Allflex RFID Stick Reader Model No. RS320-3-60
-                     */
-
-                    String firstScan = processTypeOutput(reader.readLine());//this line of code blocks the thread until something is returned
-                    Log.d(TAG, firstScan);
-
-                    sessionListener.onFirstMessageGotten(device, firstScan);
-
-                    line = processTypeOutput(reader.readLine());//Process this string and not firstScan. This line of code also blocks the thread
-                    Log.d(TAG, line);
-
-                    if(firstScan.equals(line)){
-                        confirmed = true;
+                ConfirmationStrategy strategy = createConfirmationStrategy(device);
+                return valueReader.readConfirmedValue(frameReader, strategy, new ValueReader.Listener() {
+                    @Override
+                    public void onFrameRead() {
+                        watch.onFrameRead();
                     }
-                }
 
-                //inputStream.close();
-
-                return line;
+                    @Override
+                    public void onFirstValue(String value) {
+                        mark(ScanTrace.FIRST_MESSAGE, -1);
+                        sessionListener.onFirstMessageGotten(device, value);
+                    }
+                });
             }
             catch (Exception e){
                 Log.e(TAG, "An error occurred while trying to convert input stream to string");
@@ -496,33 +1192,22 @@ public class BluetoothHandler {
         }
     }
 
-    private String processTypeOutput(String output) {
-        if (type != null) {
-            return type.process(output);
-        }
-
-        return output;
-    }
-
     /**
-     * This method closes the socket to the bluetooth device.
-     * Make sure it's called after the InputStream and OutputStream are closed
+     * This method closes the sockets to all the bluetooth devices the handler is connected to.
+     * Connected sessions that are not being read from are returned to BluetoothSessionPool instead
+     *  of being closed so that the next scan on the same device does not have to reconnect.
+     * Sessions that are still being read from are closed since that is the only way of unblocking the read
      */
     public void closeSocket(BluetoothDevice device, BluetoothSessionListener sessionListener){
         try{
-            if(bluetoothInputStream != null) {
-                bluetoothInputStream.close();
-                bluetoothInputStream = null;
-            }
-
-            if(bluetoothOutputStream != null){
-                bluetoothOutputStream.close();
-                bluetoothOutputStream = null;
+            List<DeviceConnection> openConnections;
+            synchronized (this){
+                openConnections = new ArrayList<DeviceConnection>(connections.values());
+                connections.clear();
             }
 
-            if(bluetoothSocket != null) {
-                bluetoothSocket.close();
-                bluetoothSocket = null;
+            for(DeviceConnection currConnection : openConnections){
+                currConnection.close(false);
             }
 
             if(sessionListener !=null && device != null) {
@@ -545,6 +1230,14 @@ public class BluetoothHandler {
         void onSearchStop();
     }
 
+    /**
+     * This interface describes a listener for values continuously streamed from a bluetooth device
+     */
+    public interface TagStreamListener {
+        void onValueRead(BluetoothDevice device, String value);
+        void onStreamStopped(BluetoothDevice device);
+    }
+
     /**
      * This interface describes a listener for connection with a bluetooth device
      * and transfer of data from that device
@@ -554,18 +1247,19 @@ public class BluetoothHandler {
         void onSocketOpened(BluetoothDevice device);
         void onFirstMessageGotten(BluetoothDevice device, String message);
         void onActualMessageGotten(BluetoothDevice device, String message);
+        void onValueUnconfirmed(BluetoothDevice device);
         void onSocketClosed(BluetoothDevice device);
-        void onSocketCanceled(BluetoothDevice device);
+        void onSocketCanceled(BluetoothDevice device, int reason);
     }
 
     /**
      * This method checks whether there is an active bluetooth socket.
-     * Note that this assumes that only one socket object is used in this class
+     * A device still being connected to counts as an active socket
      *
      * @return True if there is an active socket
      */
-    public boolean isSocketActive(){
-        if(bluetoothSocket == null){
+    public synchronized boolean isSocketActive(){
+        if(connections.isEmpty()){
             return false;
         }
         else return true;
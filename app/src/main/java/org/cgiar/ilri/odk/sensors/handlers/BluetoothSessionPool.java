@@ -0,0 +1,316 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps connected bluetooth sockets open between scans so that consecutive scans on the
+ * same reader do not have to go through the RFCOMM connection process again.
+ * Sessions are keyed by the device's MAC address and are closed after being idle for
+ * IDLE_TIMEOUT milliseconds.
+ *
+ * The pool is process scoped, meaning sockets survive the BluetoothActivity being finished and
+ * recreated by ODK Collect for the next field.
+ */
+public class BluetoothSessionPool {
+
+    private static final String TAG = "ODK Sensors BluetoothSessionPool";
+
+    public static final long IDLE_TIMEOUT = 120000;//two minutes
+    private static final long REAPER_INTERVAL = 15000;
+
+    private static BluetoothSessionPool instance;
+
+    private final Map<String, Session> idleSessions;
+    private final ScheduledExecutorService reaper;
+
+    private BluetoothSessionPool(){
+        idleSessions = new HashMap<String, Session>();
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BluetoothSessionPool reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdleSessions();
+            }
+        }, REAPER_INTERVAL, REAPER_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method returns the only instance of the pool in this process
+     *
+     * @return The session pool
+     */
+    public static synchronized BluetoothSessionPool getInstance(){
+        if(instance == null){
+            instance = new BluetoothSessionPool();
+        }
+        return instance;
+    }
+
+    /**
+     * This method wraps a freshly connected channel in a session that can later be released back
+     * into the pool
+     *
+     * @param channel The connected channel
+     *
+     * @return The session or null if the channel's streams could not be opened
+     */
+    public Session open(ReaderChannel channel){
+        try {
+            return new Session(channel);
+        }
+        catch (IOException e){
+            Log.e(TAG, "IOException thrown while tying to create an input and output stream to bluetooth device");
+            e.printStackTrace();
+            closeQuietly(channel);
+        }
+        return null;
+    }
+
+    /**
+     * This method takes an open session for the provided device out of the pool.
+     * The session is health checked and any bytes the reader sent while nobody was listening are
+     * discarded so that the next read gets a fresh value
+     *
+     * @param address The MAC address of the device
+     *
+     * @return A healthy session or null if there is no warm session for the device
+     */
+    public Session acquire(String address){
+        Session session;
+        synchronized (this){
+            session = idleSessions.remove(address);
+        }
+
+        if(session != null){
+            if(session.isHealthy() && session.drain()){
+                Log.i(TAG, "Reusing open socket with " + address);
+                return session;
+            }
+            else {
+                Log.w(TAG, "Pooled socket with " + address + " is no longer healthy. Discarding it");
+                session.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method puts a session back in the pool so that the next scan can use it
+     *
+     * @param session The session to release
+     */
+    public void release(Session session){
+        if(session == null) return;
+
+        if(session.isHealthy()){
+            Session previous;
+            synchronized (this){
+                session.lastUsed = System.currentTimeMillis();
+                previous = idleSessions.put(session.getAddress(), session);
+            }
+            if(previous != null && previous != session){
+                previous.close();
+            }
+            Log.i(TAG, "Socket with " + session.getAddress() + " returned to the pool");
+        }
+        else {
+            session.close();
+        }
+    }
+
+    /**
+     * This method closes the provided session without returning it to the pool.
+     * Use this when the session is known to be broken or a read needs to be interrupted
+     *
+     * @param session The session to discard
+     */
+    public void discard(Session session){
+        if(session == null) return;
+
+        synchronized (this){
+            if(idleSessions.get(session.getAddress()) == session){
+                idleSessions.remove(session.getAddress());
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * This method closes all the sessions in the pool
+     */
+    public void closeAll(){
+        List<Session> sessions;
+        synchronized (this){
+            sessions = new ArrayList<Session>(idleSessions.values());
+            idleSessions.clear();
+        }
+        for(Session currSession : sessions){
+            currSession.close();
+        }
+    }
+
+    /**
+     * This method closes the sessions that have not been used for IDLE_TIMEOUT or are no longer healthy
+     */
+    private void closeIdleSessions(){
+        long now = System.currentTimeMillis();
+        List<Session> expired = new ArrayList<Session>();
+        synchronized (this){
+            for(Session currSession : new ArrayList<Session>(idleSessions.values())){
+                if(now - currSession.lastUsed > IDLE_TIMEOUT || !currSession.isHealthy()){
+                    idleSessions.remove(currSession.getAddress());
+                    expired.add(currSession);
+                }
+            }
+        }
+        for(Session currSession : expired){
+            Log.i(TAG, "Closing idle socket with " + currSession.getAddress());
+            currSession.close();
+        }
+    }
+
+    private static void closeQuietly(ReaderChannel channel){
+        try {
+            if(channel != null) channel.close();
+        }
+        catch (IOException e){
+            Log.w(TAG, "Unable to close bluetooth socket");
+        }
+    }
+
+    /**
+     * This class holds a connected channel (a bluetooth socket unless the reader is simulated)
+     * together with its streams.
+     * The frame reader is kept with the channel because it can read ahead of the current frame
+     */
+    public static class Session {
+        private final ReaderChannel channel;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private final FrameReader frameReader;
+        private volatile boolean closed;
+        private long lastUsed;//only changed and read with the pool's lock held, apart from in the constructor
+
+        private Session(ReaderChannel channel) throws IOException {
+            this.channel = channel;
+            this.inputStream = channel.getInputStream();
+            this.outputStream = channel.getOutputStream();
+            this.frameReader = new FrameReader(inputStream);
+            this.closed = false;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public ReaderChannel getChannel() {
+            return channel;
+        }
+
+        public String getAddress() {
+            return channel.getAddress();
+        }
+
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        public FrameReader getFrameReader() {
+            return frameReader;
+        }
+
+        /**
+         * This method checks whether the channel is still connected and its input stream usable
+         *
+         * @return True if the session can still be read from
+         */
+        public boolean isHealthy(){
+            if(closed || !channel.isConnected()) return false;
+            try {
+                inputStream.available();//throws an IOException if the link dropped
+                return true;
+            }
+            catch (IOException e){
+                return false;
+            }
+        }
+
+        /**
+         * This method discards everything that is already buffered on the session
+         *
+         * @return False if the session broke while being drained
+         */
+        private boolean drain(){
+            try {
+                frameReader.drain();
+                return true;
+            }
+            catch (IOException e){
+                Log.w(TAG, "Socket with " + getAddress() + " broke while being drained");
+                return false;
+            }
+        }
+
+        /**
+         * This method closes the streams and the channel held by the session
+         */
+        public void close(){
+            if(closed) return;
+            closed = true;
+
+            try{
+                inputStream.close();
+            }
+            catch (IOException e){
+                Log.w(TAG, "Unable to close input stream with " + getAddress());
+            }
+
+            try{
+                outputStream.close();
+            }
+            catch (IOException e){
+                Log.w(TAG, "Unable to close output stream with " + getAddress());
+            }
+
+            closeQuietly(channel);
+            Log.i(TAG, "Bluetooth socket with " + getAddress() + " closed");
+        }
+    }
+}
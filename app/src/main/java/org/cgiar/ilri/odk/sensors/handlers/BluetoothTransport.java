@@ -0,0 +1,148 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.storage.DeviceProfileStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * This class creates RFCOMM channels to bluetooth readers
+ */
+public class BluetoothTransport implements ReaderTransport {
+
+    private static final String TAG = "ODK Sensors BluetoothTransport";
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final DeviceProfileStore deviceProfiles;
+
+    public BluetoothTransport(BluetoothAdapter bluetoothAdapter, DeviceProfileStore deviceProfiles){
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.deviceProfiles = deviceProfiles;
+    }
+
+    @Override
+    public ReaderChannel createChannel(String address) throws IOException {
+        return createChannel(bluetoothAdapter.getRemoteDevice(address));
+    }
+
+    /**
+     * This method creates an unconnected RFCOMM channel to the device
+     *
+     * @param device The bluetooth device
+     *
+     * @return The channel
+     *
+     * @throws IOException If the socket could not be created
+     */
+    public Channel createChannel(BluetoothDevice device) throws IOException {
+        UUID uuid = getUUID(device);
+        return new Channel(device, device.createRfcommSocketToServiceRecord(uuid), uuid);
+    }
+
+    /**
+     * This method returns the UUID to use when connecting to the bluetooth device.
+     * The UUID that last worked for the device is used first. If there is none, the UUIDs cached
+     *  by the bluetooth stack are used, and if the stack has none either, the serial port UUID is used
+     *
+     * @param device The device we are using the get a UUID
+     *
+     * @return The UUID to connect with
+     */
+    private UUID getUUID(BluetoothDevice device){
+        UUID cachedUuid = deviceProfiles.getUuid(device.getAddress());
+        if(cachedUuid != null) return cachedUuid;
+
+        ParcelUuid[] parcelUuids = device.getUuids();//Reason why the minimum sdk is 15
+        if(parcelUuids != null && parcelUuids.length > 0){
+            UUID[] uuids = new UUID[parcelUuids.length];
+            for(int index = 0; index < parcelUuids.length; index++){
+                uuids[index] = parcelUuids[index].getUuid();
+            }
+            return DeviceProfileStore.choose(uuids);
+        }
+
+        Log.w(TAG, "No UUIDs cached for " + device.getAddress() + ". Using the serial port UUID");
+        return DeviceProfileStore.SERIAL_PORT_UUID;
+    }
+
+    /**
+     * This class wraps a bluetooth socket
+     */
+    public static class Channel implements ReaderChannel {
+        private final BluetoothDevice device;
+        private final BluetoothSocket socket;
+        private final UUID uuid;
+
+        private Channel(BluetoothDevice device, BluetoothSocket socket, UUID uuid){
+            this.device = device;
+            this.socket = socket;
+            this.uuid = uuid;
+        }
+
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        /**
+         * @return The service UUID the socket connects to
+         */
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        @Override
+        public String getAddress() {
+            return device.getAddress();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            socket.connect();//This right here blocks the thread until a connection is gotten or a timeout is reached
+        }
+
+        @Override
+        public boolean isConnected() {
+            return socket.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
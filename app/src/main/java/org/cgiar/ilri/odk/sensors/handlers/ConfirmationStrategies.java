@@ -0,0 +1,106 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class creates the confirmation strategy to use for a device.
+ * Strategies are picked using the device's model, which is taken from the name the device
+ *  advertises over bluetooth e.g "RS320-3-60 123456", or can be set explicitly using their keys.
+ * Devices whose model is not known use VotingConfirmer
+ */
+public class ConfirmationStrategies {
+
+    public static final long DEFAULT_TIMEOUT = 15000;//milliseconds
+    private static final int DEFAULT_VOTES = 2;
+    private static final int DEFAULT_WINDOW = 3;
+    private static final long DEFAULT_WINDOW_TIME = 5000;//milliseconds
+
+    private static final String DEFAULT_KEY = VotingConfirmer.KEY;
+    private static final List<String> KEYS = Collections.unmodifiableList(Arrays.asList(
+            AcceptFirstConfirmer.KEY, PairConfirmer.KEY, VotingConfirmer.KEY));
+
+    /*
+    The strategy to use for every known device model, keyed by the part of the device's name that
+    identifies the model. Add readers that are known not to send a cached value here with AcceptFirstConfirmer.KEY
+     */
+    private static final Map<String, String> MODELS = new LinkedHashMap<String, String>();
+
+    static {
+        MODELS.put("RS320", VotingConfirmer.KEY);//Allflex RS320-3-60 sends the cached value first. Outvoted by the actual value
+    }
+
+    /**
+     * This method creates the strategy corresponding to the provided key
+     *
+     * @param key accept_first, pair or vote. Case is ignored
+     *
+     * @return A new instance of the strategy or null if the key is not supported
+     */
+    public static ConfirmationStrategy create(String key){
+        if(key == null) return null;
+
+        ConfirmationStrategy strategy;
+        key = key.toLowerCase();
+        if(AcceptFirstConfirmer.KEY.equals(key)){
+            strategy = new AcceptFirstConfirmer();
+        }
+        else if(PairConfirmer.KEY.equals(key)){
+            strategy = new PairConfirmer();
+        }
+        else if(VotingConfirmer.KEY.equals(key)){
+            strategy = new VotingConfirmer(DEFAULT_VOTES, DEFAULT_WINDOW, DEFAULT_WINDOW_TIME);
+        }
+        else {
+            return null;
+        }
+        strategy.setTimeout(DEFAULT_TIMEOUT);
+        return strategy;
+    }
+
+    /**
+     * This method creates the strategy to use for the provided device
+     *
+     * @param deviceName The name the device advertises. Can be null
+     *
+     * @return A new instance of the strategy
+     */
+    public static ConfirmationStrategy forDevice(String deviceName){
+        if(deviceName != null){
+            String upperCaseName = deviceName.toUpperCase();
+            for(Map.Entry<String, String> currModel : MODELS.entrySet()){
+                if(upperCaseName.contains(currModel.getKey())){
+                    return create(currModel.getValue());
+                }
+            }
+        }
+        return create(DEFAULT_KEY);
+    }
+
+    /**
+     * @return The keys of all the supported strategies
+     */
+    public static List<String> getKeys(){
+        return KEYS;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+
+/**
+ * This class decides when a value read from a device can be trusted.
+ * Every session gets its own instance since strategies remember the values offered so far.
+ * Refer to ConfirmationStrategies for how a strategy is picked for a device.
+ *
+ * Strategies do not depend on Android so that they can be benchmarked on a plain JVM
+ */
+public abstract class ConfirmationStrategy {
+
+    public static final int FIRST = 1;//the value is the first of a new round of values
+    public static final int CONFIRMED = 2;//the value is confirmed. Refer to getConfirmed
+    public static final int REJECTED = 3;//the value contradicts the previous values. A new round is started
+    public static final int PENDING = 4;//more values are needed
+    public static final int UNSURE = 5;//the device was not sure about the value so it was not counted. Refer to isConfident
+
+    public static final float MIN_CONFIDENCE = 0.75f;//values with a lower confidence are never confirmed e.g weights flagged as unstable
+
+    private long timeout;
+
+    protected ConfirmationStrategy(){
+        timeout = 0;
+    }
+
+    /**
+     * This method passes the next valid value read from the device to the strategy
+     *
+     * @param reading   The value. It is copied if needed so the reading can be reused by the caller
+     * @param now       The current time in milliseconds, from a monotonic clock
+     *
+     * @return FIRST, CONFIRMED, REJECTED, PENDING or UNSURE
+     */
+    public abstract int offer(Reading reading, long now);
+
+    /**
+     * This method checks whether the type that decoded the value was sure enough about it for the
+     *  value to be counted. Strategies return UNSURE for values that are not, without remembering them
+     *
+     * @param reading The value
+     *
+     * @return True if the value's confidence is at least MIN_CONFIDENCE
+     */
+    protected boolean isConfident(Reading reading){
+        return reading.getConfidence() >= MIN_CONFIDENCE;
+    }
+
+    /**
+     * @return The last confirmed value
+     */
+    public abstract Reading getConfirmed();
+
+    /**
+     * This method forgets all the values offered so far
+     */
+    public abstract void reset();
+
+    /**
+     * @return The milliseconds after which the strategy stops waiting for a value to be confirmed. 0 for no timeout
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * This method sets a hard timeout on confirming a value, counted from the first value read.
+     * Once it expires no value is used. Refer to ValueReader.readConfirmedValue
+     *
+     * @param timeout The timeout in milliseconds. 0 for no timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The key the strategy is known by in ConfirmationStrategies
+     */
+    public abstract String getName();
+}
@@ -0,0 +1,371 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class retries connection attempts to bluetooth devices.
+ * Failed attempts are retried after an exponentially growing, jittered delay until either the
+ *  maximum number of attempts or the total deadline is reached.
+ * Nothing sleeps while waiting for the next attempt, the attempt is scheduled instead.
+ * The attempts are run on the scheduler's own threads unless an executor is provided when scheduling.
+ * Since an attempt blocks until the device answers, connections that need to be made at the same
+ *  time (e.g a race) should provide an executor with a thread for every connection
+ */
+public class ConnectionScheduler {
+
+    private static final String TAG = "ODK Sensors ConnectionScheduler";
+    private static final int POOL_SIZE = 2;
+
+    private static ConnectionScheduler instance;
+
+    private final ScheduledExecutorService executor;
+    private final Random random;
+    private final Metrics metrics;
+    private Policy policy;
+
+    private ConnectionScheduler(){
+        executor = Executors.newScheduledThreadPool(POOL_SIZE, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConnectionScheduler " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        random = new Random();
+        metrics = new Metrics();
+        policy = Policy.DEFAULT;
+    }
+
+    /**
+     * This method returns the only instance of the scheduler in this process
+     *
+     * @return The connection scheduler
+     */
+    public static synchronized ConnectionScheduler getInstance(){
+        if(instance == null){
+            instance = new ConnectionScheduler();
+        }
+        return instance;
+    }
+
+    public synchronized void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * This method schedules the first connection attempt to be run immediately
+     *
+     * @param name          A name for the connection, used in the logs
+     * @param connector     Does the actual (blocking) connection attempt
+     * @param callback      Told when the connection succeeds or is given up on
+     *
+     * @return A ticket that can be used to cancel the connection attempts
+     */
+    public Ticket schedule(String name, Connector connector, Callback callback){
+        return schedule(name, connector, callback, null);
+    }
+
+    /**
+     * This method schedules the first connection attempt to be run immediately on the provided executor.
+     * The scheduler's threads are then only used to wait out the delays between attempts
+     *
+     * @param name              A name for the connection, used in the logs
+     * @param connector         Does the actual (blocking) connection attempt
+     * @param callback          Told when the connection succeeds or is given up on
+     * @param attemptExecutor   Runs the connection attempts. Null to run them on the scheduler's threads
+     *
+     * @return A ticket that can be used to cancel the connection attempts
+     */
+    public Ticket schedule(String name, Connector connector, Callback callback, Executor attemptExecutor){
+        Ticket ticket = new Ticket(name, connector, callback, getPolicy(), attemptExecutor, System.nanoTime());
+        if(attemptExecutor != null){
+            run(ticket);//no need to go through the scheduler's threads for the first attempt
+        }
+        else {
+            submit(ticket, 0);
+        }
+        return ticket;
+    }
+
+    private void submit(final Ticket ticket, long delay){
+        synchronized (ticket){
+            if(ticket.cancelled) return;
+
+            ticket.future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ConnectionScheduler.this.run(ticket);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This method runs the ticket's next attempt on the ticket's executor or, if it doesn't have one,
+     *  on the current thread
+     *
+     * @param ticket The ticket whose attempt is due
+     */
+    private void run(final Ticket ticket){
+        if(ticket.attemptExecutor == null){
+            attempt(ticket);
+            return;
+        }
+
+        try {
+            ticket.attemptExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attempt(ticket);
+                }
+            });
+        }
+        catch (RejectedExecutionException e){//the executor has been shut down, nobody is waiting for the connection
+            Log.w(TAG, "Executor for " + ticket.name + " has been shut down. Not connecting");
+            ticket.cancel();
+            metrics.cancellations.incrementAndGet();
+        }
+    }
+
+    private void attempt(Ticket ticket){
+        if(ticket.cancelled) return;
+
+        ticket.attempts++;
+        metrics.attempts.incrementAndGet();
+        long attemptStart = System.nanoTime();
+        try {
+            ticket.connector.connect(ticket);//blocks until connected or the connection fails
+        }
+        catch (RuntimeException e){//e.g a SecurityException from the bluetooth stack. Retrying won't help
+            if(ticket.cancelled){
+                metrics.cancellations.incrementAndGet();
+                return;
+            }
+
+            Log.e(TAG, "Giving up on connecting to " + ticket.name + " after an unexpected error in attempt " + ticket.attempts);
+            e.printStackTrace();
+            metrics.failures.incrementAndGet();
+            ticket.callback.onGaveUp(ticket.attempts);
+            return;
+        }
+        catch (IOException e){
+            if(ticket.cancelled){
+                metrics.cancellations.incrementAndGet();
+                return;
+            }
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ticket.startTime);
+            long delay = getBackoffDelay(ticket.policy, ticket.attempts);
+
+            if(ticket.attempts < ticket.policy.maxAttempts && elapsed + delay < ticket.policy.deadline){
+                Log.i(TAG, "Attempt " + ticket.attempts + " to connect to " + ticket.name + " failed. Retrying in " + delay + "ms");
+                submit(ticket, delay);
+            }
+            else {
+                Log.w(TAG, "Giving up on connecting to " + ticket.name + " after " + ticket.attempts + " attempts and " + elapsed + "ms");
+                metrics.failures.incrementAndGet();
+                ticket.callback.onGaveUp(ticket.attempts);
+            }
+            return;
+        }
+
+        if(ticket.cancelled){
+            metrics.cancellations.incrementAndGet();
+            return;
+        }
+
+        metrics.successes.incrementAndGet();
+        metrics.totalConnectTime.addAndGet(System.nanoTime() - attemptStart);
+        ticket.callback.onConnected(ticket.attempts);//outside the try so an exception thrown by the callback is not taken for a failed attempt
+    }
+
+    /**
+     * This method calculates how long to wait before the next connection attempt
+     *
+     * @param policy    The backoff policy
+     * @param attempts  The number of attempts already made
+     *
+     * @return The delay in milliseconds
+     */
+    private long getBackoffDelay(Policy policy, int attempts){
+        double delay = policy.initialDelay * Math.pow(policy.multiplier, attempts - 1);
+        delay = Math.min(delay, policy.maxDelay);
+
+        double jitter;
+        synchronized (random){
+            jitter = (random.nextDouble() * 2 - 1) * policy.jitter;//between -jitter and +jitter
+        }
+        return Math.max(0, Math.round(delay * (1 + jitter)));
+    }
+
+    /**
+     * This interface describes the actual connection attempt.
+     * Implementations should block until connected and throw an IOException if the attempt fails.
+     * Any other exception thrown is treated as a failure that retrying won't fix, no more attempts are made.
+     * The deadline is only checked between attempts so an attempt should not block for much longer
+     *  than the platform's own connect timeout
+     */
+    public interface Connector {
+        void connect(Ticket ticket) throws IOException;
+    }
+
+    /**
+     * This interface describes a listener for the outcome of the connection attempts.
+     * Note that the methods are called from the thread the attempt was run on
+     */
+    public interface Callback {
+        void onConnected(int attempts);
+        void onGaveUp(int attempts);
+    }
+
+    /**
+     * This class holds the settings used to space out connection attempts
+     */
+    public static class Policy {
+        public static final Policy DEFAULT = new Policy(250, 2.0, 2000, 0.2, 8000, 6);
+
+        public final long initialDelay;//milliseconds before the first retry
+        public final double multiplier;//how much the delay grows after every failed attempt
+        public final long maxDelay;//the delay will never grow beyond this
+        public final double jitter;//fraction of the delay randomly added or removed
+        public final long deadline;//total milliseconds after which no more attempts are made. An attempt already running when it passes is not interrupted
+        public final int maxAttempts;
+
+        public Policy(long initialDelay, double multiplier, long maxDelay, double jitter, long deadline, int maxAttempts) {
+            this.initialDelay = initialDelay;
+            this.multiplier = multiplier;
+            this.maxDelay = maxDelay;
+            this.jitter = jitter;
+            this.deadline = deadline;
+            this.maxAttempts = maxAttempts;
+        }
+    }
+
+    /**
+     * This class is handed back for every scheduled connection and can be used to stop any
+     * further attempts
+     */
+    public static class Ticket {
+        private final String name;
+        private final Connector connector;
+        private final Callback callback;
+        private final Policy policy;
+        private final Executor attemptExecutor;//Null if the attempts are run on the scheduler's threads
+        private final long startTime;
+        private volatile boolean cancelled;
+        private volatile int attempts;
+        private ScheduledFuture<?> future;
+
+        private Ticket(String name, Connector connector, Callback callback, Policy policy, Executor attemptExecutor, long startTime){
+            this.name = name;
+            this.connector = connector;
+            this.callback = callback;
+            this.policy = policy;
+            this.attemptExecutor = attemptExecutor;
+            this.startTime = startTime;
+            this.cancelled = false;
+            this.attempts = 0;
+        }
+
+        /**
+         * This method stops any attempts that have not started yet.
+         * An attempt that is already blocked connecting is only stopped once the socket is closed
+         */
+        public synchronized void cancel(){
+            cancelled = true;
+            if(future != null){
+                future.cancel(false);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * This class holds counters on all the connection attempts made in this process
+     */
+    public static class Metrics {
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong cancellations = new AtomicLong();
+        private final AtomicLong totalConnectTime = new AtomicLong();//nanoseconds spent in successful attempts
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getSuccesses() {
+            return successes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getCancellations() {
+            return cancellations.get();
+        }
+
+        /**
+         * @return The average time taken by a successful connection attempt in milliseconds
+         */
+        public long getAverageConnectTime(){
+            long count = successes.get();
+            if(count == 0) return 0;
+            return TimeUnit.NANOSECONDS.toMillis(totalConnectTime.get() / count);
+        }
+
+        @Override
+        public String toString() {
+            return "attempts=" + getAttempts() + " successes=" + getSuccesses() + " failures=" + getFailures()
+                    + " cancellations=" + getCancellations() + " averageConnectTime=" + getAverageConnectTime() + "ms";
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class decides which devices a read connects to, and which ones are tried next if that fails.
+ * Devices are not searched for, they are picked from the paired devices in this order:
+ *      - the default devices for the data type, one after the other
+ *      - the last known good device for the data type
+ *      - all the other paired devices at once
+ * A device is only tried once. Used by both BluetoothActivity and SensorService so that both fall
+ *  back the same way. Not thread safe, meant to be used on the main thread
+ */
+public class DeviceSelector {
+
+    private final BluetoothHandler bluetoothHandler;
+    private final LinkedList<BluetoothDevice> defaultDevices;//the default devices not tried yet
+    private final boolean hasDefaultDevices;
+    private final Set<String> tried;//addresses of the devices already connected to on their own
+    private BluetoothDevice firstDevice;
+    private boolean lastKnownGoodTried;
+    private boolean pairedTried;
+    private List<BluetoothDevice> current;
+    private boolean started;//a device was returned by next
+
+    /**
+     * @param bluetoothHandler The handler for the data type being read
+     */
+    public DeviceSelector(BluetoothHandler bluetoothHandler){
+        this(bluetoothHandler, null);
+    }
+
+    /**
+     * @param bluetoothHandler  The handler for the data type being read
+     * @param firstDevice       A device to try before all the others e.g the device the last value was read from
+     */
+    public DeviceSelector(BluetoothHandler bluetoothHandler, BluetoothDevice firstDevice){
+        this.bluetoothHandler = bluetoothHandler;
+        this.defaultDevices = new LinkedList<BluetoothDevice>(bluetoothHandler.getDefaultDevices());
+        this.hasDefaultDevices = !defaultDevices.isEmpty();
+        this.tried = new HashSet<String>();
+        this.firstDevice = firstDevice;
+        this.current = Collections.emptyList();
+    }
+
+    /**
+     * @return True if any of the default devices for the data type is paired
+     */
+    public boolean hasDefaultDevices(){
+        return hasDefaultDevices;
+    }
+
+    /**
+     * This method picks the next devices to connect to
+     *
+     * @return The devices, a single device if it is to be connected to directly. Empty once all the
+     *          paired devices have been tried
+     */
+    public List<BluetoothDevice> next(){
+        current = pick();
+        started = started || !current.isEmpty();
+        return current;
+    }
+
+    /**
+     * This method checks whether the provided device is one of the devices last returned by next.
+     * Used to ignore callbacks about connections from before the selector was (re)started
+     *
+     * @param device The device
+     *
+     * @return True if the device is being connected to
+     */
+    public boolean isCurrent(BluetoothDevice device){
+        for(BluetoothDevice currDevice : current){
+            if(currDevice.getAddress().equals(device.getAddress())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if a device was already returned by next
+     */
+    public boolean hasTried(){
+        return started;
+    }
+
+    private List<BluetoothDevice> pick(){
+        if(firstDevice != null){
+            BluetoothDevice device = firstDevice;
+            firstDevice = null;
+            return single(device);
+        }
+
+        while(!defaultDevices.isEmpty()){
+            BluetoothDevice device = defaultDevices.removeFirst();
+            if(!tried.contains(device.getAddress())) return single(device);
+        }
+
+        if(!lastKnownGoodTried){
+            lastKnownGoodTried = true;
+            BluetoothDevice device = bluetoothHandler.getLastKnownGoodDevice(getUntriedPairedDevices());
+            if(device != null) return single(device);
+        }
+
+        if(!pairedTried){
+            pairedTried = true;
+            List<BluetoothDevice> devices = getUntriedPairedDevices();
+            if(!devices.isEmpty()) return devices;
+        }
+
+        return Collections.emptyList();
+    }
+
+    private List<BluetoothDevice> single(BluetoothDevice device){
+        tried.add(device.getAddress());
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>(1);
+        devices.add(device);
+        return devices;
+    }
+
+    private List<BluetoothDevice> getUntriedPairedDevices(){
+        List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>();
+        Set<BluetoothDevice> pairedDevices = bluetoothHandler.getPairedDevices();
+        if(pairedDevices != null){
+            for(BluetoothDevice currDevice : pairedDevices){
+                if(!tried.contains(currDevice.getAddress())) devices.add(currDevice);
+            }
+        }
+        return devices;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the devices found while searching for bluetooth devices, keyed by MAC address so
+ *  that a device found more than once during a search is only held (and reported) once.
+ * The signal strength the device was last found with is kept so that the nearest devices can be
+ *  connected to first.
+ * Devices stay in the results after the search that found them finishes, until they are older than
+ *  MAX_AGE, so that the next scan can also use their signal strength
+ */
+public class DiscoveryResults {
+
+    public static final long MAX_AGE = 60000;//milliseconds after which the signal strength of a device is no longer useful
+    public static final short UNKNOWN_RSSI = Short.MIN_VALUE;
+
+    /**
+     * This comparator orders the devices starting with the strongest signal. Devices whose signal
+     *  strength is unknown come last
+     */
+    private static final Comparator<Result> RSSI_COMPARATOR = new Comparator<Result>() {
+        @Override
+        public int compare(Result lhs, Result rhs) {
+            return rhs.rssi - lhs.rssi;
+        }
+    };
+
+    private final Map<String, Result> results;
+    private long searchStart;
+
+    public DiscoveryResults(){
+        results = new HashMap<String, Result>();
+        searchStart = 0;
+    }
+
+    /**
+     * This method is called when a new search starts. Results older than MAX_AGE are dropped
+     *
+     * @param now The current time in milliseconds
+     */
+    public synchronized void onSearchStart(long now){
+        searchStart = now;
+        Iterator<Result> iterator = results.values().iterator();
+        while(iterator.hasNext()){
+            if(now - iterator.next().lastSeen > MAX_AGE) iterator.remove();
+        }
+    }
+
+    /**
+     * This method records that a device was found
+     *
+     * @param device    The device
+     * @param rssi      The signal strength in dBm or UNKNOWN_RSSI
+     * @param now       The current time in milliseconds
+     *
+     * @return True if this is the first time the device is found in the current search
+     */
+    public synchronized boolean onDeviceFound(BluetoothDevice device, short rssi, long now){
+        Result result = results.get(device.getAddress());
+        boolean isNew = result == null || result.lastSeen < searchStart;
+        if(result == null){
+            result = new Result(device, now);
+            results.put(device.getAddress(), result);
+        }
+        result.device = device;
+        result.lastSeen = now;
+        if(rssi != UNKNOWN_RSSI) result.rssi = rssi;
+        return isNew;
+    }
+
+    /**
+     * This method returns the signal strength a device was last found with
+     *
+     * @param address   The device's MAC address
+     * @param now       The current time in milliseconds
+     *
+     * @return The signal strength in dBm or UNKNOWN_RSSI if the device has not been found recently
+     */
+    public synchronized short getRssi(String address, long now){
+        Result result = results.get(address);
+        if(result == null || now - result.lastSeen > MAX_AGE) return UNKNOWN_RSSI;
+        return result.rssi;
+    }
+
+    /**
+     * This method returns the devices found in the current (or last) search, the strongest signal first
+     *
+     * @return The devices
+     */
+    public synchronized List<Result> getRanked(){
+        List<Result> ranked = new ArrayList<Result>(results.size());
+        for(Result currResult : results.values()){
+            if(currResult.lastSeen >= searchStart) ranked.add(currResult);
+        }
+        Collections.sort(ranked, RSSI_COMPARATOR);
+        return ranked;
+    }
+
+    /**
+     * This class holds what is known about a device found while searching
+     */
+    public static class Result {
+        private volatile BluetoothDevice device;
+        private volatile short rssi;
+        private final long firstSeen;
+        private volatile long lastSeen;
+
+        private Result(BluetoothDevice device, long firstSeen){
+            this.device = device;
+            this.rssi = UNKNOWN_RSSI;
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+
+        public BluetoothDevice getDevice() {
+            return device;
+        }
+
+        /**
+         * @return The signal strength in dBm or UNKNOWN_RSSI if the device did not report it
+         */
+        public short getRssi() {
+            return rssi;
+        }
+
+        public long getFirstSeen() {
+            return firstSeen;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+}
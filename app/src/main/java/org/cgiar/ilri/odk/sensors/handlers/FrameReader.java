@@ -0,0 +1,168 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class splits the bytes sent by a reader into frames.
+ * A frame ends at a CR, LF, STX or ETX byte, which covers both line based readers and readers that
+ *  wrap every value in STX/ETX. Empty frames (e.g between a CR and an LF) are skipped.
+ *
+ * The bytes are read into a single buffer that is reused for every frame so, unlike
+ *  BufferedReader.readLine, no String is created per frame. The current frame is only valid until
+ *  readFrame is called again
+ */
+public class FrameReader {
+
+    public static final byte STX = 0x02;
+    public static final byte ETX = 0x03;
+    public static final byte CR = '\r';
+    public static final byte LF = '\n';
+
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int MAX_CAPACITY = 4096;//frames longer than this are garbage and are dropped
+
+    private final InputStream inputStream;
+    private byte[] buffer;
+    private int position;//where the unconsumed bytes start
+    private int limit;//where the unconsumed bytes end
+    private int frameStart;
+    private int frameLength;
+
+    public FrameReader(InputStream inputStream){
+        this.inputStream = inputStream;
+        this.buffer = new byte[DEFAULT_CAPACITY];
+        this.position = 0;
+        this.limit = 0;
+        this.frameStart = 0;
+        this.frameLength = 0;
+    }
+
+    /**
+     * This method reads the next frame from the input stream.
+     * Note that this method blocks the thread until a whole frame is gotten
+     *
+     * @return The length of the frame or -1 if the end of the stream was reached
+     *
+     * @throws IOException If the input stream could not be read
+     */
+    public int readFrame() throws IOException {
+        int scanned = position;//bytes before this have already been checked for a delimiter
+        while(true){
+            for(int index = scanned; index < limit; index++){
+                if(isDelimiter(buffer[index])){
+                    int length = index - position;
+                    int start = position;
+                    position = index + 1;
+                    if(length > 0){
+                        frameStart = start;
+                        frameLength = length;
+                        return length;
+                    }
+                }
+            }
+
+            //no delimiter in the buffered bytes. Make space and read some more
+            if(position > 0){
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if(limit == buffer.length){
+                if(buffer.length >= MAX_CAPACITY){
+                    limit = 0;//drop the garbage
+                }
+                else {
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, limit);
+                    buffer = newBuffer;
+                }
+            }
+            scanned = limit;
+
+            int read = inputStream.read(buffer, limit, buffer.length - limit);//this line of code blocks the thread until something is returned
+            if(read < 0){
+                if(limit > position){//the last frame was not terminated
+                    frameStart = position;
+                    frameLength = limit - position;
+                    position = limit;
+                    return frameLength;
+                }
+                return -1;
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * This method checks whether bytes are available to be read without blocking.
+     * Delimiters left over from the last frame (e.g the LF after a CR) are skipped first since they
+     *  would only make up an empty frame
+     *
+     * @return True if there are unconsumed bytes
+     *
+     * @throws IOException If the input stream could not be checked
+     */
+    public boolean ready() throws IOException {
+        while(position < limit && isDelimiter(buffer[position])){
+            position++;
+        }
+        return limit > position || inputStream.available() > 0;
+    }
+
+    /**
+     * This method discards all the bytes buffered so far and all the bytes the input stream
+     * already has available
+     *
+     * @throws IOException If the input stream could not be read
+     */
+    public void drain() throws IOException {
+        position = 0;
+        limit = 0;
+        while(inputStream.available() > 0){
+            if(inputStream.read(buffer, 0, Math.min(buffer.length, inputStream.available())) < 0) return;
+        }
+    }
+
+    /**
+     * @return The buffer holding the current frame
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return Where the current frame starts in the buffer
+     */
+    public int getFrameStart() {
+        return frameStart;
+    }
+
+    /**
+     * @return The length of the current frame
+     */
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    private static boolean isDelimiter(byte b){
+        return b == LF || b == CR || b == STX || b == ETX;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+
+/**
+ * This class confirms values by taking them in pairs. A value is only confirmed when both values
+ *  in a pair match, otherwise the pair is REJECTED and a new pair is started.
+ * The first value in a pair should be discarded afterward since some devices return a cached value
+ *  first before returning the actual scan value. Observed in:
+ *      - Allflex RFID Stick Reader Model No. RS320-3-60
+ *
+ * Note that a cached value costs two extra values with this strategy. VotingConfirmer does not
+ *  have that cost
+ */
+public class PairConfirmer extends ConfirmationStrategy {
+
+    public static final String KEY = "pair";
+
+    private final Reading first;
+    private final Reading confirmed;
+    private boolean hasFirst;
+
+    public PairConfirmer(){
+        first = new Reading();
+        confirmed = new Reading();
+        hasFirst = false;
+    }
+
+    /**
+     * This method passes the next value read from the device to the confirmer
+     *
+     * @param reading   The value. It is copied so the reading can be reused by the caller
+     * @param now       Not used
+     *
+     * @return FIRST, CONFIRMED, REJECTED or UNSURE
+     */
+    @Override
+    public int offer(Reading reading, long now){
+        if(!isConfident(reading)) return UNSURE;
+
+        if(!hasFirst){
+            first.copyFrom(reading);
+            hasFirst = true;
+            return FIRST;
+        }
+
+        hasFirst = false;
+        if(first.contentEquals(reading)){
+            confirmed.copyFrom(reading);
+            return CONFIRMED;
+        }
+        return REJECTED;
+    }
+
+    @Override
+    public Reading getConfirmed() {
+        return confirmed;
+    }
+
+    @Override
+    public void reset(){
+        hasFirst = false;
+    }
+
+    @Override
+    public String getName() {
+        return KEY;
+    }
+}
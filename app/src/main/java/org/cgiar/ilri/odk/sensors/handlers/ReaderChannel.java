@@ -0,0 +1,55 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This interface describes a stream based link with a single reader e.g an RFCOMM socket.
+ * Like a bluetooth socket, the channel is created unconnected, connect blocks until the link is up
+ *  and close can be called from any thread to abort a blocked connect or read.
+ */
+public interface ReaderChannel {
+
+    /**
+     * @return The address of the reader on the other end of the channel e.g its MAC address
+     */
+    String getAddress();
+
+    /**
+     * This method blocks the thread until the channel is connected
+     *
+     * @throws IOException If the connection could not be made or the channel was closed while connecting
+     */
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * This method closes the channel, unblocking any thread that is connecting or reading from it
+     *
+     * @throws IOException If the channel could not be closed
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,42 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import java.io.IOException;
+
+/**
+ * This interface describes how channels to readers are created.
+ * BluetoothTransport creates RFCOMM channels to real readers while SimulatedReader creates channels
+ *  to a reader simulated in the same process, making it possible to run the connect, read and
+ *  confirm pipeline without any hardware
+ */
+public interface ReaderTransport {
+
+    /**
+     * This method creates an unconnected channel to the reader. Call connect on the channel to connect it.
+     * A new channel should be created for every connection attempt since a channel whose connect
+     *  failed cannot be reused
+     *
+     * @param address The address of the reader
+     *
+     * @return The channel
+     *
+     * @throws IOException If the channel could not be created
+     */
+    ReaderChannel createChannel(String address) throws IOException;
+}
@@ -0,0 +1,206 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class tracks the state of a scan:
+ *      IDLE > SEARCHING > CONNECTING > CONNECTED > READING > DONE
+ * The scan can be CANCELLED from any state. A scan that is not DONE or CANCELLED can go back to
+ *  SEARCHING or CONNECTING e.g when the connection to the device is lost and the device is reconnected to.
+ *
+ * The events can be reported from any thread. The listener is told about every state change on the
+ *  thread that caused it, or on the session's timer thread for deadlines, so it should not assume it
+ *  is on the UI thread.
+ * When a search finishes before any device is being connected to, the scan is cancelled if no
+ *  connection is started within the no device deadline, instead of anything waiting for it
+ */
+public class ScanSession {
+
+    private static final String TAG = "ODK Sensors ScanSession";
+
+    public static final int IDLE = 0;
+    public static final int SEARCHING = 1;
+    public static final int CONNECTING = 2;
+    public static final int CONNECTED = 3;
+    public static final int READING = 4;
+    public static final int DONE = 5;
+    public static final int CANCELLED = 6;
+    public static final String[] STATES = {"idle", "searching", "connecting", "connected", "reading", "done", "cancelled"};
+
+    public static final int REASON_NONE = 0;
+    public static final int REASON_NO_DEVICE = 1;//the search finished without any device to connect to
+    public static final int REASON_CONNECT_FAILED = 2;//none of the devices could be connected to
+    public static final int REASON_STOPPED = 3;//stopped by the user or because the activity went to sleep
+
+    public static final long NO_DEVICE_DEADLINE = 2000;//milliseconds after a search finishes within which a connection has to start
+
+    private static ScheduledExecutorService timer;
+
+    private final Listener listener;
+    private final long noDeviceDeadline;
+    private int state;
+    private int reason;
+    private ScheduledFuture<?> deadline;
+
+    /**
+     * The constructor
+     *
+     * @param listener Told about every state change
+     */
+    public ScanSession(Listener listener){
+        this(listener, NO_DEVICE_DEADLINE);
+    }
+
+    public ScanSession(Listener listener, long noDeviceDeadline){
+        this.listener = listener;
+        this.noDeviceDeadline = noDeviceDeadline;
+        this.state = IDLE;
+        this.reason = REASON_NONE;
+    }
+
+    private static synchronized ScheduledExecutorService getTimer(){
+        if(timer == null){
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ScanSession timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timer;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public synchronized int getReason() {
+        return reason;
+    }
+
+    /**
+     * @return True if the scan is DONE or CANCELLED
+     */
+    public synchronized boolean isFinished(){
+        return state == DONE || state == CANCELLED;
+    }
+
+    public void onSearchStarted(){
+        transition(SEARCHING, REASON_NONE);
+    }
+
+    /**
+     * This method is called when the search for devices finishes. If no device is being connected to
+     *  by then, the no device deadline is started
+     */
+    public void onSearchStopped(){
+        synchronized (this){
+            if(state != SEARCHING) return;//already connecting, or done
+
+            cancelDeadline();
+            deadline = getTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onNoDeviceDeadline();
+                }
+            }, noDeviceDeadline, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onNoDeviceDeadline(){
+        boolean expired;
+        synchronized (this){
+            expired = state == SEARCHING;
+        }
+        if(expired){
+            Log.w(TAG, "No device was connected to within " + noDeviceDeadline + "ms of the search finishing");
+            transition(CANCELLED, REASON_NO_DEVICE);
+        }
+    }
+
+    public void onConnecting(){
+        transition(CONNECTING, REASON_NONE);
+    }
+
+    public void onConnected(){
+        transition(CONNECTED, REASON_NONE);
+    }
+
+    public void onReading(){
+        transition(READING, REASON_NONE);
+    }
+
+    public void onDone(){
+        transition(DONE, REASON_NONE);
+    }
+
+    /**
+     * This method cancels the scan
+     *
+     * @param reason Why the scan was cancelled e.g REASON_STOPPED
+     */
+    public void cancel(int reason){
+        transition(CANCELLED, reason);
+    }
+
+    /**
+     * This method moves the scan to a new state and tells the listener.
+     * Nothing happens if the scan is already in the state or has finished
+     *
+     * @return True if the state changed
+     */
+    private boolean transition(int newState, int newReason){
+        int oldState;
+        synchronized (this){
+            if(state == newState || state == DONE || state == CANCELLED) return false;
+
+            oldState = state;
+            state = newState;
+            reason = newReason;
+            cancelDeadline();
+        }
+
+        Log.d(TAG, "Scan went from " + STATES[oldState] + " to " + STATES[newState]);
+        if(listener != null) listener.onScanStateChanged(this, oldState, newState);
+        return true;
+    }
+
+    private void cancelDeadline(){
+        if(deadline != null){
+            deadline.cancel(false);
+            deadline = null;
+        }
+    }
+
+    /**
+     * This interface describes a listener for the state of a scan
+     */
+    public interface Listener {
+        void onScanStateChanged(ScanSession session, int oldState, int newState);
+    }
+}
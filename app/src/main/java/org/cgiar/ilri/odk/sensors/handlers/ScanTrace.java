@@ -0,0 +1,135 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records when a scan reached each of its milestones, from the scan being started to the
+ *  result being delivered to ODK. Times are taken from System.nanoTime so they are monotonic.
+ * Only the first time a milestone is reached counts, even if several devices are being connected to.
+ *
+ * A phase is the time between a milestone and the milestone reached just before it. For example, if
+ *  the first connection attempt failed, the connect phase is split into the time until the
+ *  attempt failed and the time spent retrying
+ */
+public class ScanTrace {
+
+    public static final int STARTED = 0;
+    public static final int DISCOVERY_STARTED = 1;
+    public static final int DEVICE_FOUND = 2;
+    public static final int SOCKET_CREATED = 3;
+    public static final int FIRST_ATTEMPT_FAILED = 4;
+    public static final int CONNECTED = 5;
+    public static final int FIRST_MESSAGE = 6;
+    public static final int CONFIRMED_MESSAGE = 7;
+    public static final int RESULT_DELIVERED = 8;
+
+    /*
+    The names of the milestones, also used as the names of the phases ending at the milestones
+     */
+    public static final String[] MILESTONES = new String[]{"started", "discovery_started", "device_found",
+            "socket_created", "first_attempt_failed", "connected", "first_message", "confirmed_message",
+            "result_delivered"};
+
+    private final long[] times;//nanoTime at which every milestone was reached
+    private final boolean[] reached;
+    private int connectAttempts;//-1 until a device connects
+
+    public ScanTrace(){
+        times = new long[MILESTONES.length];
+        reached = new boolean[MILESTONES.length];
+        connectAttempts = -1;
+        times[STARTED] = System.nanoTime();
+        reached[STARTED] = true;
+    }
+
+    /**
+     * This method records that the scan has reached a milestone, unless it already had
+     *
+     * @param milestone The milestone e.g CONNECTED
+     */
+    public synchronized void mark(int milestone){
+        if(!reached[milestone]){
+            times[milestone] = System.nanoTime();
+            reached[milestone] = true;
+        }
+    }
+
+    /**
+     * This method records how many attempts it took to connect to the device that connected first
+     *
+     * @param attempts The number of attempts. 0 if an open socket was reused
+     */
+    public synchronized void setConnectAttempts(int attempts){
+        if(connectAttempts == -1) connectAttempts = attempts;
+    }
+
+    public synchronized int getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    public synchronized boolean isReached(int milestone){
+        return reached[milestone];
+    }
+
+    /**
+     * This method returns how long the phase ending at the provided milestone took
+     *
+     * @param milestone The milestone
+     *
+     * @return The duration in milliseconds or -1 if the milestone was not reached
+     */
+    public synchronized long getPhaseDuration(int milestone){
+        if(!reached[milestone] || milestone == STARTED) return -1;
+
+        long shortest = times[milestone] - times[STARTED];
+        for(int index = 1; index < times.length; index++){//the last milestone reached before this one
+            long sinceIndex = times[milestone] - times[index];//nanoTime values can only be compared through their difference
+            if(index != milestone && reached[index] && sinceIndex >= 0 && sinceIndex < shortest){
+                shortest = sinceIndex;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(shortest);
+    }
+
+    /**
+     * This method returns how long it took to get from the scan being started to the provided milestone
+     *
+     * @param milestone The milestone
+     *
+     * @return The time in milliseconds or -1 if the milestone was not reached
+     */
+    public synchronized long getTimeTo(int milestone){
+        if(!reached[milestone]) return -1;
+        return TimeUnit.NANOSECONDS.toMillis(times[milestone] - times[STARTED]);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(int index = 1; index < times.length; index++){
+            if(reached[index]){
+                if(builder.length() > 0) builder.append(' ');
+                builder.append(MILESTONES[index]).append('=').append(getPhaseDuration(index)).append("ms");
+            }
+        }
+        builder.append(" attempts=").append(connectAttempts);
+        return builder.toString();
+    }
+}
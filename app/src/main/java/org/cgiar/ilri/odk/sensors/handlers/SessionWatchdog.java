@@ -0,0 +1,222 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class puts deadlines on sessions with readers so that a session whose reader went out of
+ *  range, or stopped sending in the middle of a value, is reclaimed in bounded time instead of
+ *  blocking its thread until the socket is closed from somewhere else.
+ * A watched session expires if any of the following deadlines is missed:
+ *      - the first frame is not read within firstReadTimeout (the operator has that long to scan)
+ *      - a frame is not read within readTimeout of the previous frame
+ *      - the whole session takes longer than sessionTimeout
+ * Nothing polls the sessions. Every watch is checked once, at its next deadline
+ */
+public class SessionWatchdog {
+
+    private static final String TAG = "ODK Sensors SessionWatchdog";
+
+    private static SessionWatchdog instance;
+
+    private final ScheduledExecutorService executor;
+    private Policy policy;
+
+    private SessionWatchdog(){
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SessionWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        policy = Policy.DEFAULT;
+    }
+
+    /**
+     * This method returns the only instance of the watchdog in this process
+     *
+     * @return The session watchdog
+     */
+    public static synchronized SessionWatchdog getInstance(){
+        if(instance == null){
+            instance = new SessionWatchdog();
+        }
+        return instance;
+    }
+
+    public synchronized void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * This method starts watching a session
+     *
+     * @param name      A name for the session, used in the logs
+     * @param onExpired Run on the watchdog's thread if a deadline is missed. Should close the session
+     *                  so that the thread reading from it is unblocked
+     *
+     * @return The watch. Tell it about every frame read and cancel it once the session is done
+     */
+    public Watch watch(String name, Runnable onExpired){
+        return watch(name, getPolicy(), onExpired);
+    }
+
+    /**
+     * This method starts watching a session using deadlines other than the watchdog's policy
+     *  e.g the timeouts set for a particular reader
+     *
+     * @param name      A name for the session, used in the logs
+     * @param policy    The deadlines
+     * @param onExpired Run on the watchdog's thread if a deadline is missed
+     *
+     * @return The watch
+     */
+    public Watch watch(String name, Policy policy, Runnable onExpired){
+        Watch watch = new Watch(name, policy, onExpired);
+        schedule(watch);
+        return watch;
+    }
+
+    private void schedule(final Watch watch){
+        synchronized (watch){
+            if(watch.cancelled) return;
+
+            long delay = TimeUnit.NANOSECONDS.toMillis(watch.getDeadline() - System.nanoTime());
+            watch.future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    check(watch);
+                }
+            }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void check(Watch watch){
+        synchronized (watch){
+            if(watch.cancelled) return;
+
+            if(watch.getDeadline() - System.nanoTime() > 0){//a frame was read since this check was scheduled
+                schedule(watch);
+                return;
+            }
+            watch.expired = true;
+            watch.cancelled = true;
+        }
+
+        Log.w(TAG, "Session with " + watch.name + " missed its deadline after "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - watch.startTime) + "ms. Closing it");
+        watch.onExpired.run();
+    }
+
+    /**
+     * This class holds the deadlines used for sessions
+     */
+    public static class Policy {
+        public static final Policy DEFAULT = new Policy(60000, 5000, 90000);
+
+        public final long firstReadTimeout;//milliseconds allowed before the first frame. Includes the time taken by the operator to scan
+        public final long readTimeout;//milliseconds allowed between frames once the reader has started sending
+        public final long sessionTimeout;//milliseconds allowed for the whole session
+
+        public Policy(long firstReadTimeout, long readTimeout, long sessionTimeout) {
+            this.firstReadTimeout = firstReadTimeout;
+            this.readTimeout = readTimeout;
+            this.sessionTimeout = sessionTimeout;
+        }
+    }
+
+    /**
+     * This class is handed back for every watched session
+     */
+    public static class Watch {
+        private final String name;
+        private final Policy policy;
+        private final Runnable onExpired;
+        private final long startTime;
+        private long lastRead;
+        private boolean started;//Whether the first frame has been read
+        private boolean cancelled;
+        private boolean expired;
+        private ScheduledFuture<?> future;
+
+        private Watch(String name, Policy policy, Runnable onExpired){
+            this.name = name;
+            this.policy = policy;
+            this.onExpired = onExpired;
+            this.startTime = System.nanoTime();
+            this.lastRead = startTime;
+            this.started = false;
+            this.cancelled = false;
+            this.expired = false;
+        }
+
+        /**
+         * This method pushes back the read deadline. Call it every time a frame is read
+         */
+        public synchronized void onFrameRead(){
+            lastRead = System.nanoTime();
+            started = true;
+        }
+
+        /**
+         * This method stops watching the session
+         *
+         * @return False if the session had already expired
+         */
+        public synchronized boolean cancel(){
+            cancelled = true;
+            if(future != null){
+                future.cancel(false);
+            }
+            return !expired;
+        }
+
+        public synchronized boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * @return True if at least one frame has been read from the session
+         */
+        public synchronized boolean isStarted() {
+            return started;
+        }
+
+        /**
+         * @return The nanoTime at which the session expires unless a frame is read
+         */
+        private long getDeadline(){
+            long readDeadline = lastRead + TimeUnit.MILLISECONDS.toNanos(started ? policy.readTimeout : policy.firstReadTimeout);
+            long sessionDeadline = startTime + TimeUnit.MILLISECONDS.toNanos(policy.sessionTimeout);
+            return readDeadline - sessionDeadline < 0 ? readDeadline : sessionDeadline;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class simulates an RFID stick reader in the same process so that the connect, read and
+ *  confirm pipeline can be load tested, timed and used to reproduce field failures without hardware.
+ * Every channel created is connected to its own simulated reader through piped streams.
+ *
+ * Once connected, the simulated reader scans tags one after the other. For every scan it sends:
+ *      - the value of the previous scan, if cachedFirstValue is set. Observed in:
+ *          - Allflex RFID Stick Reader Model No. RS320-3-60
+ *      - the tag scanned, burstSize times
+ * Frames are Allflex style i.e a seven digit header, the 15 digit tag number and a 12 digit timestamp.
+ * Delays can be jittered and the link can be made to fail when connecting or drop while sending.
+ *
+ * The class does not depend on Android (apart from logging) so that it can be run on a plain JVM.
+ * Change the settings before creating channels
+ */
+public class SimulatedReader implements ReaderTransport {
+
+    private static final String TAG = "ODK Sensors SimulatedReader";
+
+    public static final int DELIMITER_CRLF = 0;
+    public static final int DELIMITER_STX_ETX = 1;
+    private static final int PIPE_SIZE = 4096;
+
+    private final Random random;
+    private final AtomicInteger scans;//Used to number the frames and pick the next tag
+    private volatile String lastTag;//What the reader sends first on the next scan. Survives reconnections like on the actual reader
+    private String[] tags;
+    private boolean cachedFirstValue;
+    private int burstSize;
+    private int delimiter;
+    private long connectDelay;//milliseconds taken to connect
+    private long scanDelay;//milliseconds between connecting or the last scan, and the next scan
+    private long frameInterval;//milliseconds between the frames in a burst
+    private double jitter;//fraction of every delay randomly added or removed
+    private double connectFailureRate;//fraction of connection attempts that fail
+    private double dropoutRate;//fraction of frames before which the link drops
+
+    /**
+     * The constructor. The reader starts off behaving like a healthy Allflex RS320-3-60 with no delays
+     */
+    public SimulatedReader(){
+        this(new Random());
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param random The source of randomness. Pass a seeded Random to reproduce a run
+     */
+    public SimulatedReader(Random random){
+        this.random = random;
+        this.scans = new AtomicInteger();
+        this.lastTag = null;
+        this.tags = new String[]{"982000123456789"};
+        this.cachedFirstValue = true;
+        this.burstSize = 3;
+        this.delimiter = DELIMITER_CRLF;
+        this.connectDelay = 0;
+        this.scanDelay = 0;
+        this.frameInterval = 0;
+        this.jitter = 0;
+        this.connectFailureRate = 0;
+        this.dropoutRate = 0;
+    }
+
+    /**
+     * @param tags The 15 digit tag numbers scanned, in turn
+     */
+    public void setTags(String... tags) {
+        if(tags.length == 0) throw new IllegalArgumentException("At least one tag is needed");
+        this.tags = tags;
+    }
+
+    public void setCachedFirstValue(boolean cachedFirstValue) {
+        this.cachedFirstValue = cachedFirstValue;
+    }
+
+    public void setBurstSize(int burstSize) {
+        this.burstSize = burstSize;
+    }
+
+    /**
+     * @param delimiter DELIMITER_CRLF or DELIMITER_STX_ETX
+     */
+    public void setDelimiter(int delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public void setConnectDelay(long connectDelay) {
+        this.connectDelay = connectDelay;
+    }
+
+    public void setScanDelay(long scanDelay) {
+        this.scanDelay = scanDelay;
+    }
+
+    public void setFrameInterval(long frameInterval) {
+        this.frameInterval = frameInterval;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public void setConnectFailureRate(double connectFailureRate) {
+        this.connectFailureRate = connectFailureRate;
+    }
+
+    public void setDropoutRate(double dropoutRate) {
+        this.dropoutRate = dropoutRate;
+    }
+
+    @Override
+    public ReaderChannel createChannel(String address) throws IOException {
+        return new Channel(address);
+    }
+
+    /**
+     * This method returns the tag that will be scanned in the provided scan
+     *
+     * @param scan The number of the scan
+     *
+     * @return The tag number
+     */
+    public String getTag(int scan){
+        return tags[scan % tags.length];
+    }
+
+    private long jittered(long delay){
+        if(delay <= 0 || jitter <= 0) return delay;
+        double factor;
+        synchronized (random){
+            factor = 1 + (random.nextDouble() * 2 - 1) * jitter;//between 1 - jitter and 1 + jitter
+        }
+        return Math.max(0, Math.round(delay * factor));
+    }
+
+    private boolean happens(double rate){
+        if(rate <= 0) return false;
+        synchronized (random){
+            return random.nextDouble() < rate;
+        }
+    }
+
+    /**
+     * This method builds a frame like the ones sent by Allflex readers
+     *
+     * @param scan  The number of the scan, used as the header and timestamp
+     * @param tag   The 15 digit tag number
+     *
+     * @return The bytes of the frame, including the delimiters
+     */
+    private byte[] buildFrame(int scan, String tag){
+        String header = "R" + pad(scan, 7);
+        String timestamp = pad(scan, 12);
+        String frame = header + " " + tag + " " + timestamp;
+        if(delimiter == DELIMITER_STX_ETX) frame = '\u0002' + frame + '\u0003';
+        else frame = frame + "\r\n";
+        return frame.getBytes();
+    }
+
+    private static String pad(long number, int width){
+        StringBuilder builder = new StringBuilder(String.valueOf(number));
+        while(builder.length() < width) builder.insert(0, '0');
+        return builder.substring(builder.length() - width);
+    }
+
+    /**
+     * This class is the link with a single simulated reader
+     */
+    private class Channel implements ReaderChannel {
+        private final String address;
+        private final Object lock;
+        private PipedInputStream inputStream;
+        private PipedOutputStream readerSide;//The simulated reader writes to this end of the pipe
+        private OutputStream outputStream;
+        private Thread readerThread;
+        private boolean connected;
+        private boolean closed;
+
+        private Channel(String address){
+            this.address = address;
+            this.lock = new Object();
+            this.connected = false;
+            this.closed = false;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            synchronized (lock){
+                long delay = jittered(connectDelay);
+                long deadline = System.currentTimeMillis() + delay;
+                try {
+                    while(!closed && delay > 0){//wait like a real connect would, unless closed in the meantime
+                        lock.wait(delay);
+                        delay = deadline - System.currentTimeMillis();
+                    }
+                }
+                catch (InterruptedException e){
+                    throw new InterruptedIOException("Interrupted while connecting to " + address);
+                }
+
+                if(closed) throw new IOException("Channel with " + address + " closed while connecting");
+                if(happens(connectFailureRate)) throw new IOException("Simulated connection failure with " + address);
+
+                inputStream = new PipedInputStream(PIPE_SIZE);
+                readerSide = new PipedOutputStream(inputStream);
+                outputStream = new OutputStream() {//whatever is sent to the reader is ignored
+                    @Override
+                    public void write(int b) throws IOException {
+                    }
+                };
+                readerThread = new Thread(new ReaderRunnable(readerSide), "SimulatedReader " + address);
+                readerThread.setDaemon(true);
+                readerThread.start();
+                connected = true;
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            synchronized (lock){
+                return connected && !closed;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            synchronized (lock){
+                if(!connected) throw new IOException("Channel with " + address + " is not connected");
+                return inputStream;
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            synchronized (lock){
+                if(!connected) throw new IOException("Channel with " + address + " is not connected");
+                return outputStream;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (lock){
+                if(closed) return;
+                closed = true;
+                lock.notifyAll();//stop any connect that is waiting
+            }
+
+            if(readerThread != null) readerThread.interrupt();
+            if(readerSide != null) readerSide.close();//a read blocked on the pipe now returns the end of the stream
+            if(inputStream != null) inputStream.close();
+        }
+
+        /**
+         * This method simulates the link dropping. The reader side of the pipe is closed so the
+         *  other side gets to the end of the stream
+         */
+        private void drop(){
+            synchronized (lock){
+                connected = false;
+            }
+            try {
+                readerSide.close();
+            }
+            catch (IOException e){
+                Log.w(TAG, "Unable to close the simulated link with " + address);
+            }
+        }
+
+        /**
+         * This class is the simulated reader itself. It runs on its own thread until the channel is closed
+         */
+        private class ReaderRunnable implements Runnable {
+            private final PipedOutputStream out;
+
+            private ReaderRunnable(PipedOutputStream out){
+                this.out = out;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while(!Thread.currentThread().isInterrupted()){
+                        sleep(scanDelay);
+
+                        int scan = scans.getAndIncrement();
+                        String tag = getTag(scan);
+                        String cachedTag = lastTag;
+                        if(cachedFirstValue && cachedTag != null){
+                            if(!send(scan, cachedTag)) return;
+                        }
+                        for(int index = 0; index < burstSize; index++){
+                            if(index > 0) sleep(frameInterval);
+                            if(!send(scan, tag)) return;
+                        }
+                        lastTag = tag;
+                    }
+                }
+                catch (InterruptedException e){
+                    //the channel was closed
+                }
+                catch (IOException e){
+                    if(!Thread.currentThread().isInterrupted()){
+                        Log.w(TAG, "Simulated reader " + address + " could not send a frame");
+                    }
+                }
+            }
+
+            /**
+             * This method sends a single frame, unless the link drops first
+             *
+             * @return False if the link dropped
+             */
+            private boolean send(int scan, String tag) throws IOException {
+                if(happens(dropoutRate)){
+                    Log.i(TAG, "Simulating the link with " + address + " dropping");
+                    drop();
+                    return false;
+                }
+                out.write(buildFrame(scan, tag));
+                out.flush();//wakes up the other side of the pipe straight away
+                return true;
+            }
+
+            private void sleep(long delay) throws InterruptedException {
+                long jitteredDelay = jittered(delay);
+                if(jitteredDelay > 0) Thread.sleep(jitteredDelay);
+            }
+        }
+    }
+}
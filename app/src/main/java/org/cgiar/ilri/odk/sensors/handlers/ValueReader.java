@@ -0,0 +1,203 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+import org.cgiar.ilri.odk.sensors.types.Type;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class turns the frames read from a reader into values of the data type being read.
+ * It holds the reading used for a session so nothing is allocated per frame.
+ *
+ * The class does not depend on Android (apart from logging) so that the read pipeline can be run
+ *  against SimulatedReader on a plain JVM
+ */
+public class ValueReader {
+
+    private static final String TAG = "ODK Sensors ValueReader";
+    private static final long POLL_INTERVAL = 10;//milliseconds between checks for a frame once the timeout is running
+
+    private final Type type;
+    private final Reading reading;
+    private byte[] confirmedFrame;
+    private boolean timedOut;
+
+    /**
+     * The constructor
+     *
+     * @param type The data type being read. If null, frames are passed on as they are
+     */
+    public ValueReader(Type type){
+        this.type = type;
+        this.reading = new Reading();
+    }
+
+    /**
+     * This method decodes the current frame in the frame reader using the data type
+     *
+     * @param frameReader The frame reader holding the frame
+     *
+     * @return True if the decoded reading is a valid value for the data type
+     */
+    public boolean decode(FrameReader frameReader){
+        if(type != null){
+            type.decode(frameReader.getBuffer(), frameReader.getFrameStart(), frameReader.getFrameLength(), reading);
+            return type.isValid(reading);
+        }
+
+        reading.setAscii(frameReader.getBuffer(), frameReader.getFrameStart(), frameReader.getFrameLength());
+        return reading.length() > 0;
+    }
+
+    /**
+     * @return The last decoded reading
+     */
+    public Reading getReading() {
+        return reading;
+    }
+
+    /**
+     * This method reads frames until a value is confirmed by the provided strategy.
+     * Note that this method blocks the thread until enough frames are returned from the other side.
+     * The strategy's timeout starts when the first value is read (before that, the operator is still
+     *  scanning and only SessionWatchdog's first read deadline applies) and is checked on the clock,
+     *  so a reader that goes quiet after its first value is given up on as well as one that keeps
+     *  sending values that cannot be confirmed. A frame already being received when the timeout
+     *  expires is still bounded by SessionWatchdog's read deadline.
+     * No value is returned if the timeout expires, not even the value read most often, since that
+     *  could be a cached tag from the previous animal. Refer to isTimedOut.
+     * Values the device was not sure about (e.g weights read while the animal was moving) are never
+     *  confirmed
+     *
+     * @param frameReader   The session's frame reader
+     * @param strategy      Decides when a value is confirmed. Refer to ConfirmationStrategies
+     * @param listener      Told about every frame read and the first value in every round. Can be null
+     *
+     * @return The confirmed value or null if the timeout expired or the stream ended first
+     *
+     * @throws IOException If the stream broke while being read
+     */
+    public String readConfirmedValue(FrameReader frameReader, ConfirmationStrategy strategy, Listener listener) throws IOException {
+        strategy.reset();
+        timedOut = false;
+        long timeout = strategy.getTimeout();
+        long deadline = 0;//set once the first value is read
+
+        //do until the strategy confirms one of the values gotten from the input stream
+        while(true){
+            if(deadline > 0 && !awaitFrame(frameReader, deadline)){
+                Log.w(TAG, "No value confirmed by " + strategy.getName() + " within " + timeout + "ms of the first value");
+                timedOut = true;
+                return null;
+            }
+
+            if(frameReader.readFrame() < 0) return null;//this line of code blocks the thread until something is returned
+            if(listener != null) listener.onFrameRead();
+            long now = now();
+            if(decode(frameReader)){
+                if(deadline == 0 && timeout > 0) deadline = now + timeout;
+
+                int result = strategy.offer(reading, now);
+                if(result == ConfirmationStrategy.FIRST){
+                    if(listener != null) listener.onFirstValue(reading.toString());
+                }
+                else if(result == ConfirmationStrategy.CONFIRMED){
+                    confirmedFrame = copyFrame(frameReader);
+                    return strategy.getConfirmed().toString();
+                }
+                else if(result == ConfirmationStrategy.UNSURE){
+                    Log.d(TAG, "Ignoring " + reading + " since the device was not sure about it");
+                }
+            }
+            else {
+                Log.d(TAG, "Ignoring frame that is not a valid value");
+            }
+        }
+    }
+
+    /**
+     * @return True if the last call to readConfirmedValue returned no value because the strategy's
+     *          timeout expired. The session itself is still healthy in that case
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * This method waits for the reader to send something without blocking on the stream, so that the
+     *  wait can be stopped at the deadline
+     *
+     * @param frameReader   The session's frame reader
+     * @param deadline      When to stop waiting, in milliseconds from now()
+     *
+     * @return False if nothing was sent before the deadline
+     *
+     * @throws IOException If the stream broke or the thread was interrupted while waiting
+     */
+    private static boolean awaitFrame(FrameReader frameReader, long deadline) throws IOException {
+        while(!frameReader.ready()){
+            if(now() >= deadline) return false;
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a frame");
+            }
+        }
+        return now() < deadline;
+    }
+
+    /**
+     * @return The raw bytes of the frame that confirmed the last value returned by readConfirmedValue
+     */
+    public byte[] getConfirmedFrame() {
+        return confirmedFrame;
+    }
+
+    /**
+     * This method copies the current frame in the frame reader. Only done once per value so nothing
+     *  is allocated per frame
+     *
+     * @param frameReader The frame reader
+     *
+     * @return The frame's bytes
+     */
+    public static byte[] copyFrame(FrameReader frameReader){
+        return Arrays.copyOfRange(frameReader.getBuffer(), frameReader.getFrameStart(), frameReader.getFrameStart() + frameReader.getFrameLength());
+    }
+
+    private static long now(){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * This interface describes a listener for the progress of reading a value
+     */
+    public interface Listener {
+        void onFrameRead();
+        void onFirstValue(String value);
+    }
+}
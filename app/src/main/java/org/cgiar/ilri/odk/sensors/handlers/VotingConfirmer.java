@@ -0,0 +1,129 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+
+/**
+ * This class confirms a value once it has been read at least `votes` times among the last `window`
+ *  values read within `windowTime` milliseconds.
+ * Unlike PairConfirmer, a cached value sent first by the reader only costs one extra value (it is
+ *  simply outvoted) and a noisy reader that alternates values cannot keep the confirmation waiting
+ *  forever since the values do not have to be consecutive.
+ * If the timeout expires no value is used, not even the one with the most votes, since a single
+ *  vote may be the cached tag of the previous animal
+ */
+public class VotingConfirmer extends ConfirmationStrategy {
+
+    public static final String KEY = "vote";
+
+    private final int votes;
+    private final long windowTime;
+    private final Reading[] values;//The last values offered, used as a ring
+    private final long[] times;//When every value was offered
+    private final Reading confirmed;
+    private int next;//Where the next value goes in the ring
+    private int size;//How many values are in the ring
+
+    /**
+     * The constructor
+     *
+     * @param votes         How many times a value needs to be read to be confirmed
+     * @param window        How many of the last values are counted
+     * @param windowTime    Values older than this (in milliseconds) are not counted. 0 to count values of any age
+     */
+    public VotingConfirmer(int votes, int window, long windowTime){
+        if(votes < 1 || window < votes) throw new IllegalArgumentException("Cannot confirm " + votes + " votes out of " + window);
+
+        this.votes = votes;
+        this.windowTime = windowTime;
+        this.values = new Reading[window];
+        for(int index = 0; index < window; index++){
+            values[index] = new Reading();
+        }
+        this.times = new long[window];
+        this.confirmed = new Reading();
+        this.next = 0;
+        this.size = 0;
+    }
+
+    @Override
+    public int offer(Reading reading, long now) {
+        if(!isConfident(reading)) return UNSURE;//doesn't get a vote
+
+        expire(now);
+        boolean first = size == 0;
+
+        values[next].copyFrom(reading);
+        times[next] = now;
+        int offered = next;
+        next = (next + 1) % values.length;
+        if(size < values.length) size++;
+
+        if(countVotes(values[offered]) >= votes){
+            confirmed.copyFrom(reading);
+            size = 0;//start a new round for the next value
+            return CONFIRMED;
+        }
+        return first ? FIRST : PENDING;
+    }
+
+    @Override
+    public Reading getConfirmed() {
+        return confirmed;
+    }
+
+    @Override
+    public void reset() {
+        size = 0;
+    }
+
+    @Override
+    public String getName() {
+        return KEY;
+    }
+
+    /**
+     * This method removes the values that are older than windowTime from the ring
+     *
+     * @param now The current time in milliseconds
+     */
+    private void expire(long now){
+        if(windowTime <= 0) return;
+        while(size > 0 && now - times[index(size - 1)] > windowTime){//the oldest value is at age size - 1
+            size--;
+        }
+    }
+
+    private int countVotes(Reading value){
+        int count = 0;
+        for(int age = 0; age < size; age++){
+            if(values[index(age)].contentEquals(value)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param age 0 for the most recent value, 1 for the one before it etc
+     *
+     * @return Where the value is in the ring
+     */
+    private int index(int age){
+        return (next - 1 - age + 2 * values.length) % values.length;
+    }
+}
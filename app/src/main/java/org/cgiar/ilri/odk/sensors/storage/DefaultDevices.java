@@ -0,0 +1,68 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import org.cgiar.ilri.odk.sensors.handlers.BluetoothHandler;
+import org.cgiar.ilri.odk.sensors.types.RFID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class holds the devices set in the settings as the default devices for every data type.
+ * Every data type has its own ordered list of devices. The first device is connected to directly
+ *  and the next ones are tried, in order, if it can't be connected to
+ */
+public class DefaultDevices {
+
+    private static final String SEPARATOR = ",";
+
+    /**
+     * This method returns the default devices for a data type
+     *
+     * @param context   Any context in the app
+     * @param dataType  The data type's key e.g rfid
+     *
+     * @return The MAC addresses of the default devices, in the order they should be tried. Empty if none is set
+     */
+    public static List<String> getAddresses(Context context, String dataType){
+        String addresses = SharedPreferenceManager.getSharedPreference(context, SharedPreferenceManager.SP_DEFAULT_BT_DEVICE_ADDRESSES + dataType, null);
+        if(addresses == null && RFID.KEY.equals(dataType)){//set before there was a default for every data type
+            String address = SharedPreferenceManager.getSharedPreference(context, SharedPreferenceManager.SP_DEFAULT_BT_RFID_DEVICE_ADDRESS, BluetoothHandler.DEFAULT_BT_MAC_ADDRESS);
+            if(!address.equals(BluetoothHandler.DEFAULT_BT_MAC_ADDRESS)) addresses = address;
+        }
+
+        if(addresses == null || addresses.length() == 0) return new ArrayList<String>();
+        return new ArrayList<String>(Arrays.asList(addresses.split(SEPARATOR)));
+    }
+
+    /**
+     * This method sets the default devices for a data type
+     *
+     * @param context   Any context in the app
+     * @param dataType  The data type's key e.g rfid
+     * @param addresses The MAC addresses of the devices, in the order they should be tried. Empty to unset the default devices
+     */
+    public static void setAddresses(Context context, String dataType, List<String> addresses){
+        SharedPreferenceManager.setSharedPreference(context, SharedPreferenceManager.SP_DEFAULT_BT_DEVICE_ADDRESSES + dataType, TextUtils.join(SEPARATOR, addresses));
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.handlers.SessionWatchdog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps a profile for every reader that has been connected to i.e what it is and reads, how to
+ *  connect to it, how to read from it and how well it has performed in past sessions.
+ * The profiles are read once, when the store is created, and kept in memory afterwards so that
+ *  nothing on the connection and reading path waits for the disk. Changes are written in the
+ *  background, every change made within WRITE_DELAY being written together.
+ *
+ * Profiles are stored in their own shared preferences file with one typed value per field, keyed
+ *  by "MAC address|field". The confirmation strategy and timeouts are set in the app's settings,
+ *  everything else is filled in as the reader is used
+ */
+public class DeviceProfileStore {
+
+    private static final String TAG = "DeviceProfileStore";
+    private static final String PREFERENCES_NAME = "deviceProfiles";
+    private static final String KEY_SEPARATOR = "|";
+    private static final String FIELD_MODEL = "model";
+    private static final String FIELD_DATA_TYPE = "dataType";
+    private static final String FIELD_UUID = "uuid";
+    private static final String FIELD_CONFIRMATION = "confirmation";
+    private static final String FIELD_FIRST_READ_TIMEOUT = "firstReadTimeout";
+    private static final String FIELD_READ_TIMEOUT = "readTimeout";
+    private static final String FIELD_LAST_SUCCESS = "lastSuccess";
+    private static final String FIELD_SUCCESSES = "successes";
+    private static final String FIELD_FAILURES = "failures";
+    private static final String FIELD_SUCCESS_RATE = "successRate";
+    private static final long WRITE_DELAY = 1000;//milliseconds
+    private static final double MIN_SUCCESS_RATE = 0.5;//readers that recently failed more often than this are not connected to directly
+    private static final float RATE_WEIGHT = 0.25f;//weight of the latest session in the success rate. A reader recovers, or falls below MIN_SUCCESS_RATE, within 3 sessions
+
+    /*
+    The Serial Port Profile UUID. This is the service used by all the readers we have tested so it is
+    preferred over any other service the device advertises
+     */
+    public static final UUID SERIAL_PORT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private static DeviceProfileStore instance;
+
+    private final SharedPreferences preferences;
+    private final Map<String, Profile> profiles;
+    private final Set<String> dirtyAddresses;//profiles changed since the last write
+    private final ScheduledExecutorService writer;
+    private boolean writeScheduled;
+
+    private DeviceProfileStore(Context context){
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.profiles = new HashMap<String, Profile>();
+        this.dirtyAddresses = new HashSet<String>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DeviceProfileStore writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.writeScheduled = false;
+        load();
+    }
+
+    /**
+     * This method returns the only instance of the store in this process
+     *
+     * @param context Any context in the app
+     *
+     * @return The device profile store
+     */
+    public static synchronized DeviceProfileStore getInstance(Context context){
+        if(instance == null){
+            instance = new DeviceProfileStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * This method returns a copy of what is known about a reader
+     *
+     * @param address The reader's MAC address
+     *
+     * @return The reader's profile or null if the reader has never been used
+     */
+    public synchronized Profile getProfile(String address){
+        Profile profile = profiles.get(address);
+        if(profile == null) return null;
+        return new Profile(profile);
+    }
+
+    /**
+     * This method records a session in which the reader delivered a value
+     *
+     * @param address   The reader's MAC address
+     * @param model     The name the reader advertises. Null if not known
+     * @param uuid      The service UUID used to connect. Null if an open session was reused
+     * @param dataType  The key of the data type read from the reader e.g rfid. Null if not known
+     */
+    public synchronized void recordSuccess(String address, String model, UUID uuid, String dataType){
+        Profile profile = getOrCreateProfile(address);
+        profile.successes++;
+        profile.recordOutcome(1);
+        profile.lastSuccess = System.currentTimeMillis();
+        if(model != null) profile.model = model;
+        if(dataType != null) profile.dataType = dataType;
+        if(uuid != null) profile.uuid = uuid;
+        onChanged(address);
+    }
+
+    /**
+     * This method records a session in which the reader could not be connected to or did not deliver a value
+     *
+     * @param address The reader's MAC address
+     */
+    public synchronized void recordFailure(String address){
+        Profile profile = getOrCreateProfile(address);
+        profile.failures++;
+        profile.recordOutcome(0);
+        onChanged(address);
+    }
+
+    /**
+     * This method returns the UUID to use when connecting to the device
+     *
+     * @param address The device's MAC address
+     *
+     * @return The UUID that last worked or null if none is known for the device
+     */
+    public synchronized UUID getUuid(String address){
+        Profile profile = profiles.get(address);
+        return profile != null ? profile.uuid : null;
+    }
+
+    /**
+     * This method updates the device's UUID with the UUIDs freshly fetched from the device using SDP.
+     * The UUID is only replaced if the device no longer advertises it
+     *
+     * @param address   The device's MAC address
+     * @param fetched   The UUIDs advertised by the device
+     */
+    public synchronized void onServiceRecordsFetched(String address, UUID[] fetched){
+        if(fetched == null || fetched.length == 0) return;
+
+        Profile profile = getOrCreateProfile(address);
+        for(UUID currUuid : fetched){
+            if(currUuid.equals(profile.uuid)) return;
+        }
+
+        profile.uuid = choose(fetched);
+        Log.i(TAG, "Service records for " + address + " changed. Now using " + profile.uuid);
+        onChanged(address);
+    }
+
+    /**
+     * This method picks the UUID to use out of the ones advertised by a device
+     *
+     * @param advertised The UUIDs advertised by the device
+     *
+     * @return The serial port UUID if advertised, otherwise the first UUID
+     */
+    public static UUID choose(UUID[] advertised){
+        for(UUID currUuid : advertised){
+            if(SERIAL_PORT_UUID.equals(currUuid)) return currUuid;
+        }
+        return advertised[0];
+    }
+
+    /**
+     * @param address The reader's MAC address
+     *
+     * @return The name the reader last advertised, or null if not known. Used when the bluetooth stack has not cached the name
+     */
+    public synchronized String getModel(String address){
+        Profile profile = profiles.get(address);
+        return profile != null ? profile.model : null;
+    }
+
+    /**
+     * @param address The reader's MAC address
+     *
+     * @return The key of the confirmation strategy set for the reader or null to pick one using the reader's model
+     */
+    public synchronized String getConfirmation(String address){
+        Profile profile = profiles.get(address);
+        return profile != null ? profile.confirmation : null;
+    }
+
+    /**
+     * This method sets the confirmation strategy to use with a reader, e.g for a reader whose model
+     *  does not tell whether it sends a cached value first
+     *
+     * @param address       The reader's MAC address
+     * @param confirmation  The key of the strategy or null to pick one using the reader's model
+     */
+    public synchronized void setConfirmation(String address, String confirmation){
+        getOrCreateProfile(address).confirmation = confirmation;
+        onChanged(address);
+    }
+
+    /**
+     * This method sets how long the watchdog waits for the reader. Refer to SessionWatchdog.Policy
+     *
+     * @param address           The reader's MAC address
+     * @param firstReadTimeout  Milliseconds allowed before the first frame. 0 to use the default
+     * @param readTimeout       Milliseconds allowed between frames. 0 to use the default
+     */
+    public synchronized void setTimeouts(String address, long firstReadTimeout, long readTimeout){
+        Profile profile = getOrCreateProfile(address);
+        profile.firstReadTimeout = firstReadTimeout;
+        profile.readTimeout = readTimeout;
+        onChanged(address);
+    }
+
+    /**
+     * This method returns the deadlines to use when reading from the reader.
+     * The session timeout is stretched by however much longer than the default the reader's first
+     *  read timeout is, so that the operator gets all of it
+     *
+     * @param address       The reader's MAC address
+     * @param defaultPolicy The deadlines used for readers without timeouts of their own
+     *
+     * @return The default policy with the reader's timeouts, if it has any
+     */
+    public synchronized SessionWatchdog.Policy getWatchdogPolicy(String address, SessionWatchdog.Policy defaultPolicy){
+        Profile profile = profiles.get(address);
+        if(profile == null || (profile.firstReadTimeout == 0 && profile.readTimeout == 0)) return defaultPolicy;
+
+        long firstReadTimeout = profile.firstReadTimeout > 0 ? profile.firstReadTimeout : defaultPolicy.firstReadTimeout;
+        return new SessionWatchdog.Policy(
+                firstReadTimeout,
+                profile.readTimeout > 0 ? profile.readTimeout : defaultPolicy.readTimeout,
+                defaultPolicy.sessionTimeout + Math.max(0, firstReadTimeout - defaultPolicy.firstReadTimeout));
+    }
+
+    /**
+     * This method determines which of the provided readers should be connected to directly.
+     * This is the reader that last delivered a value of the data type, as long as it has not been failing
+     *  too often lately
+     *
+     * @param addresses The MAC addresses of the candidate readers e.g the paired devices
+     * @param dataType  The key of the data type to be read e.g weight, so that a scale is not picked for a tag. Null for any data type
+     *
+     * @return The MAC address of the last known good reader or null if none of the candidates qualifies
+     */
+    public synchronized String getLastKnownGoodReader(Collection<String> addresses, String dataType){
+        Profile best = null;
+        for(String currAddress : addresses){
+            Profile currProfile = profiles.get(currAddress);
+            if(currProfile != null && currProfile.lastSuccess > 0 && currProfile.getSuccessRate() >= MIN_SUCCESS_RATE
+                    && (dataType == null || currProfile.dataType == null || dataType.equals(currProfile.dataType))){
+                if(best == null || currProfile.lastSuccess > best.lastSuccess){
+                    best = currProfile;
+                }
+            }
+        }
+        if(best != null) return best.address;
+        return null;
+    }
+
+    /**
+     * This method orders the provided readers starting with the one that most recently delivered a value
+     *
+     * @param addresses The MAC addresses of the readers
+     *
+     * @return The ordered MAC addresses
+     */
+    public synchronized List<String> orderByLastSuccess(Collection<String> addresses){
+        final Map<String, Long> lastSuccesses = new HashMap<String, Long>();
+        for(String currAddress : addresses){
+            Profile currProfile = profiles.get(currAddress);
+            lastSuccesses.put(currAddress, currProfile != null ? currProfile.lastSuccess : 0);
+        }
+
+        List<String> orderedAddresses = new ArrayList<String>(addresses);
+        Collections.sort(orderedAddresses, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                long lhsLastSuccess = lastSuccesses.get(lhs);
+                long rhsLastSuccess = lastSuccesses.get(rhs);
+                if(lhsLastSuccess == rhsLastSuccess) return 0;
+                return lhsLastSuccess > rhsLastSuccess ? -1 : 1;
+            }
+        });
+        return orderedAddresses;
+    }
+
+    private Profile getOrCreateProfile(String address){
+        Profile profile = profiles.get(address);
+        if(profile == null){
+            profile = new Profile(address);
+            profiles.put(address, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * This method marks a profile as changed and schedules a write, unless one is already scheduled
+     *
+     * @param address The reader's MAC address
+     */
+    private void onChanged(String address){
+        dirtyAddresses.add(address);
+        if(writeScheduled) return;
+
+        writeScheduled = true;
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method writes the changed profiles. Runs on the writer thread
+     */
+    private void write(){
+        List<Profile> changed = new ArrayList<Profile>();
+        synchronized (this){
+            for(String currAddress : dirtyAddresses){
+                changed.add(new Profile(profiles.get(currAddress)));
+            }
+            dirtyAddresses.clear();
+            writeScheduled = false;
+        }
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for(Profile currProfile : changed){
+            putString(editor, currProfile.address, FIELD_MODEL, currProfile.model);
+            putString(editor, currProfile.address, FIELD_DATA_TYPE, currProfile.dataType);
+            putString(editor, currProfile.address, FIELD_UUID, currProfile.uuid != null ? currProfile.uuid.toString() : null);
+            putString(editor, currProfile.address, FIELD_CONFIRMATION, currProfile.confirmation);
+            editor.putLong(getKey(currProfile.address, FIELD_FIRST_READ_TIMEOUT), currProfile.firstReadTimeout);
+            editor.putLong(getKey(currProfile.address, FIELD_READ_TIMEOUT), currProfile.readTimeout);
+            editor.putLong(getKey(currProfile.address, FIELD_LAST_SUCCESS), currProfile.lastSuccess);
+            editor.putInt(getKey(currProfile.address, FIELD_SUCCESSES), currProfile.successes);
+            editor.putInt(getKey(currProfile.address, FIELD_FAILURES), currProfile.failures);
+            editor.putFloat(getKey(currProfile.address, FIELD_SUCCESS_RATE), currProfile.successRate);
+        }
+        if(!editor.commit()){//already off the UI thread so no need for apply
+            Log.e(TAG, "Unable to write " + changed.size() + " device profiles");
+        }
+    }
+
+    private static void putString(SharedPreferences.Editor editor, String address, String field, String value){
+        if(value != null) editor.putString(getKey(address, field), value);
+        else editor.remove(getKey(address, field));
+    }
+
+    private static String getKey(String address, String field){
+        return address + KEY_SEPARATOR + field;
+    }
+
+    private void load(){
+        for(Map.Entry<String, ?> currEntry : preferences.getAll().entrySet()){
+            String key = currEntry.getKey();
+            int separator = key.lastIndexOf(KEY_SEPARATOR);
+            if(separator <= 0) continue;
+
+            Profile profile = getOrCreateProfile(key.substring(0, separator));
+            String field = key.substring(separator + 1);
+            Object value = currEntry.getValue();
+            try {
+                if(FIELD_MODEL.equals(field)) profile.model = (String) value;
+                else if(FIELD_DATA_TYPE.equals(field)) profile.dataType = (String) value;
+                else if(FIELD_UUID.equals(field)) profile.uuid = UUID.fromString((String) value);
+                else if(FIELD_CONFIRMATION.equals(field)) profile.confirmation = (String) value;
+                else if(FIELD_FIRST_READ_TIMEOUT.equals(field)) profile.firstReadTimeout = (Long) value;
+                else if(FIELD_READ_TIMEOUT.equals(field)) profile.readTimeout = (Long) value;
+                else if(FIELD_LAST_SUCCESS.equals(field)) profile.lastSuccess = (Long) value;
+                else if(FIELD_SUCCESSES.equals(field)) profile.successes = (Integer) value;
+                else if(FIELD_FAILURES.equals(field)) profile.failures = (Integer) value;
+                else if(FIELD_SUCCESS_RATE.equals(field)) profile.successRate = (Float) value;
+            }
+            catch (ClassCastException e){
+                Log.w(TAG, "Ignoring malformed device profile field " + key);
+            }
+            catch (IllegalArgumentException e){
+                Log.w(TAG, "Ignoring malformed device profile field " + key);
+            }
+        }
+        for(Profile currProfile : profiles.values()){
+            int sessions = currProfile.successes + currProfile.failures;
+            if(currProfile.successRate < 0 && sessions > 0){//saved before the success rate was kept
+                currProfile.successRate = (float) currProfile.successes / sessions;
+            }
+        }
+        Log.i(TAG, "Loaded " + profiles.size() + " device profiles");
+    }
+
+    /**
+     * This class holds what is known about a single reader
+     */
+    public static class Profile {
+        private final String address;
+        private String model;//the name the reader advertises
+        private String dataType;//the key of the data type last read from the reader
+        private UUID uuid;//the service UUID that last worked
+        private String confirmation;//the key of the confirmation strategy. Null to pick one using the model
+        private long firstReadTimeout;//0 to use the watchdog's default
+        private long readTimeout;//0 to use the watchdog's default
+        private long lastSuccess;
+        private int successes;
+        private int failures;
+        private float successRate;//decayed so that recent sessions count the most. Negative before the first session
+
+        private Profile(String address){
+            this.address = address;
+            this.successRate = -1;
+        }
+
+        private Profile(Profile other){
+            this.address = other.address;
+            this.model = other.model;
+            this.dataType = other.dataType;
+            this.uuid = other.uuid;
+            this.confirmation = other.confirmation;
+            this.firstReadTimeout = other.firstReadTimeout;
+            this.readTimeout = other.readTimeout;
+            this.lastSuccess = other.lastSuccess;
+            this.successes = other.successes;
+            this.failures = other.failures;
+            this.successRate = other.successRate;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getDataType() {
+            return dataType;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public String getConfirmation() {
+            return confirmation;
+        }
+
+        public long getFirstReadTimeout() {
+            return firstReadTimeout;
+        }
+
+        public long getReadTimeout() {
+            return readTimeout;
+        }
+
+        public long getLastSuccess() {
+            return lastSuccess;
+        }
+
+        public int getSuccesses() {
+            return successes;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The fraction of recent sessions with the reader that delivered a value. Every session
+         *          weighs (1 - RATE_WEIGHT) times less than the one after it
+         */
+        public double getSuccessRate(){
+            return successRate < 0 ? 0 : successRate;
+        }
+
+        /**
+         * @param outcome 1 if the session delivered a value, otherwise 0
+         */
+        private void recordOutcome(float outcome){
+            if(successRate < 0) successRate = outcome;
+            else successRate += RATE_WEIGHT * (outcome - successRate);
+        }
+    }
+}
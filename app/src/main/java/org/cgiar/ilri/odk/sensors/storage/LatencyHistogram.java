@@ -0,0 +1,148 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class counts durations in buckets that grow by 25% from one bucket to the next, from 1ms up
+ *  to 2 minutes. Percentiles are therefore accurate to within 25%, which is plenty for telling
+ *  where a slow scan spent its time, while the histogram stays small enough to be persisted as a string
+ */
+public class LatencyHistogram {
+
+    private static final double GROWTH = 1.25;
+    private static final long MAX_BOUND = 120000;//durations longer than this are counted in the last bucket
+    private static final long[] BOUNDS = createBounds();//the upper bound (inclusive) of every bucket in milliseconds
+
+    private final long[] counts;
+    private long total;
+    private long max;
+
+    public LatencyHistogram(){
+        counts = new long[BOUNDS.length];
+        total = 0;
+        max = 0;
+    }
+
+    private static long[] createBounds(){
+        List<Long> bounds = new ArrayList<Long>();
+        double bound = 1;
+        while(true){
+            long rounded = Math.round(bound);
+            if(bounds.isEmpty() || rounded > bounds.get(bounds.size() - 1)) bounds.add(Math.min(rounded, MAX_BOUND));
+            if(rounded >= MAX_BOUND) break;
+            bound *= GROWTH;
+        }
+        bounds.add(Long.MAX_VALUE);
+
+        long[] array = new long[bounds.size()];
+        for(int index = 0; index < array.length; index++){
+            array[index] = bounds.get(index);
+        }
+        return array;
+    }
+
+    /**
+     * This method adds a duration to the histogram
+     *
+     * @param duration The duration in milliseconds
+     */
+    public synchronized void record(long duration){
+        if(duration < 0) return;
+
+        int low = 0;
+        int high = BOUNDS.length - 1;
+        while(low < high){//the first bucket whose bound is not smaller than the duration
+            int middle = (low + high) >>> 1;
+            if(BOUNDS[middle] < duration) low = middle + 1;
+            else high = middle;
+        }
+        counts[low]++;
+        total++;
+        if(duration > max) max = duration;
+    }
+
+    public synchronized long getCount() {
+        return total;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * This method returns the duration below which the provided fraction of the recorded durations fall
+     *
+     * @param percentile The percentile e.g 0.95 for p95
+     *
+     * @return The upper bound of the bucket holding the percentile in milliseconds or -1 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile){
+        if(total == 0) return -1;
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for(int index = 0; index < counts.length; index++){
+            seen += counts[index];
+            if(seen >= Math.max(rank, 1)){
+                return Math.min(BOUNDS[index], max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * This method converts the histogram into a string that can be persisted
+     *
+     * @return The maximum followed by the count in every bucket, separated by commas
+     */
+    public synchronized String serialize(){
+        StringBuilder serialized = new StringBuilder();
+        serialized.append(max);
+        for(long currCount : counts){
+            serialized.append(',').append(currCount);
+        }
+        return serialized.toString();
+    }
+
+    /**
+     * This method recreates a histogram from a string created using serialize
+     *
+     * @param serialized The serialized histogram
+     *
+     * @return The histogram
+     *
+     * @throws NumberFormatException If the string is not a serialized histogram
+     */
+    public static LatencyHistogram deserialize(String serialized){
+        String[] fields = serialized.split(",");
+        if(fields.length != BOUNDS.length + 1){
+            throw new NumberFormatException("Expected " + (BOUNDS.length + 1) + " fields but found " + fields.length);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.max = Long.parseLong(fields[0]);
+        for(int index = 0; index < BOUNDS.length; index++){
+            histogram.counts[index] = Long.parseLong(fields[index + 1]);
+            histogram.total += histogram.counts[index];
+        }
+        return histogram;
+    }
+}
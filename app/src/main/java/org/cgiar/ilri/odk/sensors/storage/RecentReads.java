@@ -0,0 +1,181 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class remembers the values most recently returned to ODK so that the same tag being returned
+ *  twice within a short time (e.g because the reader was held against the same ear tag for two scans)
+ *  can be caught.
+ * At most MAX_ENTRIES values are remembered. Checking a value takes constant time and recording one
+ *  only saves the values to the shared preferences in the background, so neither delays the result.
+ * The values are read from the shared preferences once and kept in memory afterwards
+ */
+public class RecentReads {
+
+    private static final String TAG = "RecentReads";
+    private static final String RECORD_SEPARATOR = ";";
+    private static final String FIELD_SEPARATOR = ",";
+    private static final int MAX_ENTRIES = 256;//the longest window is minutes long, far fewer tags are scanned in that time
+
+    public static final String ACTION_FLAG = "flag";//return the value, marked as a duplicate
+    public static final String ACTION_REJECT = "reject";//do not return the value
+    public static final long DEFAULT_WINDOW = 0;//seconds. Duplicates are not checked by default
+
+    private static RecentReads instance;
+
+    private final Context context;
+    private final LinkedHashMap<String, Long> lastReads;//when each value was last returned, the oldest first
+    private final ExecutorService saver;
+    private final AtomicBoolean savePending;
+
+    private RecentReads(Context context){
+        this.context = context.getApplicationContext();
+        this.lastReads = new LinkedHashMap<String, Long>(MAX_ENTRIES * 2){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RecentReads saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.savePending = new AtomicBoolean(false);
+        load();
+    }
+
+    /**
+     * This method returns the only instance of the recent reads in this process
+     *
+     * @param context Any context in the app
+     *
+     * @return The recent reads
+     */
+    public static synchronized RecentReads getInstance(Context context){
+        if(instance == null){
+            instance = new RecentReads(context);
+        }
+        return instance;
+    }
+
+    /**
+     * This method returns how long ago a value was last returned
+     *
+     * @param value The value e.g a tag number
+     * @param now   The current time in milliseconds
+     *
+     * @return The milliseconds since the value was last returned or -1 if it has not been returned recently
+     */
+    public synchronized long getAge(String value, long now){
+        Long lastRead = lastReads.get(value);
+        if(lastRead == null || lastRead > now) return -1;//the clock was set back, the age is unknown
+        return now - lastRead;
+    }
+
+    /**
+     * This method checks whether a value was already returned within the window
+     *
+     * @param value     The value e.g a tag number
+     * @param window    The window in milliseconds
+     * @param now       The current time in milliseconds
+     *
+     * @return True if the value was returned less than window milliseconds ago
+     */
+    public boolean isDuplicate(String value, long window, long now){
+        if(window <= 0) return false;
+        long age = getAge(value, now);
+        return age >= 0 && age < window;
+    }
+
+    /**
+     * This method records that a value was just returned
+     *
+     * @param value The value e.g a tag number
+     * @param now   The current time in milliseconds
+     */
+    public synchronized void record(String value, long now){
+        lastReads.remove(value);//so that the value moves to the end of the eviction order
+        lastReads.put(value, now);
+        scheduleSave();
+    }
+
+    /**
+     * This method forgets all the recent values
+     */
+    public synchronized void clear(){
+        lastReads.clear();
+        scheduleSave();
+    }
+
+    /**
+     * This method saves the values in the background. Values recorded while a save is pending are
+     *  saved together
+     */
+    private void scheduleSave(){
+        if(savePending.compareAndSet(false, true)){
+            saver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    savePending.set(false);
+                    save();
+                }
+            });
+        }
+    }
+
+    private void load(){
+        String serialized = SharedPreferenceManager.getSharedPreference(context, SharedPreferenceManager.SP_RECENT_READS, "");
+        for(String currRecord : serialized.split(RECORD_SEPARATOR)){
+            String[] fields = currRecord.split(FIELD_SEPARATOR);
+            if(fields.length == 2){
+                try {
+                    lastReads.put(fields[0], Long.parseLong(fields[1]));
+                }
+                catch (NumberFormatException e){
+                    Log.w(TAG, "Ignoring malformed recent read " + currRecord);
+                }
+            }
+        }
+    }
+
+    private void save(){
+        StringBuilder serialized = new StringBuilder();
+        synchronized (this){
+            for(Map.Entry<String, Long> currEntry : lastReads.entrySet()){
+                if(currEntry.getKey().contains(RECORD_SEPARATOR) || currEntry.getKey().contains(FIELD_SEPARATOR)) continue;
+                if(serialized.length() > 0) serialized.append(RECORD_SEPARATOR);
+                serialized.append(currEntry.getKey()).append(FIELD_SEPARATOR).append(currEntry.getValue());
+            }
+        }
+        SharedPreferenceManager.setSharedPreference(context, SharedPreferenceManager.SP_RECENT_READS, serialized.toString());
+    }
+}
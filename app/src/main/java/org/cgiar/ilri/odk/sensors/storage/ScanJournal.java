@@ -0,0 +1,499 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps an append-only journal of every value read from a device, independent of what
+ *  ODK Collect does with the value, so that reads can be audited and recovered.
+ *
+ * The journal is a series of binary segment files in the app's private storage. Every segment starts
+ *  with MAGIC and holds records made of the payload's length, the payload and the payload's CRC32.
+ *  A record that was only partly written (e.g the app was killed) fails the length or CRC check and
+ *  ends the segment.
+ * Segments are rotated once they reach SEGMENT_SIZE and only the last MAX_SEGMENTS are kept.
+ *
+ * Appending only queues the entry. Entries are written by the journal's own thread which syncs the
+ *  file to disk once per batch of queued entries, so appending never blocks the calling thread.
+ *  A batch that fails to be written is written again to a new segment, up to MAX_WRITE_ATTEMPTS times,
+ *  so an entry can appear twice in the journal. Entries that are given up on are counted and logged
+ */
+public class ScanJournal {
+
+    private static final String TAG = "ScanJournal";
+    private static final String DIRECTORY = "journal";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final int MAGIC = 0x4F534A31;//"OSJ1"
+    private static final byte VERSION = 1;
+    private static final long SEGMENT_SIZE = 256 * 1024;//bytes. About 2500 entries
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MAX_BATCH = 64;//entries written before syncing
+    private static final int MAX_RAW_LENGTH = 1024;//longer raw frames are truncated
+    private static final int MAX_PENDING = 10000;//entries waiting to be written. Entries are dropped (and logged) past this
+    private static final int MAX_WRITE_ATTEMPTS = 3;//per batch
+    private static final long RETRY_DELAY = 1000;//milliseconds, multiplied by the number of failed attempts
+
+    private static ScanJournal instance;
+
+    private final File directory;
+    private final BlockingQueue<Entry> pending;
+    private final Thread writerThread;
+    private final AtomicLong dropped;
+
+    private ScanJournal(Context context){
+        this.directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+        this.pending = new LinkedBlockingQueue<Entry>(MAX_PENDING);
+        this.dropped = new AtomicLong(0);
+        this.writerThread = new Thread(new JournalWriter(), "ScanJournal writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.setPriority(Thread.MIN_PRIORITY);
+        this.writerThread.start();
+    }
+
+    /**
+     * This method returns the only instance of the journal in this process
+     *
+     * @param context Any context in the app
+     *
+     * @return The scan journal
+     */
+    public static synchronized ScanJournal getInstance(Context context){
+        if(instance == null){
+            instance = new ScanJournal(context);
+        }
+        return instance;
+    }
+
+    /**
+     * This method queues an entry to be written to the journal. It returns immediately
+     *
+     * @param entry The entry
+     */
+    public void append(Entry entry){
+        if(!pending.offer(entry)){
+            Log.e(TAG, "Journal is " + MAX_PENDING + " entries behind. Dropping read of " + entry.getValue() + ". "
+                    + dropped.incrementAndGet() + " entries dropped so far");
+        }
+    }
+
+    /**
+     * @return The number of entries that could not be written to the journal since the app started
+     */
+    public long getDroppedCount(){
+        return dropped.get();
+    }
+
+    /**
+     * This method reads entries from the journal, most recent first.
+     * Note that this method reads files and should not be called from the UI thread
+     *
+     * @param filter    Only entries whose value or device address contain this are returned. Null for all entries
+     * @param limit     The maximum number of entries returned
+     *
+     * @return The entries
+     */
+    public List<Entry> query(String filter, int limit){
+        List<Entry> entries = new ArrayList<Entry>();
+        List<File> segments = getSegments();
+        Collections.reverse(segments);
+        for(File currSegment : segments){
+            List<Entry> segmentEntries = readSegment(currSegment);
+            for(int index = segmentEntries.size() - 1; index >= 0; index--){
+                Entry currEntry = segmentEntries.get(index);
+                if(filter == null || currEntry.getValue().contains(filter) || currEntry.getAddress().contains(filter)){
+                    entries.add(currEntry);
+                    if(entries.size() >= limit) return entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * This method writes entries as CSV, one row per entry. Fields are quoted if they contain a comma,
+     *  quote or line break
+     *
+     * @param entries   The entries e.g from query
+     * @param writer    Where the CSV is written
+     *
+     * @throws IOException If the CSV could not be written
+     */
+    public static void exportAsCsv(List<Entry> entries, Writer writer) throws IOException {
+        writer.write("time,uptime,value,data_type,device,raw\n");
+        for(Entry currEntry : entries){
+            writer.write(currEntry.getTime() + "," + currEntry.getUptime() + "," + toCsvField(currEntry.getValue()) + ","
+                    + toCsvField(currEntry.getDataType()) + "," + toCsvField(currEntry.getAddress()) + "," + toHex(currEntry.getRaw()) + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * This method quotes a CSV field (doubling any quote in it) if it contains a comma, quote or line break
+     */
+    private static String toCsvField(String field){
+        if(field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1){
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte currByte : bytes){
+            hex.append(Character.forDigit((currByte >> 4) & 0xF, 16)).append(Character.forDigit(currByte & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return The segment files, oldest first
+     */
+    private List<File> getSegments(){
+        File[] files = directory.listFiles();
+        List<File> segments = new ArrayList<File>();
+        if(files == null) return segments;
+
+        for(File currFile : files){
+            if(getSequence(currFile) >= 0) segments.add(currFile);
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsSequence = getSequence(lhs);
+                long rhsSequence = getSequence(rhs);
+                if(lhsSequence == rhsSequence) return 0;
+                return lhsSequence < rhsSequence ? -1 : 1;
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * @return The segment's sequence number or -1 if the file is not a segment
+     */
+    private static long getSequence(File file){
+        String name = file.getName();
+        if(!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    private List<Entry> readSegment(File segment){
+        List<Entry> entries = new ArrayList<Entry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+            if(in.readInt() != MAGIC){
+                Log.w(TAG, segment.getName() + " is not a journal segment");
+                return entries;
+            }
+
+            CRC32 crc = new CRC32();
+            while(true){
+                int length = in.readInt();
+                if(length <= 0 || length > SEGMENT_SIZE) break;//partly written record
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if(in.readInt() != (int) crc.getValue()) break;//partly written record
+
+                entries.add(Entry.decode(payload));
+            }
+        }
+        catch (EOFException e){
+            //the end of the segment
+        }
+        catch (IOException e){
+            Log.e(TAG, "Unable to read journal segment " + segment.getName());
+        }
+        finally {
+            if(in != null){
+                try {
+                    in.close();
+                }
+                catch (IOException e){
+                    Log.w(TAG, "Unable to close journal segment " + segment.getName());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * This class writes the queued entries to the current segment
+     */
+    private class JournalWriter implements Runnable {
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        private final DataOutputStream payloadOut = new DataOutputStream(payload);
+        private final CRC32 crc = new CRC32();
+        private FileOutputStream segment;
+        private DataOutputStream segmentOut;
+        private long segmentSize;
+        private long sequence;
+
+        @Override
+        public void run() {
+            List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+            int attempts = 0;
+            while(true){
+                try {
+                    if(batch.isEmpty()){
+                        batch.add(pending.take());//blocks until there is something to write
+                        pending.drainTo(batch, MAX_BATCH - 1);
+                    }
+                    write(batch);
+                    batch.clear();
+                    attempts = 0;
+                }
+                catch (InterruptedException e){
+                    Log.w(TAG, "Journal writer interrupted. " + batch.size() + " entries not written");
+                    return;
+                }
+                catch (IOException e){
+                    attempts++;
+                    abandonSegment();//the batch is written again to a new segment
+                    if(attempts < MAX_WRITE_ATTEMPTS){
+                        Log.w(TAG, "Unable to write " + batch.size() + " entries to the journal. Trying again");
+                        if(!sleep(RETRY_DELAY * attempts)) return;
+                    }
+                    else {
+                        Log.e(TAG, "Unable to write " + batch.size() + " entries to the journal after " + attempts + " attempts. Dropping them. "
+                                + dropped.addAndGet(batch.size()) + " entries dropped so far");
+                        batch.clear();
+                        attempts = 0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return False if the writer was interrupted while sleeping
+         */
+        private boolean sleep(long duration){
+            try {
+                Thread.sleep(duration);
+                return true;
+            }
+            catch (InterruptedException e){
+                Log.w(TAG, "Journal writer interrupted");
+                return false;
+            }
+        }
+
+        private void write(List<Entry> batch) throws IOException {
+            for(Entry currEntry : batch){
+                payload.reset();
+                currEntry.encode(payloadOut);
+                payloadOut.flush();
+
+                int recordSize = payload.size() + 8;
+                if(segmentOut == null || segmentSize + recordSize > SEGMENT_SIZE){
+                    rotate();
+                }
+
+                crc.reset();
+                crc.update(payload.toByteArray());
+                segmentOut.writeInt(payload.size());
+                payload.writeTo(segmentOut);
+                segmentOut.writeInt((int) crc.getValue());
+                segmentSize += recordSize;
+            }
+
+            segmentOut.flush();
+            segment.getFD().sync();//once per batch
+        }
+
+        /**
+         * This method closes the current segment and starts a new one, deleting the oldest segments
+         *  if there are too many
+         */
+        private void rotate() throws IOException {
+            if(segmentOut != null){
+                segmentOut.flush();
+                segment.getFD().sync();
+            }
+            closeSegment();
+
+            if(!directory.exists() && !directory.mkdirs()){
+                throw new IOException("Unable to create the journal directory");
+            }
+
+            List<File> segments = getSegments();
+            if(sequence == 0 && !segments.isEmpty()){//first segment since the app started
+                sequence = getSequence(segments.get(segments.size() - 1));
+            }
+            sequence++;
+
+            while(segments.size() >= MAX_SEGMENTS){
+                File oldest = segments.remove(0);
+                if(!oldest.delete()) Log.w(TAG, "Unable to delete old journal segment " + oldest.getName());
+            }
+
+            segment = new FileOutputStream(new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX));
+            segmentOut = new DataOutputStream(new BufferedOutputStream(segment));
+            segmentOut.writeInt(MAGIC);
+            segmentSize = 4;
+        }
+
+        private void closeSegment(){
+            if(segmentOut != null){
+                try {
+                    segmentOut.close();
+                }
+                catch (IOException e){
+                    Log.w(TAG, "Unable to close journal segment");
+                }
+            }
+            segment = null;
+            segmentOut = null;
+        }
+
+        /**
+         * This method closes the current segment after a failed write without flushing the entries
+         *  still buffered, since the batch they belong to is written again
+         */
+        private void abandonSegment(){
+            if(segment != null){
+                try {
+                    segment.close();
+                }
+                catch (IOException e){
+                    Log.w(TAG, "Unable to close journal segment");
+                }
+            }
+            segment = null;
+            segmentOut = null;
+        }
+    }
+
+    /**
+     * This class holds a single value read from a device
+     */
+    public static class Entry {
+        private final long time;//wall clock time in milliseconds
+        private final long uptime;//milliseconds since the device booted. Unlike time, it cannot be changed by the user
+        private final String value;
+        private final String dataType;
+        private final String address;
+        private final byte[] raw;
+
+        /**
+         * The constructor. The time of the entry is now
+         *
+         * @param value     The value read from the device
+         * @param dataType  The key of the data type read e.g rfid. Can be null
+         * @param address   The device's MAC address
+         * @param raw       The raw frame the value was decoded from. Can be null
+         */
+        public Entry(String value, String dataType, String address, byte[] raw){
+            this(System.currentTimeMillis(), SystemClock.elapsedRealtime(), value, dataType, address, raw);
+        }
+
+        private Entry(long time, long uptime, String value, String dataType, String address, byte[] raw){
+            this.time = time;
+            this.uptime = uptime;
+            this.value = value;
+            this.dataType = dataType != null ? dataType : "";
+            this.address = address;
+            if(raw == null) raw = new byte[0];
+            this.raw = raw.length > MAX_RAW_LENGTH ? Arrays.copyOf(raw, MAX_RAW_LENGTH) : raw;
+        }
+
+        private void encode(DataOutputStream out) throws IOException {
+            out.writeByte(VERSION);
+            out.writeLong(time);
+            out.writeLong(uptime);
+            out.writeUTF(value);
+            out.writeUTF(dataType);
+            out.writeUTF(address);
+            out.writeShort(raw.length);
+            out.write(raw);
+        }
+
+        private static Entry decode(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte version = in.readByte();
+            if(version != VERSION) throw new IOException("Unsupported journal entry version " + version);
+
+            long time = in.readLong();
+            long uptime = in.readLong();
+            String value = in.readUTF();
+            String dataType = in.readUTF();
+            String address = in.readUTF();
+            byte[] raw = new byte[in.readUnsignedShort()];
+            in.readFully(raw);
+            return new Entry(time, uptime, value, dataType, address, raw);
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getUptime() {
+            return uptime;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getDataType() {
+            return dataType;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public byte[] getRaw() {
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.cgiar.ilri.odk.sensors.handlers.ScanTrace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class aggregates the timings of the scans done on this device into histograms, one for every
+ *  phase of a scan (refer to ScanTrace), one for the whole scan and one for the number of connection
+ *  attempts. Only scans that delivered a result are recorded.
+ * There is also a histogram for how long it took to connect to a device after the app was cold
+ *  started by ODK, the first scan's phases only start being timed once the activity is up.
+ * The histograms are read from the shared preferences once and kept in memory afterwards. They are
+ *  only saved in the background so recording a scan never delays the result
+ */
+public class ScanMetrics {
+
+    private static final String TAG = "ScanMetrics";
+    private static final String RECORD_SEPARATOR = ";";
+    private static final String FIELD_SEPARATOR = ":";
+
+    public static final String TOTAL = "total";
+    public static final String CONNECT_ATTEMPTS = "connect_attempts";
+    public static final String COLD_START = "cold_start_to_connect";
+
+    private static ScanMetrics instance;
+
+    private final Context context;
+    private final Map<String, LatencyHistogram> histograms;
+    private final ExecutorService saver;
+    private final AtomicBoolean savePending;
+
+    private ScanMetrics(Context context){
+        this.context = context.getApplicationContext();
+        this.histograms = new LinkedHashMap<String, LatencyHistogram>();
+        this.saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ScanMetrics saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.savePending = new AtomicBoolean(false);
+        createHistograms();
+        load();
+    }
+
+    /**
+     * This method returns the only instance of the scan metrics in this process
+     *
+     * @param context Any context in the app
+     *
+     * @return The scan metrics
+     */
+    public static synchronized ScanMetrics getInstance(Context context){
+        if(instance == null){
+            instance = new ScanMetrics(context);
+        }
+        return instance;
+    }
+
+    private void createHistograms(){
+        for(int index = 1; index < ScanTrace.MILESTONES.length; index++){
+            histograms.put(ScanTrace.MILESTONES[index], new LatencyHistogram());
+        }
+        histograms.put(TOTAL, new LatencyHistogram());
+        histograms.put(CONNECT_ATTEMPTS, new LatencyHistogram());
+        histograms.put(COLD_START, new LatencyHistogram());
+    }
+
+    /**
+     * This method adds the timings of a finished scan to the histograms
+     *
+     * @param trace The trace of the scan
+     */
+    public synchronized void record(ScanTrace trace){
+        if(!trace.isReached(ScanTrace.RESULT_DELIVERED)){
+            Log.w(TAG, "Not recording scan that did not deliver a result");
+            return;
+        }
+
+        for(int index = 1; index < ScanTrace.MILESTONES.length; index++){
+            long duration = trace.getPhaseDuration(index);
+            if(duration >= 0) histograms.get(ScanTrace.MILESTONES[index]).record(duration);
+        }
+        histograms.get(TOTAL).record(trace.getTimeTo(ScanTrace.RESULT_DELIVERED));
+        if(trace.getConnectAttempts() >= 0) histograms.get(CONNECT_ATTEMPTS).record(trace.getConnectAttempts());
+
+        Log.i(TAG, "Scan timings: " + trace);
+        scheduleSave();
+    }
+
+    /**
+     * This method records how long it took from the app's process starting to the first device being connected to
+     *
+     * @param duration The duration in milliseconds
+     */
+    public synchronized void recordColdStart(long duration){
+        histograms.get(COLD_START).record(duration);
+        Log.i(TAG, "Cold start to connect took " + duration + "ms");
+        scheduleSave();
+    }
+
+    /**
+     * @return The histograms, keyed by the name of the phase, TOTAL, CONNECT_ATTEMPTS or COLD_START
+     */
+    public synchronized Map<String, LatencyHistogram> getHistograms(){
+        return new LinkedHashMap<String, LatencyHistogram>(histograms);
+    }
+
+    /**
+     * @return The number of scans recorded
+     */
+    public synchronized long getScanCount(){
+        return histograms.get(TOTAL).getCount();
+    }
+
+    /**
+     * This method forgets all the timings recorded so far
+     */
+    public synchronized void reset(){
+        histograms.clear();
+        createHistograms();
+        scheduleSave();
+    }
+
+    /**
+     * This method exports the percentiles of all the histograms as CSV, one row per histogram.
+     * Durations are in milliseconds, except for CONNECT_ATTEMPTS which is a number of attempts
+     *
+     * @return The CSV
+     */
+    public synchronized String exportAsCsv(){
+        StringBuilder csv = new StringBuilder("phase,count,p50,p95,p99,max\n");
+        for(Map.Entry<String, LatencyHistogram> currEntry : histograms.entrySet()){
+            LatencyHistogram histogram = currEntry.getValue();
+            csv.append(currEntry.getKey()).append(',')
+                    .append(histogram.getCount()).append(',')
+                    .append(histogram.getPercentile(0.5)).append(',')
+                    .append(histogram.getPercentile(0.95)).append(',')
+                    .append(histogram.getPercentile(0.99)).append(',')
+                    .append(histogram.getMax()).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * This method saves the histograms in the background. Scans recorded while a save is pending are
+     *  saved together
+     */
+    private void scheduleSave(){
+        if(savePending.compareAndSet(false, true)){
+            saver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    savePending.set(false);
+                    save();
+                }
+            });
+        }
+    }
+
+    private void load(){
+        String serialized = SharedPreferenceManager.getSharedPreference(context, SharedPreferenceManager.SP_SCAN_METRICS, "");
+        for(String currRecord : serialized.split(RECORD_SEPARATOR)){
+            String[] fields = currRecord.split(FIELD_SEPARATOR);
+            if(fields.length == 2 && histograms.containsKey(fields[0])){
+                try {
+                    histograms.put(fields[0], LatencyHistogram.deserialize(fields[1]));
+                }
+                catch (NumberFormatException e){
+                    Log.w(TAG, "Ignoring malformed histogram for " + fields[0]);
+                }
+            }
+        }
+    }
+
+    private void save(){
+        StringBuilder serialized = new StringBuilder();
+        synchronized (this){
+            for(Map.Entry<String, LatencyHistogram> currEntry : histograms.entrySet()){
+                if(serialized.length() > 0) serialized.append(RECORD_SEPARATOR);
+                serialized.append(currEntry.getKey()).append(FIELD_SEPARATOR).append(currEntry.getValue().serialize());
+            }
+        }
+        SharedPreferenceManager.setSharedPreference(context, SharedPreferenceManager.SP_SCAN_METRICS, serialized.toString());
+    }
+}
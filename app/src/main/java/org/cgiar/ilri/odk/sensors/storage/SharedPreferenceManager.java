@@ -29,7 +29,12 @@ import org.cgiar.ilri.odk.sensors.R;
 public class SharedPreferenceManager {
 
     private static final String TAG = "SharedPreferenceManager";
-    public static final String SP_DEFAULT_BT_RFID_DEVICE_ADDRESS = "defaultBTRFIDDeviceAddress";
+    public static final String SP_DEFAULT_BT_RFID_DEVICE_ADDRESS = "defaultBTRFIDDeviceAddress";//No longer set. Replaced by SP_DEFAULT_BT_DEVICE_ADDRESSES
+    public static final String SP_DEFAULT_BT_DEVICE_ADDRESSES = "defaultBTDeviceAddresses.";//Followed by the data type. Refer to DefaultDevices
+    public static final String SP_SCAN_METRICS = "scanMetrics";//Refer to ScanMetrics
+    public static final String SP_RECENT_READS = "recentReads";//Refer to RecentReads
+    public static final String SP_DUPLICATE_WINDOW = "duplicateWindow";//Seconds within which the same tag being read again is a duplicate
+    public static final String SP_DUPLICATE_ACTION = "duplicateAction";//What is done with duplicates. Refer to RecentReads
 
     /**
      * This method sets a shared preference to the specified value. Note that shared preferences can only handle strings
@@ -0,0 +1,424 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class is a read only index of tag numbers and the details known about each tag (e.g the animal's
+ *  ID, sex and when it was last sampled).
+ * The index is a file made from a CSV file using write. It holds the tags as numbers sorted in ascending
+ *  order, followed by where each tag's details are in the file and then the details themselves. The file
+ *  is memory mapped and looked up using a binary search so nothing is loaded into memory upfront and a
+ *  lookup only touches the pages it needs, taking microseconds even with hundreds of thousands of tags.
+ *
+ * File layout:
+ *      - MAGIC, the number of tags, the number of columns and the column names
+ *      - the tags, as longs in ascending order
+ *      - for every tag, the offset of its details from the start of the details
+ *      - the details, every value stored as its length followed by its UTF-8 bytes
+ */
+public class TagIndex {
+
+    private static final String TAG = "TagIndex";
+    private static final int MAGIC = 0x4F535431;//"OST1"
+    private static final int MAX_VALUE_LENGTH = Short.MAX_VALUE;//bytes
+    private static final int MAX_TAG_DIGITS = 18;//the most digits that fit in a long
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] TAG_COLUMNS = {"tag", "rfid", "tag_number", "tag_no"};//used as the tag column if present. Otherwise the first column is used
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final String[] columns;
+    private final int keysStart;
+    private final int offsetsStart;
+    private final int detailsStart;
+
+    private TagIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if(buffer.getInt() != MAGIC) throw new IOException("Not a tag index");
+
+        this.size = buffer.getInt();
+        this.columns = new String[buffer.getShort()];
+        for(int index = 0; index < columns.length; index++){
+            columns[index] = readString(buffer, buffer.position());
+            buffer.position(buffer.position() + 2 + (buffer.getShort(buffer.position()) & 0xFFFF));
+        }
+        this.keysStart = buffer.position();
+        this.offsetsStart = keysStart + size * 8;
+        this.detailsStart = offsetsStart + size * 4;
+        if(detailsStart > buffer.limit()) throw new IOException("Tag index is truncated");
+    }
+
+    /**
+     * This method opens an index file written using write
+     *
+     * @param file The index file
+     *
+     * @return The index
+     *
+     * @throws IOException If the file could not be read or is not an index
+     */
+    public static TagIndex open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());//stays valid after the file is closed
+            return new TagIndex(buffer);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return The number of tags in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The names of the details held for every tag, as they were in the CSV file's header
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * This method looks up the details of a tag.
+     * Can be called from any thread
+     *
+     * @param tag The tag number e.g as returned by RFID
+     *
+     * @return The tag's details or null if the tag is not in the index
+     */
+    public Record lookup(CharSequence tag){
+        long key = toKey(tag);
+        if(key < 0) return null;
+
+        int index = find(key);
+        if(index < 0) return null;
+
+        int position = detailsStart + buffer.getInt(offsetsStart + index * 4);
+        String[] values = new String[columns.length];
+        for(int column = 0; column < columns.length; column++){
+            values[column] = readString(buffer, position);
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+        }
+        return new Record(tag.toString(), columns, values);
+    }
+
+    /**
+     * This method finds a tag using a binary search over the sorted tags.
+     * Only absolute reads are done on the buffer so that lookups can run concurrently
+     *
+     * @param key The tag as a number
+     *
+     * @return The tag's position in the index or -1 if the tag is not in the index
+     */
+    private int find(long key){
+        int low = 0;
+        int high = size - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            long middleKey = buffer.getLong(keysStart + middle * 8);
+            if(middleKey < key) low = middle + 1;
+            else if(middleKey > key) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * This method converts a tag number into the number it is stored as in the index.
+     * Leading zeros are therefore not significant
+     *
+     * @param tag The tag number
+     *
+     * @return The tag as a number or -1 if the tag is not made up of digits only
+     */
+    public static long toKey(CharSequence tag){
+        int length = tag.length();
+        if(length == 0 || length > MAX_TAG_DIGITS) return -1;
+
+        long key = 0;
+        for(int index = 0; index < length; index++){
+            char character = tag.charAt(index);
+            if(character < '0' || character > '9') return -1;
+            key = key * 10 + (character - '0');
+        }
+        return key;
+    }
+
+    private static String readString(ByteBuffer buffer, int position){
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for(int index = 0; index < length; index++){
+            bytes[index] = buffer.get(position + 2 + index);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * This method makes an index file out of a CSV file.
+     * The first row of the CSV file has to be the column names. The tag column is the one named
+     *  tag, rfid, tag_number or tag_no, otherwise the first column. Rows whose tag is not a number are skipped
+     *  and if a tag is in more than one row, the last row is used
+     *
+     * @param csv   The CSV file's contents
+     * @param file  Where the index is written
+     *
+     * @return The number of tags in the index
+     *
+     * @throws IOException If the CSV could not be read, has no header or the index could not be written
+     */
+    public static int write(Reader csv, File file) throws IOException {
+        CsvParser parser = new CsvParser(csv);
+        List<String> header = parser.readRow();
+        if(header == null || header.isEmpty()) throw new IOException("The CSV file has no header");
+
+        int tagColumn = 0;
+        for(int index = 0; index < header.size(); index++){
+            for(String currTagColumn : TAG_COLUMNS){
+                if(currTagColumn.equalsIgnoreCase(header.get(index).trim())) tagColumn = index;
+            }
+        }
+        List<String> columns = new ArrayList<String>(header);
+        columns.remove(tagColumn);
+
+        List<Row> rows = new ArrayList<Row>();
+        List<String> fields;
+        int skipped = 0;
+        while((fields = parser.readRow()) != null){
+            if(fields.size() == 1 && fields.get(0).length() == 0) continue;//blank line
+
+            long key = tagColumn < fields.size() ? toKey(fields.get(tagColumn).trim()) : -1;
+            if(key < 0){
+                skipped++;
+                continue;
+            }
+
+            String[] values = new String[columns.size()];
+            int column = 0;
+            for(int index = 0; index < header.size(); index++){
+                if(index == tagColumn) continue;
+                values[column++] = index < fields.size() ? fields.get(index).trim() : "";
+            }
+            rows.add(new Row(key, values));
+        }
+        if(skipped > 0) Log.w(TAG, "Skipped " + skipped + " rows without a valid tag number");
+
+        Collections.sort(rows, new Comparator<Row>() {//stable, so rows with the same tag stay in the order they were in
+            @Override
+            public int compare(Row lhs, Row rhs) {
+                if(lhs.key == rhs.key) return 0;
+                return lhs.key < rhs.key ? -1 : 1;
+            }
+        });
+        List<Row> uniqueRows = new ArrayList<Row>(rows.size());
+        for(int index = 0; index < rows.size(); index++){
+            if(index + 1 < rows.size() && rows.get(index + 1).key == rows.get(index).key) continue;//the last row with the tag wins
+            uniqueRows.add(rows.get(index));
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(uniqueRows.size());
+            out.writeShort(columns.size());
+            for(String currColumn : columns){
+                writeString(out, currColumn.trim());
+            }
+
+            for(Row currRow : uniqueRows){
+                out.writeLong(currRow.key);
+            }
+
+            int offset = 0;
+            byte[][][] encoded = new byte[uniqueRows.size()][][];
+            for(int index = 0; index < uniqueRows.size(); index++){
+                out.writeInt(offset);
+                String[] values = uniqueRows.get(index).values;
+                encoded[index] = new byte[values.length][];
+                for(int column = 0; column < values.length; column++){
+                    encoded[index][column] = encode(values[column]);
+                    offset += 2 + encoded[index][column].length;
+                }
+            }
+
+            for(byte[][] currRow : encoded){
+                for(byte[] currValue : currRow){
+                    out.writeShort(currValue.length);
+                    out.write(currValue);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        return uniqueRows.size();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = encode(value);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] encode(String value){
+        byte[] bytes = value.getBytes(UTF_8);
+        if(bytes.length > MAX_VALUE_LENGTH){//an unreasonably long value. Cut it, even if that breaks its last character
+            byte[] cut = new byte[MAX_VALUE_LENGTH];
+            System.arraycopy(bytes, 0, cut, 0, MAX_VALUE_LENGTH);
+            return cut;
+        }
+        return bytes;
+    }
+
+    private static class Row {
+        private final long key;
+        private final String[] values;
+
+        private Row(long key, String[] values){
+            this.key = key;
+            this.values = values;
+        }
+    }
+
+    /**
+     * This class splits CSV text into rows of fields. Fields can be quoted, in which case they can
+     *  contain commas, line breaks and quotes (written as two quotes)
+     */
+    private static class CsvParser {
+        private final Reader reader;
+        private int next;
+
+        private CsvParser(Reader reader) throws IOException {
+            this.reader = reader;
+            this.next = reader.read();
+            if(next == '\uFEFF') next = reader.read();//byte order mark added by spreadsheet applications
+        }
+
+        /**
+         * @return The fields in the next row or null if there are no more rows
+         */
+        private List<String> readRow() throws IOException {
+            if(next < 0) return null;
+
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while(next >= 0){
+                int character = next;
+                next = reader.read();
+
+                if(quoted){
+                    if(character == '"'){
+                        if(next == '"'){
+                            field.append('"');
+                            next = reader.read();
+                        }
+                        else quoted = false;
+                    }
+                    else field.append((char) character);
+                }
+                else if(character == '"') quoted = true;
+                else if(character == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                }
+                else if(character == '\n') break;
+                else if(character != '\r') field.append((char) character);
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * This class holds the details of a single tag
+     */
+    public static class Record {
+        private final String tag;
+        private final String[] columns;
+        private final String[] values;
+
+        private Record(String tag, String[] columns, String[] values){
+            this.tag = tag;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * @return The number of details held for the tag
+         */
+        public int size(){
+            return columns.length;
+        }
+
+        public String getColumn(int index){
+            return columns[index];
+        }
+
+        public String getValue(int index){
+            return values[index];
+        }
+
+        /**
+         * @param column The column's name, as in the CSV file's header
+         *
+         * @return The tag's value in the column or null if there is no such column
+         */
+        public String get(String column){
+            for(int index = 0; index < columns.length; index++){
+                if(columns[index].equalsIgnoreCase(column)) return values[index];
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder string = new StringBuilder(tag);
+            for(int index = 0; index < columns.length; index++){
+                string.append(", ").append(columns[index]).append(": ").append(values[index]);
+            }
+            return string.toString();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * This class looks up the details of scanned tags (e.g the animal's ID, sex and when it was last
+ *  sampled) in a tag list imported from a CSV file, so that they can be shown or returned to ODK
+ *  together with the tag number.
+ * The tag list is kept as a TagIndex in the app's private storage
+ */
+public class TagLookupStore {
+
+    private static final String TAG = "TagLookupStore";
+    private static final String INDEX_FILE = "tags.idx";
+
+    private static TagLookupStore instance;
+
+    private final File indexFile;
+    private volatile TagIndex index;//null if no tag list has been imported
+
+    private TagLookupStore(Context context){
+        this.indexFile = new File(context.getApplicationContext().getFilesDir(), INDEX_FILE);
+        if(indexFile.exists()){
+            try {
+                index = TagIndex.open(indexFile);//only maps the file, nothing is read yet
+            }
+            catch (IOException e){
+                Log.e(TAG, "Unable to open the tag list. Import it again");
+            }
+        }
+    }
+
+    /**
+     * This method returns the only instance of the store in this process
+     *
+     * @param context Any context in the app
+     *
+     * @return The tag lookup store
+     */
+    public static synchronized TagLookupStore getInstance(Context context){
+        if(instance == null){
+            instance = new TagLookupStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * This method looks up the details of a tag. Takes a few microseconds so it can be called from any thread
+     *
+     * @param tag The tag number
+     *
+     * @return The tag's details or null if the tag is not in the tag list or no tag list has been imported
+     */
+    public TagIndex.Record lookup(String tag){
+        TagIndex currIndex = index;
+        if(currIndex == null || tag == null) return null;
+        return currIndex.lookup(tag);
+    }
+
+    /**
+     * @return The number of tags in the tag list
+     */
+    public int getTagCount(){
+        TagIndex currIndex = index;
+        if(currIndex == null) return 0;
+        return currIndex.size();
+    }
+
+    /**
+     * @return The names of the details held for every tag
+     */
+    public String[] getColumns(){
+        TagIndex currIndex = index;
+        if(currIndex == null) return new String[0];
+        return currIndex.getColumns();
+    }
+
+    /**
+     * This method replaces the tag list with the one in the provided CSV file. The CSV file's first row
+     *  has to be the column names (refer to TagIndex.write).
+     * The current tag list stays in use until the new one is completely imported.
+     * Note that this method reads and writes files and should not be called from the UI thread
+     *
+     * @param csv The CSV file's contents
+     *
+     * @return The number of tags imported
+     *
+     * @throws IOException If the CSV file could not be read or the tag list could not be written
+     */
+    public synchronized int importCsv(InputStream csv) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), INDEX_FILE + ".tmp");
+        try {
+            int count = TagIndex.write(new BufferedReader(new InputStreamReader(csv, "UTF-8")), tempFile);
+            TagIndex newIndex = TagIndex.open(tempFile);
+            if(!tempFile.renameTo(indexFile)){//the mapping stays valid after the rename
+                throw new IOException("Unable to replace the tag list");
+            }
+            index = newIndex;
+            Log.i(TAG, "Imported " + count + " tags");
+            return count;
+        }
+        finally {
+            if(tempFile.exists() && !tempFile.delete()) Log.w(TAG, "Unable to delete " + tempFile.getName());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.types;
+
+/**
+ * This class handles data types whose value is a single decimal number surrounded by whatever
+ * the device adds to it e.g "ST,GS,+  012.34kg" from a weigh scale or "T=38.5C" from a probe.
+ * The first number in the frame is taken as the value. Leading zeros and a leading '+' are dropped
+ */
+public abstract class NumericType extends Type {
+
+    /**
+     * @return The smallest value that makes sense for the type
+     */
+    protected abstract double getMinimum();
+
+    /**
+     * @return The largest value that makes sense for the type
+     */
+    protected abstract double getMaximum();
+
+    /**
+     * This method is called after the number has been decoded so that the type can lower the
+     * reading's confidence based on the rest of the frame
+     *
+     * @param buffer    The buffer holding the frame
+     * @param offset    Where the frame starts in the buffer
+     * @param length    The length of the frame
+     * @param reading   The decoded reading
+     */
+    protected void rate(byte[] buffer, int offset, int length, Reading reading) {
+    }
+
+    @Override
+    public String process(String raw) {
+        if(raw == null) return null;
+
+        byte[] bytes = raw.getBytes();
+        Reading reading = new Reading();
+        decode(bytes, 0, bytes.length, reading);
+        return reading.toString();
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length, Reading reading) {
+        reading.clear();
+        int end = offset + length;
+        int index = offset;
+
+        //find where the number starts
+        while(index < end && !isDigit(buffer[index])) index++;
+        if(index == end) return;
+
+        if(index > offset && buffer[index - 1] == '-') reading.append('-');
+
+        boolean decimalPoint = false;
+        boolean leadingZero = true;
+        for(; index < end; index++){
+            byte b = buffer[index];
+            if(isDigit(b)){
+                if(leadingZero && b == '0' && index + 1 < end && isDigit(buffer[index + 1])) continue;//drop leading zeros
+                leadingZero = false;
+                reading.append((char) b);
+            }
+            else if(b == '.' && !decimalPoint && index + 1 < end && isDigit(buffer[index + 1])){
+                decimalPoint = true;
+                leadingZero = false;
+                reading.append('.');
+            }
+            else {
+                break;
+            }
+        }
+
+        rate(buffer, offset, length, reading);
+    }
+
+    /**
+     * This method checks whether the reading is a number within the range that makes sense for the type
+     *
+     * @param reading The decoded reading
+     *
+     * @return True if the reading is a number between getMinimum and getMaximum
+     */
+    @Override
+    public boolean isValid(Reading reading) {
+        if(reading.length() == 0) return false;
+
+        double value = 0;
+        double fraction = 0;
+        boolean negative = false;
+        for(int index = 0; index < reading.length(); index++){
+            char character = reading.charAt(index);
+            if(character == '-' && index == 0) negative = true;
+            else if(character == '.') fraction = 1;
+            else if(character >= '0' && character <= '9'){
+                if(fraction > 0){
+                    fraction /= 10;
+                    value += (character - '0') * fraction;
+                }
+                else {
+                    value = value * 10 + (character - '0');
+                }
+            }
+            else return false;
+        }
+        if(negative) value = -value;
+
+        return value >= getMinimum() && value <= getMaximum();
+    }
+
+    /**
+     * This method checks whether the provided text appears in the frame
+     *
+     * @param buffer    The buffer holding the frame
+     * @param offset    Where the frame starts in the buffer
+     * @param length    The length of the frame
+     * @param text      The ASCII text to look for
+     *
+     * @return True if the text is in the frame
+     */
+    protected static boolean contains(byte[] buffer, int offset, int length, String text){
+        int last = offset + length - text.length();
+        for(int start = offset; start <= last; start++){
+            int matched = 0;
+            while(matched < text.length() && buffer[start + matched] == text.charAt(matched)) matched++;
+            if(matched == text.length()) return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(byte b){
+        return b >= '0' && b <= '9';
+    }
+}
@@ -62,6 +62,69 @@ public class RFID extends Type {
         return raw;
     }
 
+    /**
+     * This method does what process does, but straight from the bytes read from the device.
+     * No String is created and no regular expression is used:
+     *      - the non-whitespace bytes are counted
+     *      - the 15 digit tag number is copied into the reading from its position among the non-whitespace bytes
+     *
+     * @param buffer    The buffer holding the frame
+     * @param offset    Where the frame starts in the buffer
+     * @param length    The length of the frame
+     * @param reading   Where the tag number is put
+     */
+    @Override
+    public void decode(byte[] buffer, int offset, int length, Reading reading) {
+        int end = offset + length;
+        int characters = 0;
+        for(int index = offset; index < end; index++){
+            if(!isWhitespace(buffer[index])) characters++;
+        }
+
+        int from;
+        if (characters == 35) {// Seven digit header, followed by the 15 digit tag number, then a 12 digit timestamp
+            from = 8;
+        }
+        else if (characters >= 15) {
+            from = characters - 15;
+        }
+        else {
+            Log.w(TAG, "The length of the provided RFID frame is less than 15 (without the whitespaces). Cannot process this frame");
+            from = 0;
+        }
+        int to = Math.min(characters, from + 15);
+
+        reading.clear();
+        int character = 0;
+        for(int index = offset; index < end && character < to; index++){
+            if(!isWhitespace(buffer[index])){
+                if(character >= from) reading.append((char)(buffer[index] & 0xFF));
+                character++;
+            }
+        }
+    }
+
+    /**
+     * This method checks whether the reading is a 15 digit ISO 11784 tag number
+     *
+     * @param reading The decoded reading
+     *
+     * @return True if the reading is made up of exactly 15 digits
+     */
+    @Override
+    public boolean isValid(Reading reading) {
+        if(reading.length() != 15) return false;
+        for(int index = 0; index < 15; index++){
+            char character = reading.charAt(index);
+            if(character < '0' || character > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b){
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == 0x0B || b == '\f';
+    }
+
     @Override
     public String getName() {
         return KEY;
@@ -0,0 +1,137 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.types;
+
+/**
+ * This class holds a single decoded value from a sensor.
+ * It is meant to be reused for every frame read from a device so that decoding does not create a
+ * new String per frame. Call toString only when the value is actually needed as a String
+ */
+public class Reading {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private char[] value;
+    private int length;
+    private float confidence;//between 0 and 1. How sure the type that decoded the value is about it
+
+    public Reading(){
+        value = new char[DEFAULT_CAPACITY];
+        length = 0;
+        confidence = 1;
+    }
+
+    public int length(){
+        return length;
+    }
+
+    public char charAt(int index){
+        return value[index];
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(float confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * This method empties the reading
+     */
+    public void clear(){
+        length = 0;
+        confidence = 1;
+    }
+
+    /**
+     * This method adds a character to the end of the reading
+     *
+     * @param character The character to add
+     */
+    public void append(char character){
+        if(length == value.length){
+            char[] newValue = new char[value.length * 2];
+            System.arraycopy(value, 0, newValue, 0, length);
+            value = newValue;
+        }
+        value[length++] = character;
+    }
+
+    /**
+     * This method replaces the reading with the provided string
+     *
+     * @param string The new value. Null empties the reading
+     */
+    public void set(String string){
+        clear();
+        if(string == null) return;
+        for(int index = 0; index < string.length(); index++){
+            append(string.charAt(index));
+        }
+    }
+
+    /**
+     * This method replaces the reading with the provided ASCII bytes
+     *
+     * @param buffer The buffer holding the bytes
+     * @param offset Where the bytes start in the buffer
+     * @param count  The number of bytes
+     */
+    public void setAscii(byte[] buffer, int offset, int count){
+        clear();
+        for(int index = offset; index < offset + count; index++){
+            append((char)(buffer[index] & 0xFF));
+        }
+    }
+
+    /**
+     * This method replaces the reading with the value of another reading
+     *
+     * @param other The reading to copy
+     */
+    public void copyFrom(Reading other){
+        clear();
+        for(int index = 0; index < other.length; index++){
+            append(other.value[index]);
+        }
+        confidence = other.confidence;
+    }
+
+    /**
+     * This method compares the value of this reading with the value of another reading without
+     * converting any of them to a String
+     *
+     * @param other The other reading
+     *
+     * @return True if both readings hold the same value
+     */
+    public boolean contentEquals(Reading other){
+        if(other == null || other.length != length) return false;
+        for(int index = 0; index < length; index++){
+            if(value[index] != other.value[index]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(value, 0, length);
+    }
+}
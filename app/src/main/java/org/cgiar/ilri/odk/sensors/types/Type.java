@@ -21,7 +21,38 @@ package org.cgiar.ilri.odk.sensors.types;
  * Created by Jason Rogena - jrogena@ona.io on 11/29/17.
  */
 
+/**
+ * This class describes a data type that can be gotten from a sensor.
+ * Only one instance of every type exists (refer to TypeRegistry) and it is shared by all the threads
+ *  reading from devices, so types should not hold any state
+ */
 public abstract class Type {
     public abstract String process(String raw);
     public abstract String getName();
+
+    /**
+     * This method checks whether a decoded reading is an acceptable value for this type
+     *
+     * @param reading The decoded reading
+     *
+     * @return True if the reading can be returned to the caller
+     */
+    public boolean isValid(Reading reading) {
+        return reading.length() > 0;
+    }
+
+    /**
+     * This method decodes a raw frame read from a device straight into the provided reading.
+     * Implementations can lower the reading's confidence if the device flagged the value as unsure.
+     * This default implementation converts the frame to a String and calls process. Types used on
+     * high rate devices should override it to decode the bytes directly
+     *
+     * @param buffer    The buffer holding the frame
+     * @param offset    Where the frame starts in the buffer
+     * @param length    The length of the frame
+     * @param reading   Where the decoded value is put
+     */
+    public void decode(byte[] buffer, int offset, int length, Reading reading) {
+        reading.set(process(new String(buffer, offset, length)));
+    }
 }
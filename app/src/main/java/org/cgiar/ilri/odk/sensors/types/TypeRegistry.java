@@ -0,0 +1,62 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.types;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class holds the only instance of every supported data type, keyed by the value of the
+ * 'data_type' variable ODK passes to the app.
+ * The types are created once when the class is loaded and shared afterwards
+ */
+public class TypeRegistry {
+
+    private static final Map<String, Type> TYPES = new HashMap<String, Type>();
+
+    static {
+        register(new RFID());
+        register(new Weight());
+        register(new Temperature());
+    }
+
+    private static void register(Type type){
+        TYPES.put(type.getName(), type);
+    }
+
+    /**
+     * This method returns the data type corresponding to the provided key
+     *
+     * @param key The data type's key e.g rfid. Case is ignored
+     *
+     * @return The data type or null if the key is not supported
+     */
+    public static Type get(String key){
+        if(key == null) return null;
+        return TYPES.get(key.toLowerCase());
+    }
+
+    /**
+     * @return The keys of all the supported data types
+     */
+    public static Set<String> getKeys(){
+        return Collections.unmodifiableSet(TYPES.keySet());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.types;
+
+/**
+ * This class handles data of type weight, as sent by livestock weigh scales e.g "ST,GS,+  012.34kg".
+ * The value is returned in whatever unit the scale is set to
+ */
+public class Weight extends NumericType {
+
+    public static final String KEY = "weight";
+
+    private static final float UNSTABLE_CONFIDENCE = 0.5f;
+
+    @Override
+    protected double getMinimum() {
+        return 0;
+    }
+
+    @Override
+    protected double getMaximum() {
+        return 5000;
+    }
+
+    /**
+     * Most scales flag a reading taken while the animal was still moving with "US" (unstable)
+     * instead of "ST" (stable). Such readings are given a confidence below
+     * ConfirmationStrategy.MIN_CONFIDENCE so they are never confirmed
+     */
+    @Override
+    protected void rate(byte[] buffer, int offset, int length, Reading reading) {
+        if(contains(buffer, offset, length, "US")){
+            reading.setConfidence(UNSTABLE_CONFIDENCE);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return KEY;
+    }
+}
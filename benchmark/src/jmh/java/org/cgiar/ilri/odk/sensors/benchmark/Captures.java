@@ -0,0 +1,54 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+/**
+ * Output captured from an Allflex RS320-3-60 stick reader, used as input for the benchmarks
+ */
+public final class Captures {
+
+    /*
+    Seven digit header and a separator, followed by the 15 digit tag number, then a 12 digit timestamp.
+    35 characters without the whitespaces
+     */
+    public static final String FRAMED = "R0000001 982000123456789 150603120000";
+
+    public static final String RAW = "982000123456789";
+
+    public static final String PADDED = "   982 000123456789   \t";
+
+    public static final String GARBAGE = "\u0000?ERR#91";
+
+    private Captures(){
+    }
+
+    /**
+     * This method returns the capture corresponding to the provided name
+     *
+     * @param name framed, raw, padded or garbage
+     *
+     * @return The capture
+     */
+    public static String get(String name){
+        if("framed".equals(name)) return FRAMED;
+        else if("raw".equals(name)) return RAW;
+        else if("padded".equals(name)) return PADDED;
+        else if("garbage".equals(name)) return GARBAGE;
+        throw new IllegalArgumentException("Unknown capture " + name);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategies;
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategy;
+import org.cgiar.ilri.odk.sensors.types.Reading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks confirming a tag the way the RS320 delivers it: a cached value from the previous
+ * scan, then the new value until the strategy confirms it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ConfirmationBenchmark {
+
+    @Param({"pair", "vote"})
+    public String strategyKey;
+
+    private ConfirmationStrategy strategy;
+    private Reading cached;
+    private Reading scanned;
+
+    @Setup
+    public void setUp(){
+        strategy = ConfirmationStrategies.create(strategyKey);
+        cached = new Reading();
+        cached.set("982000123456780");
+        scanned = new Reading();
+        scanned.set(Captures.RAW);
+    }
+
+    @Benchmark
+    public int confirm(){
+        strategy.reset();
+        long now = 0;
+        strategy.offer(cached, now);
+        int values = 1;
+        while(strategy.offer(scanned, ++now) != ConfirmationStrategy.CONFIRMED){
+            values++;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+import org.cgiar.ilri.odk.sensors.handlers.FrameReader;
+import org.cgiar.ilri.odk.sensors.types.RFID;
+import org.cgiar.ilri.odk.sensors.types.Reading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks splitting a stream of reader output into frames and decoding every frame.
+ * The score is per frame
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameReaderBenchmark {
+
+    private static final int FRAMES = 1000;
+
+    @Param({"crlf", "stx"})
+    public String delimiter;
+
+    private RFID rfid;
+    private Reading reading;
+    private byte[] stream;
+    private ByteArrayInputStream inputStream;
+    private FrameReader frameReader;
+
+    @Setup
+    public void setUp(){
+        rfid = new RFID();
+        reading = new Reading();
+
+        StringBuilder builder = new StringBuilder();
+        for(int index = 0; index < FRAMES; index++){
+            if("stx".equals(delimiter)) builder.append('\u0002').append(Captures.FRAMED).append('\u0003');
+            else builder.append(Captures.FRAMED).append("\r\n");
+        }
+        stream = builder.toString().getBytes();
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind(){
+        inputStream = new ByteArrayInputStream(stream);
+        frameReader = new FrameReader(inputStream);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public Reading readAndDecode() throws IOException {
+        while(frameReader.readFrame() >= 0){
+            rfid.decode(frameReader.getBuffer(), frameReader.getFrameStart(), frameReader.getFrameLength(), reading);
+        }
+        return reading;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+import org.cgiar.ilri.odk.sensors.handlers.BluetoothSessionPool;
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategies;
+import org.cgiar.ilri.odk.sensors.handlers.ConfirmationStrategy;
+import org.cgiar.ilri.odk.sensors.handlers.ConnectionScheduler;
+import org.cgiar.ilri.odk.sensors.handlers.ReaderChannel;
+import org.cgiar.ilri.odk.sensors.handlers.SimulatedReader;
+import org.cgiar.ilri.odk.sensors.handlers.ValueReader;
+import org.cgiar.ilri.odk.sensors.types.RFID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a whole scan against SimulatedReader, the way BluetoothHandler does it: connection
+ * attempts scheduled by ConnectionScheduler, the connected channel opened as a session and frames
+ * read until a value is confirmed. A scan that fails is started again until a value is gotten.
+ *
+ * The field profile reproduces what was observed with stick readers in the field, so its latency
+ * distribution (p50, p90, p99 etc) is what to look at when changing connection or confirmation code.
+ * There is no regression budget for this benchmark since it mostly measures thread hand overs and
+ * the simulated delays
+ */
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    private static final String ADDRESS = "00:00:00:00:00:01";
+
+    /*
+    clean:  a healthy reader with no delays. Measures the overhead of the pipeline itself
+    field:  slow connections with jitter, failed connection attempts and a link that drops now and then
+     */
+    @Param({"clean", "field"})
+    public String profile;
+
+    @Param({"pair", "vote"})
+    public String confirmation;
+
+    private SimulatedReader reader;
+    private ConnectionScheduler scheduler;
+    private BluetoothSessionPool sessionPool;
+    private ValueReader valueReader;
+    private ConfirmationStrategy strategy;
+
+    @Setup
+    public void setUp(){
+        reader = new SimulatedReader(new Random(42));//seeded so that runs are comparable
+        reader.setTags("982000123456789", "982000987654321", "982000555555555");
+        if("field".equals(profile)){
+            reader.setConnectDelay(20);
+            reader.setScanDelay(10);
+            reader.setFrameInterval(5);
+            reader.setJitter(0.3);
+            reader.setConnectFailureRate(0.2);
+            reader.setDropoutRate(0.02);
+        }
+        else if(!"clean".equals(profile)){
+            throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+
+        scheduler = ConnectionScheduler.getInstance();
+        sessionPool = BluetoothSessionPool.getInstance();
+        valueReader = new ValueReader(new RFID());
+        strategy = ConfirmationStrategies.create(confirmation);
+    }
+
+    @Benchmark
+    public String scan() throws Exception {
+        while(true){
+            ReaderChannel channel = connect();
+            if(channel == null) continue;//the scheduler gave up, start again like the user would
+
+            BluetoothSessionPool.Session session = sessionPool.open(channel);
+            if(session == null) continue;
+            try {
+                String value = valueReader.readConfirmedValue(session.getFrameReader(), strategy, null);
+                if(value != null) return value;
+            }
+            catch (IOException e){
+                //the link dropped while reading, start again
+            }
+            finally {
+                sessionPool.discard(session);
+            }
+        }
+    }
+
+    /**
+     * This method connects to the simulated reader using ConnectionScheduler
+     *
+     * @return The connected channel or null if the scheduler gave up
+     */
+    private ReaderChannel connect() throws InterruptedException {
+        final ReaderChannel[] connected = new ReaderChannel[1];
+        final BlockingQueue<Boolean> outcome = new ArrayBlockingQueue<Boolean>(1);
+        scheduler.schedule(ADDRESS, new ConnectionScheduler.Connector() {
+            @Override
+            public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+                ReaderChannel channel = reader.createChannel(ADDRESS);
+                try {
+                    channel.connect();
+                }
+                catch (IOException e){
+                    channel.close();
+                    throw e;
+                }
+                connected[0] = channel;
+            }
+        }, new ConnectionScheduler.Callback() {
+            @Override
+            public void onConnected(int attempts) {
+                outcome.offer(Boolean.TRUE);
+            }
+
+            @Override
+            public void onGaveUp(int attempts) {
+                outcome.offer(Boolean.FALSE);
+            }
+        });
+
+        if(outcome.take()) return connected[0];//the queue makes the channel visible to this thread
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+import org.cgiar.ilri.odk.sensors.types.RFID;
+import org.cgiar.ilri.odk.sensors.types.Reading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding a single RFID frame, both from a String (RFID.process) and straight from the
+ * bytes read from the device (RFID.decode)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RFIDBenchmark {
+
+    @Param({"framed", "raw", "padded", "garbage"})
+    public String capture;
+
+    private RFID rfid;
+    private String frame;
+    private byte[] frameBytes;
+    private Reading reading;
+
+    @Setup
+    public void setUp(){
+        rfid = new RFID();
+        frame = Captures.get(capture);
+        frameBytes = frame.getBytes();
+        reading = new Reading();
+    }
+
+    @Benchmark
+    public String process(){
+        return rfid.process(frame);
+    }
+
+    @Benchmark
+    public Reading decode(){
+        rfid.decode(frameBytes, 0, frameBytes.length, reading);
+        return reading;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2017 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cgiar.ilri.odk.sensors.benchmark;
+
+import org.cgiar.ilri.odk.sensors.storage.TagIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks looking up the details of a tag in a tag list made from a CSV file like the ones
+ * exported from the biorepository's records. Every lookup is for a different tag, half of which are
+ * not in the list
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TagLookupBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1000", "150000"})
+    public int tags;
+
+    private File file;
+    private TagIndex index;
+    private String[] lookups;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("animal_id,tag,sex,last_sampled\r\n");
+        lookups = new String[LOOKUPS];
+        for(int count = 0; count < tags; count++){
+            String tag = String.format("982%012d", (random.nextLong() & Long.MAX_VALUE) % 1000000000000L);
+            csv.append("AZ").append(count).append(',').append(tag).append(',').append(count % 2 == 0 ? 'F' : 'M').append(",2015-06-01\r\n");
+            if(count < LOOKUPS / 2) lookups[count * 2] = tag;
+        }
+        for(int count = 0; count < LOOKUPS / 2; count++){
+            lookups[count * 2 + 1] = String.format("964%012d", count);//not in the list
+        }
+
+        file = File.createTempFile("tags", ".idx");
+        TagIndex.write(new StringReader(csv.toString()), file);
+        index = TagIndex.open(file);
+    }
+
+    @TearDown
+    public void tearDown(){
+        file.delete();
+    }
+
+    @Benchmark
+    public TagIndex.Record lookup(){
+        next = (next + 1) & (LOOKUPS - 1);
+        return index.lookup(lookups[next]);
+    }
+}
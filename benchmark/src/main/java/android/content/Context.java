@@ -0,0 +1,69 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package android.content;
+
+import org.cgiar.ilri.odk.sensors.R;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for android.content.Context so that the app's storage classes can be run on a plain JVM.
+ * Files go in the provided directory and shared preferences are only kept in memory
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private final File filesDir;
+    private final Map<String, SharedPreferences> sharedPreferences;
+
+    /**
+     * The constructor
+     *
+     * @param filesDir The directory returned by getFilesDir e.g a temporary directory
+     */
+    public Context(File filesDir){
+        this.filesDir = filesDir;
+        this.sharedPreferences = new HashMap<String, SharedPreferences>();
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences preferences = sharedPreferences.get(name);
+        if(preferences == null){
+            preferences = new SharedPreferences();
+            sharedPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    public String getString(int resId) {
+        if(resId == R.string.app_name) return "ODK Sensors";
+        throw new IllegalArgumentException("Unknown string resource " + resId);
+    }
+}
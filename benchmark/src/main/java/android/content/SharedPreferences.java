@@ -0,0 +1,67 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for android.content.SharedPreferences that only keeps the preferences in memory.
+ * Only strings are supported since that is all SharedPreferenceManager stores
+ */
+public class SharedPreferences {
+
+    private final Map<String, String> values;
+
+    SharedPreferences(){
+        values = new HashMap<String, String>();
+    }
+
+    public synchronized String getString(String key, String defValue) {
+        String value = values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * This class holds changes until they are committed
+     */
+    public class Editor {
+        private final Map<String, String> changes = new HashMap<String, String>();
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public boolean commit() {
+            synchronized (SharedPreferences.this){
+                values.putAll(changes);
+            }
+            return true;
+        }
+
+        public void apply() {
+            commit();
+        }
+    }
+}
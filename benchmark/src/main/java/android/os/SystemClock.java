@@ -0,0 +1,37 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package android.os;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for android.os.SystemClock so that the app's storage classes can be run on a plain JVM
+ */
+public final class SystemClock {
+
+    private SystemClock(){
+    }
+
+    /**
+     * @return Milliseconds from a monotonic clock, standing in for the milliseconds since boot
+     */
+    public static long elapsedRealtime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
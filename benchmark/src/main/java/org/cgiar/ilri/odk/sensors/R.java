@@ -0,0 +1,30 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors;
+
+/**
+ * Stand-in for the resources generated for the app. Only holds the resources used by the classes
+ * compiled into this module. Refer to android.content.Context
+ */
+public final class R {
+
+    public static final class string {
+        public static final int app_name = 0x7f060000;
+    }
+}
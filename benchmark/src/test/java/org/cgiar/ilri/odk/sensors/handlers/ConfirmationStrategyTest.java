@@ -0,0 +1,154 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.Reading;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the confirmation strategies and how ConfirmationStrategies creates them
+ */
+public class ConfirmationStrategyTest {
+
+    private static final String CACHED = "982000123456789";
+    private static final String ACTUAL = "982000987654321";
+    private static final String OTHER = "982000555555555";
+
+    @Test
+    public void testAcceptFirstConfirmsAnyValue() {
+        AcceptFirstConfirmer confirmer = new AcceptFirstConfirmer();
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(CACHED), 0));
+        assertEquals(CACHED, confirmer.getConfirmed().toString());
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(ACTUAL), 1));
+        assertEquals(ACTUAL, confirmer.getConfirmed().toString());
+    }
+
+    @Test
+    public void testPairConfirmsTwoEqualValues() {
+        PairConfirmer confirmer = new PairConfirmer();
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 0));
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(ACTUAL), 1));
+        assertEquals(ACTUAL, confirmer.getConfirmed().toString());
+    }
+
+    @Test
+    public void testPairRejectsDifferentValues() {
+        PairConfirmer confirmer = new PairConfirmer();
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(CACHED), 0));
+        assertEquals(ConfirmationStrategy.REJECTED, confirmer.offer(reading(ACTUAL), 1));
+
+        //a new round is started after a rejection
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 2));
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(ACTUAL), 3));
+        assertEquals(ACTUAL, confirmer.getConfirmed().toString());
+    }
+
+    @Test
+    public void testPairResetStartsNewRound() {
+        PairConfirmer confirmer = new PairConfirmer();
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(CACHED), 0));
+        confirmer.reset();
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 1));
+    }
+
+    @Test
+    public void testVotingOutvotesCachedValue() {
+        VotingConfirmer confirmer = new VotingConfirmer(2, 3, 5000);
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(CACHED), 0));
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(ACTUAL), 10));
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(ACTUAL), 20));
+        assertEquals(ACTUAL, confirmer.getConfirmed().toString());
+
+        //a new round is started after a value is confirmed
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 30));
+    }
+
+    @Test
+    public void testVotingOnlyCountsValuesInWindow() {
+        VotingConfirmer confirmer = new VotingConfirmer(2, 3, 0);
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 0));
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(CACHED), 1));
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(OTHER), 2));
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(ACTUAL), 3));//the first ACTUAL has left the window of 3
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(CACHED), 4));
+        assertEquals(ConfirmationStrategy.PENDING, confirmer.offer(reading(OTHER), 5));
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(OTHER), 6));
+        assertEquals(OTHER, confirmer.getConfirmed().toString());
+    }
+
+    @Test
+    public void testVotingExpiresOldValues() {
+        VotingConfirmer confirmer = new VotingConfirmer(2, 3, 5000);
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(CACHED), 0));
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(CACHED), 5001));//the first value is too old to be counted
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(CACHED), 6000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVotingNeedsWindowForVotes() {
+        new VotingConfirmer(3, 2, 0);
+    }
+
+    @Test
+    public void testUnsureValuesAreNotCounted() {
+        ConfirmationStrategy[] strategies = {new AcceptFirstConfirmer(), new PairConfirmer(), new VotingConfirmer(2, 3, 0)};
+        for(ConfirmationStrategy currStrategy : strategies){
+            Reading unstable = reading(ACTUAL);
+            unstable.setConfidence(ConfirmationStrategy.MIN_CONFIDENCE / 2);
+            assertEquals(currStrategy.getName(), ConfirmationStrategy.UNSURE, currStrategy.offer(unstable, 0));
+            assertEquals(currStrategy.getName(), ConfirmationStrategy.UNSURE, currStrategy.offer(unstable, 1));
+        }
+
+        PairConfirmer confirmer = new PairConfirmer();
+        Reading unstable = reading(ACTUAL);
+        unstable.setConfidence(ConfirmationStrategy.MIN_CONFIDENCE / 2);
+        assertEquals(ConfirmationStrategy.FIRST, confirmer.offer(reading(ACTUAL), 0));
+        assertEquals(ConfirmationStrategy.UNSURE, confirmer.offer(unstable, 1));
+        assertEquals(ConfirmationStrategy.CONFIRMED, confirmer.offer(reading(ACTUAL), 2));
+    }
+
+    @Test
+    public void testCreateSetsDefaultTimeout() {
+        for(String currKey : ConfirmationStrategies.getKeys()){
+            ConfirmationStrategy strategy = ConfirmationStrategies.create(currKey);
+            assertEquals(currKey, strategy.getName());
+            assertEquals(ConfirmationStrategies.DEFAULT_TIMEOUT, strategy.getTimeout());
+        }
+        assertEquals(PairConfirmer.KEY, ConfirmationStrategies.create("PAIR").getName());
+        assertNull(ConfirmationStrategies.create("unknown"));
+        assertNull(ConfirmationStrategies.create(null));
+    }
+
+    @Test
+    public void testForDeviceUsesModel() {
+        assertEquals(VotingConfirmer.KEY, ConfirmationStrategies.forDevice("Allflex RS320-3-60 1234").getName());
+        assertTrue(ConfirmationStrategies.forDevice("Unknown reader") != null);
+        assertTrue(ConfirmationStrategies.forDevice(null) != null);
+    }
+
+    private static Reading reading(String value){
+        Reading reading = new Reading();
+        reading.set(value);
+        return reading;
+    }
+}
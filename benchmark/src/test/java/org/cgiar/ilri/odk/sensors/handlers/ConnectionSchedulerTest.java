@@ -0,0 +1,188 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how ConnectionScheduler backs off between failed connection attempts and when it gives up
+ */
+public class ConnectionSchedulerTest {
+
+    private static final long OUTCOME_TIMEOUT = 10000;//milliseconds
+
+    private final ConnectionScheduler scheduler = ConnectionScheduler.getInstance();
+
+    @After
+    public void tearDown() {
+        scheduler.setPolicy(ConnectionScheduler.Policy.DEFAULT);
+    }
+
+    @Test
+    public void testRetriesUntilConnected() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(10, 2.0, 100, 0, 5000, 6));
+        FailingConnector connector = new FailingConnector(2);
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", connector, outcome);
+
+        assertEquals("connected 3", outcome.await());
+        assertEquals(3, connector.getAttemptTimes().size());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(10, 2.0, 100, 0, 5000, 4));
+        FailingConnector connector = new FailingConnector(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", connector, outcome);
+
+        assertEquals("gave up 4", outcome.await());
+        Thread.sleep(200);
+        assertEquals(4, connector.getAttemptTimes().size());//no attempts after giving up
+    }
+
+    @Test
+    public void testGivesUpAtDeadline() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(100, 1.0, 100, 0, 250, 100));
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", new FailingConnector(Integer.MAX_VALUE), outcome);
+
+        assertEquals("gave up 3", outcome.await());//attempts at 0, 100 and 200ms. A fourth at 300ms would be past the deadline
+    }
+
+    @Test
+    public void testBacksOffExponentially() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(50, 2.0, 1000, 0, 5000, 4));
+        FailingConnector connector = new FailingConnector(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", connector, outcome);
+
+        assertEquals("gave up 4", outcome.await());
+        long[] delays = getDelays(connector.getAttemptTimes());
+        assertTrue("First delay was " + delays[0] + "ms", delays[0] >= 50);
+        assertTrue("Second delay was " + delays[1] + "ms", delays[1] >= 100);
+        assertTrue("Third delay was " + delays[2] + "ms", delays[2] >= 200);
+    }
+
+    @Test
+    public void testCapsDelay() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(20, 10.0, 50, 0, 5000, 4));
+        FailingConnector connector = new FailingConnector(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", connector, outcome);
+
+        assertEquals("gave up 4", outcome.await());
+        long[] delays = getDelays(connector.getAttemptTimes());
+        assertTrue("Third delay was " + delays[2] + "ms", delays[2] >= 50 && delays[2] < 1000);//would be 2000ms without the cap
+    }
+
+    @Test
+    public void testGivesUpOnUnexpectedError() throws InterruptedException {
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", new ConnectionScheduler.Connector() {
+            @Override
+            public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+                throw new SecurityException("Bluetooth permission missing");
+            }
+        }, outcome);
+
+        assertEquals("gave up 1", outcome.await());
+    }
+
+    @Test
+    public void testCancelStopsAttempts() throws InterruptedException {
+        scheduler.setPolicy(new ConnectionScheduler.Policy(10, 2.0, 100, 0, 5000, 6));
+        final FailingConnector connector = new FailingConnector(Integer.MAX_VALUE);
+        Outcome outcome = new Outcome();
+        scheduler.schedule("test", new ConnectionScheduler.Connector() {
+            @Override
+            public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+                ticket.cancel();//like the user leaving while the socket is connecting
+                connector.connect(ticket);
+            }
+        }, outcome);
+
+        Thread.sleep(300);
+        assertNull(outcome.outcomes.poll());
+        assertEquals(1, connector.getAttemptTimes().size());
+    }
+
+    private static long[] getDelays(List<Long> attemptTimes){
+        long[] delays = new long[attemptTimes.size() - 1];
+        for(int index = 0; index < delays.length; index++){
+            delays[index] = TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(index + 1) - attemptTimes.get(index));
+        }
+        return delays;
+    }
+
+    /**
+     * This class fails the first attempts, noting when every attempt was made
+     */
+    private static class FailingConnector implements ConnectionScheduler.Connector {
+        private final int failures;
+        private final List<Long> attemptTimes = new CopyOnWriteArrayList<Long>();
+
+        private FailingConnector(int failures){
+            this.failures = failures;
+        }
+
+        @Override
+        public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+            attemptTimes.add(System.nanoTime());
+            if(attemptTimes.size() <= failures) throw new IOException("Simulated connection failure");
+        }
+
+        private List<Long> getAttemptTimes() {
+            return attemptTimes;
+        }
+    }
+
+    /**
+     * This class holds what the scheduler reported
+     */
+    private static class Outcome implements ConnectionScheduler.Callback {
+        private final BlockingQueue<String> outcomes = new ArrayBlockingQueue<String>(10);
+
+        @Override
+        public void onConnected(int attempts) {
+            outcomes.offer("connected " + attempts);
+        }
+
+        @Override
+        public void onGaveUp(int attempts) {
+            outcomes.offer("gave up " + attempts);
+        }
+
+        private String await() throws InterruptedException {
+            return outcomes.poll(OUTCOME_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+}
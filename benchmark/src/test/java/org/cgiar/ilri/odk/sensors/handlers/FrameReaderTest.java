@@ -0,0 +1,158 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how FrameReader splits what a reader sends into frames
+ */
+public class FrameReaderTest {
+
+    @Test
+    public void testSplitsCrLfFrames() throws IOException {
+        FrameReader frameReader = createFrameReader("A1\r\nB2\r\n");
+        assertEquals("A1", readFrame(frameReader));
+        assertEquals("B2", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testSplitsStxEtxFrames() throws IOException {
+        FrameReader frameReader = createFrameReader("\u0002A1\u0003\u0002B2\u0003");
+        assertEquals("A1", readFrame(frameReader));
+        assertEquals("B2", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testSkipsEmptyFrames() throws IOException {
+        FrameReader frameReader = createFrameReader("\r\n\n\rA1\n\n\u0003\u0002B2\r");
+        assertEquals("A1", readFrame(frameReader));
+        assertEquals("B2", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testReturnsUnterminatedLastFrame() throws IOException {
+        FrameReader frameReader = createFrameReader("A1\r\nB2");
+        assertEquals("A1", readFrame(frameReader));
+        assertEquals("B2", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testJoinsFramesSplitAcrossReads() throws IOException {
+        final byte[] bytes = "R0000001 982000123456789\r\nR0000002 982000987654321\r\n".getBytes("US-ASCII");
+        InputStream oneByteAtATime = new InputStream() {//like a slow bluetooth link
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                return position < bytes.length ? bytes[position++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = read();
+                if(read < 0) return -1;
+                buffer[offset] = (byte) read;
+                return 1;
+            }
+        };
+
+        FrameReader frameReader = new FrameReader(oneByteAtATime);
+        assertEquals("R0000001 982000123456789", readFrame(frameReader));
+        assertEquals("R0000002 982000987654321", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testGrowsForLongFrames() throws IOException {
+        String longFrame = repeat('x', 3000);
+        FrameReader frameReader = createFrameReader(longFrame + "\r\nA1\r\n");
+        assertEquals(longFrame, readFrame(frameReader));
+        assertEquals("A1", readFrame(frameReader));
+    }
+
+    @Test
+    public void testDropsGarbageLongerThanMaxCapacity() throws IOException {
+        String garbage = repeat('x', 5000);
+        FrameReader frameReader = createFrameReader(garbage + "\r\nA1\r\n");
+
+        int length = frameReader.readFrame();
+        assertTrue("The garbage should have been cut, got " + length + " bytes", length > 0 && length < 4096);
+        assertEquals(repeat('x', length), toString(frameReader));
+        assertEquals("A1", readFrame(frameReader));
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    @Test
+    public void testReadyIgnoresLeftOverDelimiters() throws IOException {
+        FrameReader frameReader = createFrameReader("A1\r\n");
+        assertEquals("A1", readFrame(frameReader));
+        assertFalse(frameReader.ready());//only the LF after the CR is left
+
+        frameReader = createFrameReader("A1\r\nB2\r\n");
+        assertEquals("A1", readFrame(frameReader));
+        assertTrue(frameReader.ready());
+    }
+
+    @Test
+    public void testDrainDiscardsBufferedFrames() throws IOException {
+        FrameReader frameReader = createFrameReader("A1\r\nB2\r\nC3\r\n");
+        assertEquals("A1", readFrame(frameReader));
+        frameReader.drain();
+        assertFalse(frameReader.ready());
+        assertEquals(-1, frameReader.readFrame());
+    }
+
+    private static FrameReader createFrameReader(String bytes) throws IOException {
+        return new FrameReader(new ByteArrayInputStream(bytes.getBytes("US-ASCII")));
+    }
+
+    /**
+     * This method reads the next frame, failing if the end of the stream is reached
+     */
+    private static String readFrame(FrameReader frameReader) throws IOException {
+        int length = frameReader.readFrame();
+        assertTrue("Expected a frame but reached the end of the stream", length > 0);
+        assertEquals(length, frameReader.getFrameLength());
+        return toString(frameReader);
+    }
+
+    private static String toString(FrameReader frameReader) throws IOException {
+        return new String(frameReader.getBuffer(), frameReader.getFrameStart(), frameReader.getFrameLength(), "US-ASCII");
+    }
+
+    private static String repeat(char character, int count){
+        char[] characters = new char[count];
+        Arrays.fill(characters, character);
+        return new String(characters);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.handlers;
+
+import org.cgiar.ilri.odk.sensors.types.RFID;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading confirmed values, mostly through the whole pipeline against SimulatedReader: connecting
+ * using ConnectionScheduler, opening a session in BluetoothSessionPool and reading frames until a value
+ * is confirmed, the way BluetoothHandler does it
+ */
+public class ValueReaderTest {
+
+    private static final String FIRST_TAG = "982000123456789";
+    private static final String SECOND_TAG = "982000987654321";
+    private static final String ADDRESS = "00:00:00:00:00:01";
+    private static final long CONNECT_TIMEOUT = 10000;//milliseconds
+
+    private final BluetoothSessionPool sessionPool = BluetoothSessionPool.getInstance();
+    private BluetoothSessionPool.Session session;
+
+    @After
+    public void tearDown() {
+        sessionPool.discard(session);
+        session = null;
+    }
+
+    @Test
+    public void testOutvotesCachedValue() throws Exception {
+        SimulatedReader reader = new SimulatedReader(new Random(42));
+        reader.setTags(FIRST_TAG, SECOND_TAG);
+        reader.setCachedFirstValue(true);
+        reader.setBurstSize(3);
+        reader.setScanDelay(300);
+        session = connect(reader);
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        ConfirmationStrategy strategy = ConfirmationStrategies.create(VotingConfirmer.KEY);
+        assertEquals(FIRST_TAG, valueReader.readConfirmedValue(session.getFrameReader(), strategy, null));
+
+        //put the session back in the pool like between two scans. The rest of the first burst is drained when it is reused
+        Thread.sleep(50);
+        sessionPool.release(session);
+        session = sessionPool.acquire(ADDRESS);
+        assertNotNull(session);
+
+        //the second scan starts with the first tag, cached by the reader
+        assertEquals(SECOND_TAG, valueReader.readConfirmedValue(session.getFrameReader(), strategy, null));
+        assertFalse(valueReader.isTimedOut());
+        assertTrue(new String(valueReader.getConfirmedFrame(), "US-ASCII").contains(SECOND_TAG));
+    }
+
+    @Test
+    public void testReadsStxEtxFrames() throws Exception {
+        SimulatedReader reader = new SimulatedReader(new Random(42));
+        reader.setTags(FIRST_TAG);
+        reader.setDelimiter(SimulatedReader.DELIMITER_STX_ETX);
+        reader.setBurstSize(2);
+        session = connect(reader);
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        assertEquals(FIRST_TAG, valueReader.readConfirmedValue(session.getFrameReader(), ConfirmationStrategies.create(PairConfirmer.KEY), null));
+    }
+
+    @Test
+    public void testRetriesFailedConnections() throws Exception {
+        SimulatedReader reader = new SimulatedReader(new Random(4));//the first attempt fails and the second succeeds with this seed
+        reader.setTags(FIRST_TAG);
+        reader.setConnectFailureRate(0.75);
+        reader.setConnectDelay(10);
+        long attempts = ConnectionScheduler.getInstance().getMetrics().getAttempts();
+        session = connect(reader);
+        assertEquals(2, ConnectionScheduler.getInstance().getMetrics().getAttempts() - attempts);
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        assertEquals(FIRST_TAG, valueReader.readConfirmedValue(session.getFrameReader(), ConfirmationStrategies.create(VotingConfirmer.KEY), null));
+    }
+
+    @Test
+    public void testTimesOutWhenReaderGoesQuiet() throws Exception {
+        SimulatedReader reader = new SimulatedReader(new Random(42));
+        reader.setTags(FIRST_TAG);
+        reader.setCachedFirstValue(false);
+        reader.setBurstSize(1);//a vote needs two values, the second only comes with the next scan
+        reader.setScanDelay(1000);
+        session = connect(reader);
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        ConfirmationStrategy strategy = ConfirmationStrategies.create(VotingConfirmer.KEY);
+        strategy.setTimeout(300);
+        final String[] firstValue = new String[1];
+        String value = valueReader.readConfirmedValue(session.getFrameReader(), strategy, new ValueReader.Listener() {
+            @Override
+            public void onFrameRead() {
+            }
+
+            @Override
+            public void onFirstValue(String value) {
+                firstValue[0] = value;
+            }
+        });
+
+        assertNull(value);
+        assertTrue(valueReader.isTimedOut());
+        assertEquals(FIRST_TAG, firstValue[0]);
+        assertTrue(session.isHealthy());
+    }
+
+    @Test
+    public void testTimesOutWhenValuesDisagree() throws Exception {
+        SimulatedReader reader = new SimulatedReader(new Random(42));
+        reader.setTags(FIRST_TAG, SECOND_TAG);
+        reader.setCachedFirstValue(false);
+        reader.setBurstSize(1);
+        reader.setScanDelay(20);
+        session = connect(reader);
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        ConfirmationStrategy strategy = ConfirmationStrategies.create(PairConfirmer.KEY);
+        strategy.setTimeout(300);
+        long start = System.nanoTime();
+        assertNull(valueReader.readConfirmedValue(session.getFrameReader(), strategy, null));
+        assertTrue(valueReader.isTimedOut());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test
+    public void testIgnoresInvalidFrames() throws IOException {
+        String frames = "garbage\r\nR0000001 " + FIRST_TAG + " 000000000001\r\nR0000001 " + FIRST_TAG + " 000000000001\r\n";
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(frames.getBytes("US-ASCII")));
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        assertEquals(FIRST_TAG, valueReader.readConfirmedValue(frameReader, ConfirmationStrategies.create(PairConfirmer.KEY), null));
+    }
+
+    @Test
+    public void testReturnsNothingAtEndOfStream() throws IOException {
+        String frames = "R0000001 " + FIRST_TAG + " 000000000001\r\n";
+        FrameReader frameReader = new FrameReader(new ByteArrayInputStream(frames.getBytes("US-ASCII")));
+
+        ValueReader valueReader = new ValueReader(new RFID());
+        ConfirmationStrategy strategy = ConfirmationStrategies.create(PairConfirmer.KEY);
+        strategy.setTimeout(0);//otherwise the timeout expires first, since the end of the stream is only noticed when reading
+        assertNull(valueReader.readConfirmedValue(frameReader, strategy, null));
+        assertFalse(valueReader.isTimedOut());
+    }
+
+    /**
+     * This method connects to the simulated reader using ConnectionScheduler and opens a session on
+     * the connected channel
+     *
+     * @return The session
+     */
+    private BluetoothSessionPool.Session connect(final SimulatedReader reader) throws InterruptedException {
+        final ReaderChannel[] connected = new ReaderChannel[1];
+        final BlockingQueue<Boolean> outcome = new ArrayBlockingQueue<Boolean>(1);
+        ConnectionScheduler.getInstance().schedule(ADDRESS, new ConnectionScheduler.Connector() {
+            @Override
+            public void connect(ConnectionScheduler.Ticket ticket) throws IOException {
+                ReaderChannel channel = reader.createChannel(ADDRESS);
+                try {
+                    channel.connect();
+                }
+                catch (IOException e){
+                    channel.close();
+                    throw e;
+                }
+                connected[0] = channel;
+            }
+        }, new ConnectionScheduler.Callback() {
+            @Override
+            public void onConnected(int attempts) {
+                outcome.offer(Boolean.TRUE);
+            }
+
+            @Override
+            public void onGaveUp(int attempts) {
+                outcome.offer(Boolean.FALSE);
+            }
+        });
+
+        Boolean connectedInTime = outcome.poll(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals("Unable to connect to the simulated reader", Boolean.TRUE, connectedInTime);
+
+        BluetoothSessionPool.Session session = sessionPool.open(connected[0]);
+        assertNotNull(session);
+        return session;
+    }
+}
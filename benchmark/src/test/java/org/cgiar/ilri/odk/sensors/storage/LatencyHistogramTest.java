@@ -0,0 +1,107 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the percentiles reported by LatencyHistogram and persisting the histogram
+ */
+public class LatencyHistogramTest {
+
+    private static final double ACCURACY = 0.25;//how far off the bucket bounds can be
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(-1, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void testPercentilesWithinAccuracy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long duration = 1; duration <= 1000; duration++){
+            histogram.record(duration);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertWithinAccuracy(500, histogram.getPercentile(0.5));
+        assertWithinAccuracy(900, histogram.getPercentile(0.9));
+        assertWithinAccuracy(990, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getPercentile(1));//never more than the maximum
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void testSkewedDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int index = 0; index < 95; index++){
+            histogram.record(40);//warm sockets
+        }
+        for(int index = 0; index < 5; index++){
+            histogram.record(3000);//new connections
+        }
+
+        assertWithinAccuracy(40, histogram.getPercentile(0.5));
+        assertWithinAccuracy(40, histogram.getPercentile(0.95));
+        assertWithinAccuracy(3000, histogram.getPercentile(0.96));
+    }
+
+    @Test
+    public void testLongDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(300000);//longer than the last bucket's bound
+        histogram.record(-5);//ignored
+        assertEquals(1, histogram.getCount());
+        assertEquals(300000, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void testSerialize() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long duration = 0; duration < 5000; duration += 7){
+            histogram.record(duration);
+        }
+
+        String serialized = histogram.serialize();
+        LatencyHistogram deserialized = LatencyHistogram.deserialize(serialized);
+        assertEquals(serialized, deserialized.serialize());
+        assertEquals(histogram.getCount(), deserialized.getCount());
+        assertEquals(histogram.getMax(), deserialized.getMax());
+        assertEquals(histogram.getPercentile(0.5), deserialized.getPercentile(0.5));
+        assertEquals(histogram.getPercentile(0.99), deserialized.getPercentile(0.99));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testRejectsMalformedHistogram() {
+        LatencyHistogram.deserialize("12,3,4");
+    }
+
+    /**
+     * This method checks that a percentile is not below the actual duration and at most ACCURACY above it
+     */
+    private static void assertWithinAccuracy(long expected, long actual){
+        assertTrue("Expected about " + expected + "ms but got " + actual + "ms", actual >= expected && actual <= Math.ceil(expected * (1 + ACCURACY)));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests how RecentReads catches duplicates and which values it forgets first
+ */
+public class RecentReadsTest {
+
+    private static final int MAX_ENTRIES = 256;
+    private static final long WINDOW = 30000;//milliseconds
+
+    private static RecentReads recentReads;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        File filesDir = File.createTempFile("files", "");
+        if(!filesDir.delete() || !filesDir.mkdir()) throw new IOException("Unable to create " + filesDir);
+        recentReads = RecentReads.getInstance(new Context(filesDir));
+    }
+
+    @Before
+    public void setUp() {
+        recentReads.clear();
+    }
+
+    @Test
+    public void testDuplicateWithinWindow() {
+        recentReads.record("982000123456789", 1000);
+        assertEquals(5000, recentReads.getAge("982000123456789", 6000));
+        assertTrue(recentReads.isDuplicate("982000123456789", WINDOW, 6000));
+        assertFalse(recentReads.isDuplicate("982000987654321", WINDOW, 6000));
+        assertFalse(recentReads.isDuplicate("982000123456789", WINDOW, 1000 + WINDOW));
+    }
+
+    @Test
+    public void testNoWindowMeansNoDuplicates() {
+        recentReads.record("982000123456789", 1000);
+        assertFalse(recentReads.isDuplicate("982000123456789", 0, 1000));
+    }
+
+    @Test
+    public void testClockSetBack() {
+        recentReads.record("982000123456789", 10000);
+        assertEquals(-1, recentReads.getAge("982000123456789", 5000));
+        assertFalse(recentReads.isDuplicate("982000123456789", WINDOW, 5000));
+    }
+
+    @Test
+    public void testRecordingAgainRestartsWindow() {
+        recentReads.record("982000123456789", 1000);
+        recentReads.record("982000123456789", 20000);
+        assertTrue(recentReads.isDuplicate("982000123456789", WINDOW, 1000 + WINDOW));
+    }
+
+    @Test
+    public void testForgetsLeastRecentlyRecorded() {
+        for(int index = 0; index < MAX_ENTRIES; index++){
+            recentReads.record("tag" + index, index);
+        }
+        recentReads.record("tag0", MAX_ENTRIES);//tag1 is now the least recently recorded
+        recentReads.record("tag" + MAX_ENTRIES, MAX_ENTRIES + 1);
+
+        long now = MAX_ENTRIES + 2;
+        assertTrue(recentReads.getAge("tag0", now) >= 0);
+        assertEquals(-1, recentReads.getAge("tag1", now));
+        assertTrue(recentReads.getAge("tag2", now) >= 0);
+        assertTrue(recentReads.getAge("tag" + MAX_ENTRIES, now) >= 0);
+    }
+
+    @Test
+    public void testClearForgetsEverything() {
+        recentReads.record("982000123456789", 1000);
+        recentReads.clear();
+        assertEquals(-1, recentReads.getAge("982000123456789", 2000));
+    }
+}
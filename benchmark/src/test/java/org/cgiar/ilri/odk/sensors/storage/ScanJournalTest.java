@@ -0,0 +1,159 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import android.content.Context;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading back the scan journal, including segments that end with a partly written record
+ */
+public class ScanJournalTest {
+
+    private static final long WRITE_TIMEOUT = 10000;//milliseconds
+
+    private static File directory;
+    private static ScanJournal journal;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        File filesDir = File.createTempFile("files", "");
+        if(!filesDir.delete() || !filesDir.mkdir()) throw new IOException("Unable to create " + filesDir);
+        directory = new File(filesDir, "journal");
+        journal = ScanJournal.getInstance(new Context(filesDir));
+    }
+
+    @Test
+    public void testSkipsPartlyWrittenRecords() throws Exception {
+        journal.append(new ScanJournal.Entry("982000000000001", "rfid", "00:00:00:00:00:01", "R1 982000000000001".getBytes("US-ASCII")));
+        journal.append(new ScanJournal.Entry("982000000000002", "rfid", "00:00:00:00:00:01", null));
+        journal.append(new ScanJournal.Entry("982000000000003", null, "00:00:00:00:00:02", null));
+        awaitEntries(3);
+
+        File[] segments = directory.listFiles();
+        assertEquals(1, segments.length);
+        assertEquals("segment-1.bin", segments[0].getName());
+        byte[] segment = readFile(segments[0]);
+
+        //the last record's CRC does not match, like when the app was killed while the record was being written
+        byte[] corrupted = segment.clone();
+        corrupted[corrupted.length - 1] ^= 0x01;
+        writeFile(new File(directory, "segment-2.bin"), corrupted);
+
+        //the last record is cut short
+        writeFile(new File(directory, "segment-3.bin"), Arrays.copyOf(segment, segment.length - 5));
+
+        //garbage after the last record, read as an impossible record length
+        byte[] garbage = Arrays.copyOf(segment, segment.length + 6);
+        garbage[segment.length] = 0x7F;
+        writeFile(new File(directory, "segment-4.bin"), garbage);
+
+        //not a segment at all
+        writeFile(new File(directory, "segment-5.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        assertEquals(Arrays.asList(
+                "982000000000003", "982000000000002", "982000000000001",//segment-4.bin, most recent first
+                "982000000000002", "982000000000001",//segment-3.bin
+                "982000000000002", "982000000000001",//segment-2.bin
+                "982000000000003", "982000000000002", "982000000000001"), getValues(journal.query(null, 100)));
+
+        List<ScanJournal.Entry> entries = journal.query("00:00:00:00:00:02", 100);
+        assertEquals(2, entries.size());//segment-4.bin and segment-1.bin
+        assertEquals("", entries.get(0).getDataType());
+
+        assertEquals(Arrays.asList("982000000000001", "982000000000001"), getValues(journal.query("982000000000001", 2)));
+        assertEquals(0, journal.getDroppedCount());
+    }
+
+    @Test
+    public void testExportAsCsv() throws IOException {
+        List<ScanJournal.Entry> entries = new ArrayList<ScanJournal.Entry>();
+        entries.add(new ScanJournal.Entry("982000000000001", "rfid", "00:00:00:00:00:01", new byte[]{0x0A, (byte) 0xFF}));
+        entries.add(new ScanJournal.Entry("12,5 \"kg\"", "weight", "00:00:00:00:00:02", null));
+
+        StringWriter csv = new StringWriter();
+        ScanJournal.exportAsCsv(entries, csv);
+        String[] rows = csv.toString().split("\n");
+
+        assertEquals(3, rows.length);
+        assertEquals("time,uptime,value,data_type,device,raw", rows[0]);
+        assertTrue(rows[1], rows[1].endsWith(",982000000000001,rfid,00:00:00:00:00:01,0aff"));
+        assertTrue(rows[2], rows[2].endsWith(",\"12,5 \"\"kg\"\"\",weight,00:00:00:00:00:02,"));
+    }
+
+    /**
+     * This method waits for the journal's thread to write the entries appended so far
+     */
+    private static void awaitEntries(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+        while(journal.query(null, count).size() < count){
+            assertTrue("Entries not written to the journal in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> getValues(List<ScanJournal.Entry> entries){
+        List<String> values = new ArrayList<String>();
+        for(ScanJournal.Entry currEntry : entries){
+            values.add(currEntry.getValue());
+        }
+        return values;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while(read < bytes.length){
+                int count = in.read(bytes, read, bytes.length - read);
+                if(count < 0) throw new IOException("Unexpected end of " + file);
+                read += count;
+            }
+        }
+        finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
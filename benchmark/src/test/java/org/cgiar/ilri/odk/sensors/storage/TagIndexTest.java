@@ -0,0 +1,152 @@
+/*
+ Note that this application has been custom made by and for use by the ILRI Azizi Biorepository team. (C) 2015 Jason Rogena <j.rogena@cgiar.org>
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cgiar.ilri.odk.sensors.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests importing a CSV file into a TagIndex and looking tags up in it
+ */
+public class TagIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tags", ".idx");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testImportsCsv() throws IOException {
+        String csv = "\uFEFFanimal_id, Tag ,sex\r\n"//with the byte order mark spreadsheet applications add
+                + "BV001,982000000000003,F\r\n"
+                + "BV002,982000000000001,\"M, castrated\"\r\n"
+                + "\r\n"
+                + "BV003,not a tag,F\r\n"
+                + "\"BV\"\"004\",0982000000000002\r\n";
+        assertEquals(3, TagIndex.write(new StringReader(csv), file));
+
+        TagIndex index = TagIndex.open(file);
+        assertEquals(3, index.size());
+        assertArrayEquals(new String[]{"animal_id", "sex"}, index.getColumns());
+
+        TagIndex.Record record = index.lookup("982000000000001");
+        assertEquals("982000000000001", record.getTag());
+        assertEquals(2, record.size());
+        assertEquals("animal_id", record.getColumn(0));
+        assertEquals("BV002", record.getValue(0));
+        assertEquals("M, castrated", record.get("SEX"));
+        assertNull(record.get("weight"));
+
+        record = index.lookup("982000000000002");//the leading zero in the CSV file is not significant
+        assertEquals("BV\"004", record.get("animal_id"));
+        assertEquals("", record.get("sex"));//missing from the row
+
+        assertEquals("F", index.lookup("982000000000003").get("sex"));
+    }
+
+    @Test
+    public void testLastRowWins() throws IOException {
+        String csv = "rfid,animal_id\n982000000000001,BV001\n982000000000001,BV002\n";
+        assertEquals(1, TagIndex.write(new StringReader(csv), file));
+        assertEquals("BV002", TagIndex.open(file).lookup("982000000000001").get("animal_id"));
+    }
+
+    @Test
+    public void testUsesFirstColumnWithoutTagColumn() throws IOException {
+        String csv = "eid,animal_id\n982000000000001,BV001\n";
+        TagIndex.write(new StringReader(csv), file);
+        TagIndex index = TagIndex.open(file);
+        assertArrayEquals(new String[]{"animal_id"}, index.getColumns());
+        assertEquals("BV001", index.lookup("982000000000001").get("animal_id"));
+    }
+
+    @Test
+    public void testFindsEveryTag() throws IOException {
+        List<Long> tags = new ArrayList<Long>();
+        for(long tag = 0; tag < 5000; tag++){
+            tags.add(982000000000000L + tag * 2);//odd tags are never in the index
+        }
+        Collections.shuffle(tags, new Random(42));
+
+        StringBuilder csv = new StringBuilder("tag,animal_id\n");
+        for(Long currTag : tags){
+            csv.append(currTag).append(",BV").append(currTag).append('\n');
+        }
+        assertEquals(tags.size(), TagIndex.write(new StringReader(csv.toString()), file));
+
+        TagIndex index = TagIndex.open(file);
+        for(Long currTag : tags){
+            assertEquals("BV" + currTag, index.lookup(String.valueOf(currTag)).get("animal_id"));
+            assertNull(index.lookup(String.valueOf(currTag + 1)));
+        }
+        assertNull(index.lookup(String.valueOf(982000000000000L - 1)));//before the first tag
+        assertNull(index.lookup(String.valueOf(982000000000000L + tags.size() * 2)));//after the last tag
+    }
+
+    @Test
+    public void testRejectsTagsThatAreNotNumbers() throws IOException {
+        TagIndex.write(new StringReader("tag,animal_id\n982000000000001,BV001\n"), file);
+        TagIndex index = TagIndex.open(file);
+        assertNull(index.lookup(""));
+        assertNull(index.lookup("98200000000000A"));
+        assertNull(index.lookup("9820000000000000001"));//too many digits
+    }
+
+    @Test
+    public void testToKey() {
+        assertEquals(982000123456789L, TagIndex.toKey("982000123456789"));
+        assertEquals(42L, TagIndex.toKey("00042"));
+        assertEquals(-1L, TagIndex.toKey("-42"));
+        assertEquals(-1L, TagIndex.toKey(" 42"));
+        assertEquals(-1L, TagIndex.toKey(""));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsCsvWithoutHeader() throws IOException {
+        TagIndex.write(new StringReader(""), file);
+    }
+
+    @Test
+    public void testOpensEmptyIndex() throws IOException {
+        assertEquals(0, TagIndex.write(new StringReader("tag,animal_id\n"), file));
+        TagIndex index = TagIndex.open(file);
+        assertEquals(0, index.size());
+        assertNull(index.lookup("982000000000001"));
+    }
+}